@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.samples.apps.iosched.provider;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.samples.apps.iosched.provider.ScheduleContract.Sessions;
+import com.google.samples.apps.iosched.util.SelectionBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for the query of every {@link ScheduleUriEnum} and fails if one that
+ * is not in {@link #FULL_SCANS} scans a whole table, so the secondary indexes of
+ * {@link ScheduleDatabase} don't silently stop being used. The queries are built by the provider
+ * itself, so they can't go stale, and a new URI is checked as soon as it is added.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ScheduleDatabaseQueryPlanTest {
+
+    private static final String ACCOUNT = "test@example.com";
+
+    /**
+     * A step that reads every row of a table: "SCAN TABLE x" before SQLite 3.36, "SCAN x" since,
+     * optionally followed by the alias. Index walks ("USING INDEX") and virtual tables don't
+     * match.
+     */
+    private static final Pattern TABLE_SCAN = Pattern.compile("^SCAN (TABLE )?\\w+( AS \\w+)?$");
+
+    /** URIs whose queries are meant to scan a table. */
+    private static final Set<ScheduleUriEnum> FULL_SCANS = EnumSet.of(
+            // unfiltered listings, which return every row anyway
+            ScheduleUriEnum.BLOCKS,
+            ScheduleUriEnum.TAGS,
+            ScheduleUriEnum.ROOMS,
+            ScheduleUriEnum.SESSIONS,
+            ScheduleUriEnum.SPEAKERS,
+            ScheduleUriEnum.ANNOUNCEMENTS,
+            ScheduleUriEnum.MAPMARKERS,
+            ScheduleUriEnum.MAPTILES,
+            ScheduleUriEnum.FEEDBACK_ALL,
+            ScheduleUriEnum.HASHTAGS,
+            ScheduleUriEnum.VIDEOS,
+            ScheduleUriEnum.CARDS,
+            // counts the sessions of every time slot
+            ScheduleUriEnum.SESSIONS_COUNTER,
+            // ORs the schedule flag with a LIKE on the tags, which no index can answer
+            ScheduleUriEnum.SESSIONS_MY_SCHEDULE,
+            // returns the rest of the conference, which is most of it
+            ScheduleUriEnum.SESSIONS_AFTER,
+            // tables of a few dozen rows, not worth an index
+            ScheduleUriEnum.ANNOUNCEMENTS_ID,
+            ScheduleUriEnum.MAPMARKERS_FLOOR,
+            ScheduleUriEnum.FEEDBACK_FOR_SESSION,
+            // the UNIQUE constraints index these by session or video first, and they only hold
+            // the rows of the signed in user
+            ScheduleUriEnum.MY_FEEDBACK_SUBMITTED,
+            ScheduleUriEnum.MY_VIEWED_VIDEOS,
+            // sessions_speakers is indexed by session; a speaker page is opened one at a time
+            ScheduleUriEnum.SPEAKERS_ID_SESSIONS);
+
+    /** URIs {@link ScheduleProvider#buildExpandedSelection} doesn't build a query for. */
+    private static final Set<ScheduleUriEnum> NOT_EXPANDED = EnumSet.of(
+            ScheduleUriEnum.SEARCH_SUGGEST,
+            ScheduleUriEnum.SEARCH_TOPICS_SESSIONS);
+
+    private Context mContext;
+    private ScheduleDatabase mOpenHelper;
+    private SQLiteDatabase mDb;
+    private ScheduleProvider mProvider;
+    private ScheduleProviderUriMatcher mUriMatcher;
+
+    @Before
+    public void createDatabase() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "test_");
+        ScheduleDatabase.deleteDatabase(mContext);
+        mOpenHelper = new ScheduleDatabase(mContext);
+        mDb = mOpenHelper.getReadableDatabase();
+        mProvider = new ScheduleProvider();
+        mProvider.attachInfo(mContext, null);
+        mUriMatcher = new ScheduleProviderUriMatcher();
+    }
+
+    @After
+    public void deleteDatabase() {
+        mOpenHelper.close();
+        ScheduleDatabase.deleteDatabase(mContext);
+    }
+
+    @Test
+    public void allUris_useIndexes() {
+        for (ScheduleUriEnum uriEnum : ScheduleUriEnum.values()) {
+            if (FULL_SCANS.contains(uriEnum) || NOT_EXPANDED.contains(uriEnum)) {
+                continue;
+            }
+            Uri uri = buildUri(uriEnum);
+            assertEquals(uri.toString(), uriEnum, mUriMatcher.matchUri(uri));
+            assertNoTableScan(uri, null);
+        }
+    }
+
+    @Test
+    public void sessionsInInterval_usesIndex() {
+        assertNoTableScan(Sessions.CONTENT_URI,
+                Sessions.SESSION_START + ">=? AND " + Sessions.SESSION_START + "<?", "0", "1");
+    }
+
+    /**
+     * @return a URI that matches {@code uriEnum}, with a sample value for each wildcard
+     */
+    private static Uri buildUri(ScheduleUriEnum uriEnum) {
+        Uri.Builder builder = ScheduleContract.BASE_CONTENT_URI.buildUpon();
+        for (String segment : uriEnum.path.split("/")) {
+            if (!"*".equals(segment) && !"#".equals(segment)) {
+                builder.appendPath(segment);
+            } else if (uriEnum == ScheduleUriEnum.SESSIONS_UNSCHEDULED) {
+                // an interval, see Sessions.getInterval
+                builder.appendPath("0-1");
+            } else {
+                builder.appendPath("1");
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Checks the query {@link ScheduleProvider#query} runs for {@code uri} and the given
+     * selection.
+     */
+    private void assertNoTableScan(Uri uri, String selection, String... selectionArgs) {
+        uri = ScheduleContractHelper.addOverrideAccountName(uri, ACCOUNT);
+        int match = mUriMatcher.matchUri(uri).code;
+        SelectionBuilder builder = mProvider.buildExpandedSelection(uri, match)
+                .where(selection, selectionArgs);
+        String sql = builder.buildQuery(false, null, null, null);
+        Cursor plan = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, builder.getSelectionArgs());
+        try {
+            int detailColumn = plan.getColumnIndexOrThrow("detail");
+            while (plan.moveToNext()) {
+                String detail = plan.getString(detailColumn);
+                assertFalse(uri + ": " + sql + ": " + detail,
+                        TABLE_SCAN.matcher(detail).matches());
+            }
+        } finally {
+            plan.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.samples.apps.iosched.provider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.samples.apps.iosched.provider.ScheduleContract.Blocks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link ScheduleProvider#applyBatch} applies a sync batch as a whole, so a failed
+ * sync doesn't leave part of its data behind, and that queries aren't blocked while it runs.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ScheduleProviderApplyBatchTest {
+
+    /** More operations than a full sync of a small conference. */
+    private static final int NUM_BLOCKS = 500;
+
+    /** Longer than any query of the test should take. */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private Context mContext;
+    private ScheduleProvider mProvider;
+
+    @Before
+    public void createProvider() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "test_");
+        ScheduleDatabase.deleteDatabase(mContext);
+        mProvider = new ScheduleProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void deleteDatabase() {
+        ScheduleDatabase.deleteDatabase(mContext);
+    }
+
+    @Test
+    public void applyBatch_appliesAllOperations() throws Exception {
+        mProvider.applyBatch(buildInsertBlocks());
+
+        assertEquals(NUM_BLOCKS, countBlocks(mProvider));
+    }
+
+    @Test
+    public void applyBatch_failingOperation_rollsBackWholeBatch() throws Exception {
+        ArrayList<ContentProviderOperation> batch = buildInsertBlocks();
+        // fails after all the inserts, as no such block exists
+        batch.add(ContentProviderOperation.newUpdate(syncUri(Blocks.buildBlockUri("missing")))
+                .withValue(Blocks.BLOCK_TITLE, "title")
+                .withExpectedCount(1)
+                .build());
+
+        try {
+            mProvider.applyBatch(batch);
+            fail("batch applied although an operation failed");
+        } catch (OperationApplicationException expected) {
+        }
+
+        assertEquals(0, countBlocks(mProvider));
+    }
+
+    @Test
+    public void applyBatch_doesNotBlockConcurrentQueries() throws Exception {
+        final CountDownLatch batchWritten = new CountDownLatch(1);
+        final CountDownLatch queried = new CountDownLatch(1);
+        // holds the transaction of the batch open after its last insert, until the test queried
+        final ScheduleProvider provider = new ScheduleProvider() {
+            @Override
+            public Uri insert(Uri uri, ContentValues values) {
+                Uri inserted = super.insert(uri, values);
+                if (values.getAsString(Blocks.BLOCK_ID).equals("block" + (NUM_BLOCKS - 1))) {
+                    batchWritten.countDown();
+                    try {
+                        queried.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return inserted;
+            }
+        };
+        provider.attachInfo(mContext, null);
+
+        ExecutorService syncThread = Executors.newSingleThreadExecutor();
+        try {
+            Future<ContentProviderResult[]> batch = syncThread.submit(
+                    new Callable<ContentProviderResult[]>() {
+                        @Override
+                        public ContentProviderResult[] call() throws Exception {
+                            return provider.applyBatch(buildInsertBlocks());
+                        }
+                    });
+            assertTrue("batch not applied",
+                    batchWritten.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+            // if the query waited for the batch, the batch would only commit after the timeout
+            // and the query would see its blocks
+            long start = System.nanoTime();
+            int blocksDuringBatch = countBlocks(provider);
+            long queryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            queried.countDown();
+
+            assertEquals("query saw uncommitted blocks", 0, blocksDuringBatch);
+            assertTrue("query took " + queryMillis + " ms",
+                    queryMillis < TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            batch.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(NUM_BLOCKS, countBlocks(provider));
+        } finally {
+            queried.countDown();
+            syncThread.shutdownNow();
+        }
+    }
+
+    private ArrayList<ContentProviderOperation> buildInsertBlocks() {
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        for (int i = 0; i < NUM_BLOCKS; i++) {
+            batch.add(ContentProviderOperation.newInsert(syncUri(Blocks.CONTENT_URI))
+                    .withValue(Blocks.BLOCK_ID, "block" + i)
+                    .withValue(Blocks.BLOCK_TITLE, "Block " + i)
+                    .withValue(Blocks.BLOCK_START, i)
+                    .withValue(Blocks.BLOCK_END, i + 1)
+                    .build());
+        }
+        return batch;
+    }
+
+    private static int countBlocks(ScheduleProvider provider) {
+        Cursor cursor = provider.query(Blocks.CONTENT_URI, new String[]{Blocks.BLOCK_ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri syncUri(Uri uri) {
+        return ScheduleContractHelper.setUriAsCalledFromSyncAdapter(uri);
+    }
+}
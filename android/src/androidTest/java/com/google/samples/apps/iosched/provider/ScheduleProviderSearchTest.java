@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.samples.apps.iosched.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.samples.apps.iosched.provider.ScheduleContract.Sessions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the triggers on the sessions table keep the session search index in step with the
+ * sessions, whichever way they are written.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ScheduleProviderSearchTest {
+
+    private Context mContext;
+    private ScheduleProvider mProvider;
+
+    @Before
+    public void createProvider() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "test_");
+        ScheduleDatabase.deleteDatabase(mContext);
+        mProvider = new ScheduleProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void deleteDatabase() {
+        ScheduleDatabase.deleteDatabase(mContext);
+    }
+
+    @Test
+    public void updatedSession_isFoundByNewTitleOnly() {
+        insertSession("session1", "Kotlin");
+        ContentValues values = new ContentValues();
+        values.put(Sessions.SESSION_TITLE, "Firebase");
+        mProvider.update(syncUri(Sessions.buildSessionUri("session1")), values, null, null);
+
+        assertEquals(0, countMatches("Kotlin"));
+        assertEquals(1, countMatches("Firebase"));
+    }
+
+    @Test
+    public void replacedSession_isFoundByNewTitleOnly() {
+        insertSession("session1", "Kotlin");
+        // same id: the UNIQUE constraint replaces the row
+        insertSession("session1", "Firebase");
+
+        assertEquals(0, countMatches("Kotlin"));
+        assertEquals(1, countMatches("Firebase"));
+    }
+
+    @Test
+    public void deletedSession_isNotFound() {
+        insertSession("session1", "Kotlin");
+        mProvider.delete(syncUri(Sessions.buildSessionUri("session1")), null, null);
+
+        assertEquals(0, countMatches("Kotlin"));
+    }
+
+    private void insertSession(String sessionId, String title) {
+        ContentValues values = new ContentValues();
+        values.put(Sessions.UPDATED, 0);
+        values.put(Sessions.SESSION_ID, sessionId);
+        values.put(Sessions.SESSION_TITLE, title);
+        values.put(Sessions.SESSION_START, 0);
+        values.put(Sessions.SESSION_END, 1);
+        mProvider.insert(syncUri(Sessions.CONTENT_URI), values);
+    }
+
+    private int countMatches(String query) {
+        Cursor cursor = mProvider.query(Sessions.buildSearchUri(query),
+                new String[]{Sessions.SESSION_ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri syncUri(Uri uri) {
+        return ScheduleContractHelper.setUriAsCalledFromSyncAdapter(uri);
+    }
+}
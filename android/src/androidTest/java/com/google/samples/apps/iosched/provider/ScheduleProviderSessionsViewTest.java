@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.samples.apps.iosched.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.samples.apps.iosched.provider.ScheduleContract.MySchedule;
+import com.google.samples.apps.iosched.provider.ScheduleContract.Rooms;
+import com.google.samples.apps.iosched.provider.ScheduleContract.Sessions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that single writes to the sessions, rooms and My Schedule keep the rows of
+ * {@link ScheduleDatabase.Tables#SESSIONS_VIEW} read by the Sessions URI up to date, and that the
+ * in-schedule flag is the one of the account of the query.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ScheduleProviderSessionsViewTest {
+
+    private static final String ACCOUNT = "test@example.com";
+    private static final String OTHER_ACCOUNT = "other@example.com";
+
+    private Context mContext;
+    private ScheduleProvider mProvider;
+
+    @Before
+    public void createProvider() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "test_");
+        ScheduleDatabase.deleteDatabase(mContext);
+        mProvider = new ScheduleProvider();
+        mProvider.attachInfo(mContext, null);
+
+        insertRoom("room1", "Room 1");
+        insertSession("session1", "room1");
+    }
+
+    @After
+    public void deleteDatabase() {
+        ScheduleDatabase.deleteDatabase(mContext);
+    }
+
+    @Test
+    public void insertedSession_isListedWithItsRoom() {
+        insertSession("session2", "room1");
+
+        assertEquals("Room 1", querySession("session2", Sessions.ROOM_NAME, ACCOUNT));
+    }
+
+    @Test
+    public void renamedRoom_isShownOnItsSessions() {
+        ContentValues values = new ContentValues();
+        values.put(Rooms.ROOM_NAME, "Renamed");
+        mProvider.update(syncUri(Rooms.buildRoomUri("room1")), values, null, null);
+
+        assertEquals("Renamed", querySession("session1", Sessions.ROOM_NAME, ACCOUNT));
+    }
+
+    @Test
+    public void deletedSession_isNotListed() {
+        mProvider.delete(syncUri(Sessions.buildSessionUri("session1")), null, null);
+
+        Cursor cursor = mProvider.query(Sessions.CONTENT_URI, new String[]{Sessions.SESSION_ID},
+                null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void starredSession_isInScheduleOfItsAccountOnly() {
+        ContentValues values = new ContentValues();
+        values.put(MySchedule.SESSION_ID, "session1");
+        values.put(MySchedule.MY_SCHEDULE_IN_SCHEDULE, 1);
+        mProvider.insert(syncUri(MySchedule.buildMyScheduleUri(ACCOUNT)), values);
+
+        assertEquals("1", querySession("session1", Sessions.SESSION_IN_MY_SCHEDULE, ACCOUNT));
+        assertEquals("0",
+                querySession("session1", Sessions.SESSION_IN_MY_SCHEDULE, OTHER_ACCOUNT));
+
+        mProvider.delete(syncUri(MySchedule.buildMyScheduleUri(ACCOUNT)),
+                MySchedule.SESSION_ID + "=?", new String[]{"session1"});
+
+        assertEquals("0", querySession("session1", Sessions.SESSION_IN_MY_SCHEDULE, ACCOUNT));
+    }
+
+    private void insertRoom(String roomId, String name) {
+        ContentValues values = new ContentValues();
+        values.put(Rooms.ROOM_ID, roomId);
+        values.put(Rooms.ROOM_NAME, name);
+        mProvider.insert(syncUri(Rooms.CONTENT_URI), values);
+    }
+
+    private void insertSession(String sessionId, String roomId) {
+        ContentValues values = new ContentValues();
+        values.put(Sessions.UPDATED, 0);
+        values.put(Sessions.SESSION_ID, sessionId);
+        values.put(Sessions.SESSION_START, 0);
+        values.put(Sessions.SESSION_END, 1);
+        values.put(Sessions.ROOM_ID, roomId);
+        mProvider.insert(syncUri(Sessions.CONTENT_URI), values);
+    }
+
+    /**
+     * @return {@code column} of the session, as listed for {@code accountName}
+     */
+    private String querySession(String sessionId, String column, String accountName) {
+        Uri uri = ScheduleContractHelper.addOverrideAccountName(Sessions.CONTENT_URI,
+                accountName);
+        Cursor cursor = mProvider.query(uri, new String[]{column},
+                Sessions.SESSION_ID + "=?", new String[]{sessionId}, null);
+        try {
+            assertTrue("session " + sessionId + " not listed", cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri syncUri(Uri uri) {
+        return ScheduleContractHelper.setUriAsCalledFromSyncAdapter(uri);
+    }
+}
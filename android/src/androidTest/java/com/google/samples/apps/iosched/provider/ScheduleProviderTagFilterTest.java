@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.samples.apps.iosched.provider;
+
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.samples.apps.iosched.provider.ScheduleContract.Sessions;
+import com.google.samples.apps.iosched.provider.ScheduleContract.Tags;
+import com.google.samples.apps.iosched.provider.ScheduleDatabase.SessionsTags;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the tag filter of the Sessions URI on the {@link SessionTagIndex} the sync builds after
+ * its batch, and on the SQL filter a provider uses before its index is loaded.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ScheduleProviderTagFilterTest {
+
+    private Context mContext;
+    private ScheduleProvider mProvider;
+
+    @Before
+    public void createProvider() throws Exception {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "test_");
+        ScheduleDatabase.deleteDatabase(mContext);
+        mProvider = new ScheduleProvider();
+        mProvider.attachInfo(mContext, null);
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        addTag(batch, "TOPIC_A", "TOPIC");
+        addTag(batch, "TOPIC_B", "TOPIC");
+        addTag(batch, "TYPE_X", "TYPE");
+        addSession(batch, "session1", "TOPIC_A", "TYPE_X");
+        addSession(batch, "session2", "TOPIC_B");
+        addSession(batch, "session3", "TOPIC_B", "TYPE_X");
+        mProvider.applyBatch(batch);
+    }
+
+    @After
+    public void deleteDatabase() {
+        ScheduleDatabase.deleteDatabase(mContext);
+    }
+
+    @Test
+    public void tagsOfOneCategory_matchAnyTag() {
+        assertFilter(new String[]{"TOPIC_A", "TOPIC_B"}, "session1", "session2", "session3");
+    }
+
+    @Test
+    public void tagsOfSeveralCategories_matchEveryCategory() {
+        assertFilter(new String[]{"TOPIC_A", "TOPIC_B", "TYPE_X"}, "session1", "session3");
+    }
+
+    @Test
+    public void unknownTag_matchesNoSession() {
+        assertFilter(new String[]{"TOPIC_A", "UNKNOWN"});
+    }
+
+    /**
+     * Checks that the sessions matching {@code tags} are {@code sessionIds}, with and without the
+     * index.
+     */
+    private void assertFilter(String[] tags, String... sessionIds) {
+        Set<String> expected = new HashSet<>(Arrays.asList(sessionIds));
+        assertEquals("with the index", expected, querySessionIds(mProvider, tags));
+
+        // the first query of a new provider starts loading its index, and doesn't wait for it
+        ScheduleProvider coldProvider = new ScheduleProvider();
+        coldProvider.attachInfo(mContext, null);
+        assertEquals("without the index", expected, querySessionIds(coldProvider, tags));
+    }
+
+    private static Set<String> querySessionIds(ScheduleProvider provider, String[] tags) {
+        Uri uri = Sessions.buildCategoryTagFilterUri(Sessions.CONTENT_URI, tags, 0);
+        Cursor cursor = provider.query(uri, new String[]{Sessions.SESSION_ID}, null, null, null);
+        try {
+            Set<String> sessionIds = new HashSet<>();
+            while (cursor.moveToNext()) {
+                sessionIds.add(cursor.getString(0));
+            }
+            return sessionIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void addTag(ArrayList<ContentProviderOperation> batch, String tagId,
+            String category) {
+        batch.add(ContentProviderOperation.newInsert(syncUri(Tags.CONTENT_URI))
+                .withValue(Tags.TAG_ID, tagId)
+                .withValue(Tags.TAG_CATEGORY, category)
+                .withValue(Tags.TAG_NAME, tagId)
+                .withValue(Tags.TAG_COLOR, "#000000")
+                .withValue(Tags.TAG_ABSTRACT, "")
+                .build());
+    }
+
+    private static void addSession(ArrayList<ContentProviderOperation> batch, String sessionId,
+            String... tagIds) {
+        batch.add(ContentProviderOperation.newInsert(syncUri(Sessions.CONTENT_URI))
+                .withValue(Sessions.UPDATED, 0)
+                .withValue(Sessions.SESSION_ID, sessionId)
+                .withValue(Sessions.SESSION_START, 0)
+                .withValue(Sessions.SESSION_END, 1)
+                .build());
+        for (String tagId : tagIds) {
+            batch.add(ContentProviderOperation.newInsert(
+                    syncUri(Sessions.buildTagsDirUri(sessionId)))
+                    .withValue(SessionsTags.SESSION_ID, sessionId)
+                    .withValue(SessionsTags.TAG_ID, tagId)
+                    .build());
+        }
+    }
+
+    private static Uri syncUri(Uri uri) {
+        return ScheduleContractHelper.setUriAsCalledFromSyncAdapter(uri);
+    }
+}
@@ -42,6 +42,8 @@ public class GCMRegistrationIntentService extends IntentService {
 
     private static final String CONFERENCE_MESSAGES_TOPIC_ONSITE  = "/topics/confmessagesonsite";
     private static final String CONFERENCE_MESSAGES_TOPIC_OFFSITE  = "/topics/confmessagesoffsite";
+    /** Topic the server can send messages for all devices to, e.g. sync_schedule. */
+    private static final String GLOBAL_TOPIC = "/topics/global";
 
     public GCMRegistrationIntentService() {
         super(TAG);
@@ -101,6 +103,7 @@ public class GCMRegistrationIntentService extends IntentService {
     private void subscribeTopics(String registrationToken) {
         try {
             GcmPubSub pubSub = GcmPubSub.getInstance(this);
+            pubSub.subscribe(registrationToken, GLOBAL_TOPIC, null);
             if (ConfMessageCardUtils.isConfMessageCardsEnabled(this)) {
                 if (SettingsUtils.isAttendeeAtVenue(this)) {
                     pubSub.unsubscribe(registrationToken, CONFERENCE_MESSAGES_TOPIC_OFFSITE);
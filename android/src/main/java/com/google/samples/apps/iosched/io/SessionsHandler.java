@@ -33,6 +33,7 @@ import com.google.samples.apps.iosched.io.model.Tag;
 import com.google.samples.apps.iosched.provider.ScheduleContract;
 import com.google.samples.apps.iosched.provider.ScheduleContractHelper;
 import com.google.samples.apps.iosched.provider.ScheduleDatabase;
+import com.google.samples.apps.iosched.util.HashUtils;
 import com.google.samples.apps.iosched.util.TimeUtils;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
@@ -89,8 +90,10 @@ public class SessionsHandler extends JSONHandler {
             // Set the session grouping order in the object, so it can be used in hash calculation
             session.groupingOrder = computeTypeOrder(session);
 
-            // compute the incoming session's hashcode to figure out if we need to update
-            String hashCode = session.getImportHashCode();
+            // compute the incoming session's hashcode to figure out if we need to update. The
+            // speaker names are part of it, so renaming a speaker rewrites their sessions.
+            String speakerNames = buildSpeakerNames(session);
+            String hashCode = HashUtils.computeWeakHash(session.getImportHashCode() + speakerNames);
             sessionsToKeep.add(session.id);
 
             // add session, if necessary
@@ -98,7 +101,7 @@ public class SessionsHandler extends JSONHandler {
                         !sessionHashCodes.get(session.id).equals(hashCode)) {
                 ++updatedSessions;
                 boolean isNew = !incrementalUpdate || !sessionHashCodes.containsKey(session.id);
-                buildSession(isNew, session, list);
+                buildSession(isNew, session, speakerNames, hashCode, list);
 
                 // add relationships to speakers and track
                 buildSessionSpeakerMapping(session, list);
@@ -158,8 +161,31 @@ public class SessionsHandler extends JSONHandler {
 
     StringBuilder mStringBuilder = new StringBuilder();
 
-    private void buildSession(boolean isInsert,
-                              Session session, ArrayList<ContentProviderOperation> list) {
+    private String buildSpeakerNames(Session session) {
+        if (mSpeakerMap == null) {
+            LOGE(TAG, "Can't build speaker names -- speaker map is null.");
+            return "";
+        }
+        // build human-readable list of speakers
+        mStringBuilder.setLength(0);
+        if (session.speakers != null) {
+            for (int i = 0; i < session.speakers.length; ++i) {
+                if (mSpeakerMap.containsKey(session.speakers[i])) {
+                    mStringBuilder
+                            .append(i == 0 ? "" :
+                                    i == session.speakers.length - 1 ? " and " : ", ")
+                            .append(mSpeakerMap.get(session.speakers[i]).name.trim());
+                } else {
+                    LOGW(TAG, "Unknown speaker ID " + session.speakers[i] + " in session " +
+                            session.id);
+                }
+            }
+        }
+        return mStringBuilder.toString();
+    }
+
+    private void buildSession(boolean isInsert, Session session, String speakerNames,
+                              String hashCode, ArrayList<ContentProviderOperation> list) {
         ContentProviderOperation.Builder builder;
         Uri allSessionsUri = ScheduleContractHelper
                 .setUriAsCalledFromSyncAdapter(ScheduleContract.Sessions.CONTENT_URI);
@@ -173,28 +199,6 @@ public class SessionsHandler extends JSONHandler {
             builder = ContentProviderOperation.newUpdate(thisSessionUri);
         }
 
-        String speakerNames = "";
-        if (mSpeakerMap != null) {
-            // build human-readable list of speakers
-            mStringBuilder.setLength(0);
-            if (session.speakers != null) {
-                for (int i = 0; i < session.speakers.length; ++i) {
-                    if (mSpeakerMap.containsKey(session.speakers[i])) {
-                        mStringBuilder
-                                .append(i == 0 ? "" :
-                                        i == session.speakers.length - 1 ? " and " : ", ")
-                                .append(mSpeakerMap.get(session.speakers[i]).name.trim());
-                    } else {
-                        LOGW(TAG, "Unknown speaker ID " + session.speakers[i] + " in session " +
-                                session.id);
-                    }
-                }
-            }
-            speakerNames = mStringBuilder.toString();
-        } else {
-            LOGE(TAG, "Can't build speaker names -- speaker map is null.");
-        }
-
         int color = mDefaultSessionColor;
         try {
             if (!TextUtils.isEmpty(session.color)) {
@@ -235,8 +239,7 @@ public class SessionsHandler extends JSONHandler {
                 .withValue(ScheduleContract.Sessions.SESSION_NOTES_URL, null)        // Not available
                 .withValue(ScheduleContract.Sessions.ROOM_ID, session.room)
                 .withValue(ScheduleContract.Sessions.SESSION_GROUPING_ORDER, session.groupingOrder)
-                .withValue(ScheduleContract.Sessions.SESSION_IMPORT_HASHCODE,
-                        session.getImportHashCode())
+                .withValue(ScheduleContract.Sessions.SESSION_IMPORT_HASHCODE, hashCode)
                 .withValue(ScheduleContract.Sessions.SESSION_MAIN_TAG, session.mainTag)
                 .withValue(ScheduleContract.Sessions.SESSION_CAPTIONS_URL, session.captionsUrl)
                 .withValue(ScheduleContract.Sessions.SESSION_PHOTO_URL, session.photoUrl)
@@ -19,6 +19,14 @@ package com.google.samples.apps.iosched.io.model;
 public class DataManifest {
     public String format;
     public String[] data_files;
+    public DeltaFile[] delta_files;
+
+    /** A delta that turns the data file {@code base} into the data file {@code target}. */
+    public static class DeltaFile {
+        public String file;
+        public String base;
+        public String target;
+    }
 }
 
 
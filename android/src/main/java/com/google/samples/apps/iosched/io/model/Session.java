@@ -18,7 +18,7 @@ package com.google.samples.apps.iosched.io.model;
 
 import com.google.samples.apps.iosched.util.HashUtils;
 
-import java.util.Random;
+import java.util.Arrays;
 
 public class Session {
     public String id;
@@ -55,8 +55,7 @@ public class Session {
     }
 
     public String getImportHashCode() {
-        return (new Random()).nextLong()+"";
-/*        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder();
         sb.append("id").append(id == null ? "" : id)
                 .append("description").append(description == null ? "" : description)
                 .append("title").append(title == null ? "" : title)
@@ -71,17 +70,20 @@ public class Session {
                 .append("mainTag").append(mainTag)
                 .append("captionsUrl").append(captionsUrl)
                 .append("photoUrl").append(photoUrl)
-                .append("relatedContent").append(relatedContent)
+                .append("relatedContent").append(Arrays.toString(relatedContent))
                 .append("color").append(color)
                 .append("groupingOrder").append(groupingOrder);
-        for (String tag : tags) {
-            sb.append("tag").append(tag);
+        if (tags != null) {
+            for (String tag : tags) {
+                sb.append("tag").append(tag);
+            }
         }
-        for (String speaker : speakers) {
-            sb.append("speaker").append(speaker);
+        if (speakers != null) {
+            for (String speaker : speakers) {
+                sb.append("speaker").append(speaker);
+            }
         }
         return HashUtils.computeWeakHash(sb.toString());
-*/
     }
 
     public String makeTagsList() {
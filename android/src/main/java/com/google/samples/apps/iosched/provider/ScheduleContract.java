@@ -367,8 +367,6 @@ public final class ScheduleContract {
 
     private static final String PATH_SEARCH_SUGGEST = "search_suggest_query";
 
-    private static final String PATH_SEARCH_INDEX = "search_index";
-
     private static final String PATH_PEOPLE_IVE_MET = "people_ive_met";
 
     public static final String[] TOP_LEVEL_PATHS = {
@@ -1013,12 +1011,6 @@ public final class ScheduleContract {
                 + " COLLATE NOCASE ASC";
     }
 
-    public static class SearchIndex {
-
-        public static final Uri CONTENT_URI =
-                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SEARCH_INDEX).build();
-    }
-
     public static class SearchTopicsSessions {
         public static final String PATH_SEARCH_TOPICS_SESSIONS = "search_topics_sessions";
 
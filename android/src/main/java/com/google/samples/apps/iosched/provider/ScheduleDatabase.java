@@ -20,6 +20,7 @@ import android.accounts.Account;
 import android.app.SearchManager;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.BaseColumns;
@@ -51,6 +52,8 @@ import com.google.samples.apps.iosched.sync.ConferenceDataHandler;
 import com.google.samples.apps.iosched.sync.SyncHelper;
 import com.google.samples.apps.iosched.util.AccountUtils;
 
+import java.util.Collection;
+
 import static com.google.samples.apps.iosched.util.LogUtils.LOGD;
 import static com.google.samples.apps.iosched.util.LogUtils.LOGI;
 import static com.google.samples.apps.iosched.util.LogUtils.LOGW;
@@ -74,7 +77,9 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
     private static final int VER_2015_RELEASE_B = 210;
     private static final int VER_2016_RELEASE_A = 211;
     private static final int VER_2016_RELEASE_B = 212;
-    private static final int CUR_DATABASE_VERSION = VER_2016_RELEASE_B;
+    private static final int VER_2016_RELEASE_C = 213;
+    private static final int VER_2016_RELEASE_D = 214;
+    private static final int CUR_DATABASE_VERSION = VER_2016_RELEASE_D;
 
     private final Context mContext;
 
@@ -100,6 +105,13 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
 
         String SESSIONS_SEARCH = "sessions_search";
 
+        // Materialized sessions list. Create using createSessionsView, then keep up to date
+        // using updateSessionsViewRows and setSessionsViewAccount.
+        String SESSIONS_VIEW = "sessions_view";
+
+        // The account whose in-schedule flags SESSIONS_VIEW holds, in a single row.
+        String SESSIONS_VIEW_ACCOUNT = "sessions_view_account";
+
         String SEARCH_SUGGEST = "search_suggest";
 
         String SESSIONS_JOIN_MYSCHEDULE = "sessions "
@@ -135,7 +147,7 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
                 + "LEFT OUTER JOIN rooms ON sessions.room_id=rooms.room_id";
 
         String SESSIONS_SEARCH_JOIN_SESSIONS_ROOMS = "sessions_search "
-                + "LEFT OUTER JOIN sessions ON sessions_search.session_id=sessions.session_id "
+                + "INNER JOIN sessions ON sessions_search.docid=sessions._id "
                 + "LEFT OUTER JOIN myschedule ON sessions.session_id=myschedule.session_id "
                 + "AND myschedule.account_name=? "
                 + "LEFT OUTER JOIN rooms ON sessions.room_id=rooms.room_id";
@@ -165,6 +177,12 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
         String SESSIONS_MY_SCHEDULE_DELETE = "sessions_myschedule_delete";
         String SESSIONS_FEEDBACK_DELETE = "sessions_feedback_delete";
 
+        // Keep the full-text search index in step with the sessions it indexes.
+        String SESSIONS_SEARCH_BEFORE_DELETE = "sessions_search_before_delete";
+        String SESSIONS_SEARCH_BEFORE_UPDATE = "sessions_search_before_update";
+        String SESSIONS_SEARCH_AFTER_UPDATE = "sessions_search_after_update";
+        String SESSIONS_SEARCH_AFTER_INSERT = "sessions_search_after_insert";
+
         // When triggers get deprecated, add them to this list (so they get correctly deleted
         // on database upgrades).
         interface DeprecatedTriggers {
@@ -172,6 +190,29 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
         };
     }
 
+    interface Indexes {
+        // Secondary indexes for the access paths of ScheduleProvider. The UNIQUE constraints
+        // already index sessions_tags, sessions_speakers and myschedule by session_id.
+        String SESSIONS_START = "sessions_start_idx";
+        String SESSIONS_ROOM_START = "sessions_room_start_idx";
+        String SESSIONS_TAGS_TAG = "sessions_tags_tag_idx";
+        String MY_SCHEDULE_ACCOUNT = "myschedule_account_idx";
+        String BLOCKS_START = "blocks_start_idx";
+
+        String SESSIONS_VIEW_ID = "sessions_view_id_idx";
+        String SESSIONS_VIEW_START = "sessions_view_start_idx";
+    }
+
+    /** Columns of {@link Tables#SESSIONS_VIEW} and {@link Tables#SESSIONS_VIEW_ACCOUNT}. */
+    interface SessionsView {
+        /**
+         * In-schedule flag of the account in {@link Tables#SESSIONS_VIEW_ACCOUNT}. Named unlike
+         * {@link Sessions#SESSION_IN_MY_SCHEDULE}, which queries compute for their own account.
+         */
+        String VIEW_IN_MY_SCHEDULE = "view_in_my_schedule";
+        String ACCOUNT_NAME = "account_name";
+    }
+
     public interface SessionsSpeakers {
         String SESSION_ID = "session_id";
         String SPEAKER_ID = "speaker_id";
@@ -182,15 +223,11 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
         String TAG_ID = "tag_id";
     }
 
-    interface SessionsSearchColumns {
-        String SESSION_ID = "session_id";
-        String BODY = "body";
-    }
-
     /** Fully-qualified field names. */
     private interface Qualified {
-        String SESSIONS_SEARCH = Tables.SESSIONS_SEARCH + "(" + SessionsSearchColumns.SESSION_ID
-                + "," + SessionsSearchColumns.BODY + ")";
+        String SESSIONS_SEARCH_DOCID = Tables.SESSIONS_SEARCH + "(docid,"
+                + Sessions.SESSION_TITLE + "," + Sessions.SESSION_ABSTRACT + ","
+                + Sessions.SESSION_SPEAKER_NAMES + ")";
 
         String SESSIONS_TAGS_SESSION_ID = Tables.SESSIONS_TAGS + "."
                 + SessionsTags.SESSION_ID;
@@ -198,12 +235,16 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
         String SESSIONS_SPEAKERS_SESSION_ID = Tables.SESSIONS_SPEAKERS + "."
                 + SessionsSpeakers.SESSION_ID;
 
-        String SESSIONS_SPEAKERS_SPEAKER_ID = Tables.SESSIONS_SPEAKERS + "."
-                + SessionsSpeakers.SPEAKER_ID;
+        String FEEDBACK_SESSION_ID = Tables.FEEDBACK + "." + FeedbackColumns.SESSION_ID;
+
+        String SESSIONS_SESSION_ID = Tables.SESSIONS + "." + Sessions.SESSION_ID;
+        String SESSIONS_ROOM_ID = Tables.SESSIONS + "." + Sessions.ROOM_ID;
 
-        String SPEAKERS_SPEAKER_ID = Tables.SPEAKERS + "." + Speakers.SPEAKER_ID;
+        String ROOMS_ROOM_ID = Tables.ROOMS + "." + Rooms.ROOM_ID;
+        String ROOMS_ROOM_NAME = Tables.ROOMS + "." + Rooms.ROOM_NAME;
+        String ROOMS_ROOM_FLOOR = Tables.ROOMS + "." + Rooms.ROOM_FLOOR;
 
-        String FEEDBACK_SESSION_ID = Tables.FEEDBACK + "." + FeedbackColumns.SESSION_ID;
+        String MY_SCHEDULE_SESSION_ID = Tables.MY_SCHEDULE + "." + MySchedule.SESSION_ID;
     }
 
     /** {@code REFERENCES} clauses. */
@@ -219,6 +260,18 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
     public ScheduleDatabase(Context context) {
         super(context, DATABASE_NAME, null, CUR_DATABASE_VERSION);
         mContext = context;
+        // readers keep using the last committed data while a sync batch is written
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Most tables resolve conflicts on their UNIQUE ids with REPLACE, which deletes the old
+        // row. SQLite only fires the delete triggers for it with recursive triggers on, and the
+        // session search index relies on them to unindex the old row. A replaced session thus
+        // also loses its tags, speakers and stars, like a deleted one: the sync updates the
+        // sessions it already has instead.
+        db.execSQL("PRAGMA recursive_triggers = ON");
     }
 
     @Override
@@ -379,16 +432,6 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
                 + VideoColumns.VIDEO_IMPORT_HASHCODE + " TEXT NOT NULL,"
                 + "UNIQUE (" + VideoColumns.VIDEO_ID + ") ON CONFLICT REPLACE)");
 
-        // Full-text search index. Update using updateSessionSearchIndex method.
-        // Use the porter tokenizer for simple stemming, so that "frustration" matches "frustrated."
-        db.execSQL("CREATE VIRTUAL TABLE " + Tables.SESSIONS_SEARCH + " USING fts3("
-                + BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
-                + SessionsSearchColumns.BODY + " TEXT NOT NULL,"
-                + SessionsSearchColumns.SESSION_ID
-                + " TEXT NOT NULL " + References.SESSION_ID + ","
-                + "UNIQUE (" + SessionsSearchColumns.SESSION_ID + ") ON CONFLICT REPLACE,"
-                + "tokenize=porter)");
-
         // Search suggestions
         db.execSQL("CREATE TABLE " + Tables.SEARCH_SUGGEST + " ("
                 + BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
@@ -415,6 +458,11 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
         upgradeFrom2015Ato2015B(db);
         upgradeFrom2015Bto2016A(db);
         upgradeFrom2016Ato2016B(db);
+        upgradeFrom2016Bto2016C(db);
+        upgradeFrom2016Cto2016D(db);
+
+        // empty for now, maintained by the provider from then on
+        createSessionsView(db, null);
     }
 
     private void upgradeFrom2014Cto2015A(SQLiteDatabase db) {
@@ -473,37 +521,196 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
                 + "UNIQUE (" + Cards.CARD_ID + ") ON CONFLICT REPLACE)");
     }
 
+    private void upgradeFrom2016Bto2016C(SQLiteDatabase db) {
+        // Time range queries (Explore, My Schedule, widget) and "now in this room" queries.
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + Indexes.SESSIONS_START + " ON "
+                + Tables.SESSIONS + " (" + Sessions.SESSION_START + ","
+                + Sessions.SESSION_END + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + Indexes.SESSIONS_ROOM_START + " ON "
+                + Tables.SESSIONS + " (" + Sessions.ROOM_ID + ","
+                + Sessions.SESSION_START + ")");
+        // Tag filters look sessions up by tag, the reverse of the UNIQUE (session_id, tag_id).
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + Indexes.SESSIONS_TAGS_TAG + " ON "
+                + Tables.SESSIONS_TAGS + " (" + SessionsTags.TAG_ID + ","
+                + SessionsTags.SESSION_ID + ")");
+        // Sync and the My Schedule URIs read all rows of one account.
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + Indexes.MY_SCHEDULE_ACCOUNT + " ON "
+                + Tables.MY_SCHEDULE + " (" + MySchedule.MY_SCHEDULE_ACCOUNT_NAME + ","
+                + MySchedule.MY_SCHEDULE_IN_SCHEDULE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + Indexes.BLOCKS_START + " ON "
+                + Tables.BLOCKS + " (" + Blocks.BLOCK_START + ")");
+    }
+
+    private void upgradeFrom2016Cto2016D(SQLiteDatabase db) {
+        // Full-text search index. It used to be an fts3 table with its own copy of the text of
+        // every session, rebuilt from scratch after each sync. It is now an fts4 index over the
+        // sessions table itself, kept up to date by triggers, so only sessions whose text
+        // changed are reindexed. Use the porter tokenizer for simple stemming, so that
+        // "frustration" matches "frustrated."
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.SESSIONS_SEARCH);
+        db.execSQL("CREATE VIRTUAL TABLE " + Tables.SESSIONS_SEARCH + " USING fts4("
+                + "content=" + Tables.SESSIONS + ","
+                + Sessions.SESSION_TITLE + ","
+                + Sessions.SESSION_ABSTRACT + ","
+                + Sessions.SESSION_SPEAKER_NAMES + ","
+                + "tokenize=porter)");
+
+        // External content indexes must be told the old text to remove it, so deletes and
+        // updates unindex the row before it changes.
+        String unindexOld = "INSERT INTO " + Tables.SESSIONS_SEARCH + "("
+                + Tables.SESSIONS_SEARCH + ",docid," + Sessions.SESSION_TITLE + ","
+                + Sessions.SESSION_ABSTRACT + "," + Sessions.SESSION_SPEAKER_NAMES + ")"
+                + " VALUES('delete',old." + BaseColumns._ID + ",old." + Sessions.SESSION_TITLE
+                + ",old." + Sessions.SESSION_ABSTRACT + ",old." + Sessions.SESSION_SPEAKER_NAMES
+                + ");";
+        String indexNew = "INSERT INTO " + Qualified.SESSIONS_SEARCH_DOCID
+                + " VALUES(new." + BaseColumns._ID + ",new." + Sessions.SESSION_TITLE
+                + ",new." + Sessions.SESSION_ABSTRACT + ",new." + Sessions.SESSION_SPEAKER_NAMES
+                + ");";
+        String indexedColumns = Sessions.SESSION_TITLE + "," + Sessions.SESSION_ABSTRACT + ","
+                + Sessions.SESSION_SPEAKER_NAMES;
+
+        db.execSQL("CREATE TRIGGER " + Triggers.SESSIONS_SEARCH_BEFORE_DELETE
+                + " BEFORE DELETE ON " + Tables.SESSIONS + " BEGIN " + unindexOld + " END;");
+        db.execSQL("CREATE TRIGGER " + Triggers.SESSIONS_SEARCH_BEFORE_UPDATE
+                + " BEFORE UPDATE OF " + indexedColumns + " ON " + Tables.SESSIONS
+                + " BEGIN " + unindexOld + " END;");
+        db.execSQL("CREATE TRIGGER " + Triggers.SESSIONS_SEARCH_AFTER_UPDATE
+                + " AFTER UPDATE OF " + indexedColumns + " ON " + Tables.SESSIONS
+                + " BEGIN " + indexNew + " END;");
+        db.execSQL("CREATE TRIGGER " + Triggers.SESSIONS_SEARCH_AFTER_INSERT
+                + " AFTER INSERT ON " + Tables.SESSIONS + " BEGIN " + indexNew + " END;");
+
+        rebuildSessionSearchIndex(db);
+    }
+
     /**
-     * Updates the session search index. This should be done sparingly, as the queries are rather
-     * complex.
+     * Rebuilds the session search index from the sessions table. The triggers on the sessions
+     * table keep it up to date afterwards, including when an insert replaces a session through
+     * its UNIQUE constraint (see {@link #onConfigure}), so this is only needed when the index is
+     * created, or to repair it.
      */
-    static void updateSessionSearchIndex(SQLiteDatabase db) {
-        db.execSQL("DELETE FROM " + Tables.SESSIONS_SEARCH);
-
-        db.execSQL("INSERT INTO " + Qualified.SESSIONS_SEARCH
-                + " SELECT s." + Sessions.SESSION_ID + ",("
-
-                // Full text body
-                + Sessions.SESSION_TITLE + "||'; '||"
-                + Sessions.SESSION_ABSTRACT + "||'; '||"
-                + "IFNULL(GROUP_CONCAT(t." + Speakers.SPEAKER_NAME + ",' '),'')||'; '||"
-                + "'')"
-
-                + " FROM " + Tables.SESSIONS + " s "
-                + " LEFT OUTER JOIN"
-
-                // Subquery resulting in session_id, speaker_id, speaker_name
-                + "(SELECT " + Sessions.SESSION_ID + "," + Qualified.SPEAKERS_SPEAKER_ID
-                + "," + Speakers.SPEAKER_NAME
-                + " FROM " + Tables.SESSIONS_SPEAKERS
-                + " INNER JOIN " + Tables.SPEAKERS
-                + " ON " + Qualified.SESSIONS_SPEAKERS_SPEAKER_ID + "="
-                + Qualified.SPEAKERS_SPEAKER_ID
-                + ") t"
-
-                // Grand finale
-                + " ON s." + Sessions.SESSION_ID + "=t." + Sessions.SESSION_ID
-                + " GROUP BY s." + Sessions.SESSION_ID);
+    static void rebuildSessionSearchIndex(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + Tables.SESSIONS_SEARCH + "(" + Tables.SESSIONS_SEARCH
+                + ") VALUES('rebuild')");
+    }
+
+    /**
+     * Creates the {@link Tables#SESSIONS_VIEW} table: one row per session with its room and the
+     * in-schedule flag of {@code accountName}, so session lists are read without joins or
+     * GROUP BY. The table is created from {@code sessions.*}, so upgrades of
+     * {@link Tables#SESSIONS} only have to recreate it.
+     */
+    static void createSessionsView(SQLiteDatabase db, String accountName) {
+        db.beginTransaction();
+        try {
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.SESSIONS_VIEW);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.SESSIONS_VIEW_ACCOUNT);
+            db.execSQL("CREATE TABLE " + Tables.SESSIONS_VIEW + " AS "
+                    + buildSessionsViewSelect(accountName));
+            db.execSQL("CREATE UNIQUE INDEX " + Indexes.SESSIONS_VIEW_ID + " ON "
+                    + Tables.SESSIONS_VIEW + " (" + Sessions.SESSION_ID + ")");
+            db.execSQL("CREATE INDEX " + Indexes.SESSIONS_VIEW_START + " ON "
+                    + Tables.SESSIONS_VIEW + " (" + Sessions.SESSION_START + ","
+                    + Sessions.SESSION_END + ")");
+            db.execSQL("CREATE TABLE " + Tables.SESSIONS_VIEW_ACCOUNT + " ("
+                    + SessionsView.ACCOUNT_NAME + " TEXT PRIMARY KEY)");
+            db.execSQL("INSERT INTO " + Tables.SESSIONS_VIEW_ACCOUNT + " VALUES(?)",
+                    new Object[] {String.valueOf(accountName)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return the rows of {@link Tables#SESSIONS_VIEW}, with the in-schedule flags of
+     * {@code accountName}
+     */
+    private static String buildSessionsViewSelect(String accountName) {
+        return "SELECT " + Tables.SESSIONS + ".*,"
+                + Qualified.ROOMS_ROOM_NAME + "," + Qualified.ROOMS_ROOM_FLOOR + ","
+                + "IFNULL(" + MySchedule.MY_SCHEDULE_IN_SCHEDULE + ",0) AS "
+                + SessionsView.VIEW_IN_MY_SCHEDULE
+                + " FROM " + Tables.SESSIONS
+                + " LEFT OUTER JOIN " + Tables.MY_SCHEDULE + " ON "
+                + Qualified.SESSIONS_SESSION_ID + "=" + Qualified.MY_SCHEDULE_SESSION_ID
+                + " AND " + MySchedule.MY_SCHEDULE_ACCOUNT_NAME + "="
+                + DatabaseUtils.sqlEscapeString(String.valueOf(accountName))
+                + " LEFT OUTER JOIN " + Tables.ROOMS + " ON "
+                + Qualified.SESSIONS_ROOM_ID + "=" + Qualified.ROOMS_ROOM_ID;
+    }
+
+    /**
+     * Rewrites the rows of {@link Tables#SESSIONS_VIEW} of the given sessions and of the sessions
+     * in the given rooms from {@link Tables#SESSIONS}, after they were written. Rows of deleted
+     * sessions are removed. {@code accountName} must be the account of the view.
+     */
+    static void updateSessionsViewRows(SQLiteDatabase db, String accountName,
+            Collection<String> sessionIds, Collection<String> roomIds) {
+        if (sessionIds.isEmpty() && roomIds.isEmpty()) {
+            return;
+        }
+        db.delete(Tables.SESSIONS_VIEW, buildInSelection(Sessions.SESSION_ID, sessionIds,
+                Sessions.ROOM_ID, roomIds), null);
+        db.execSQL("INSERT INTO " + Tables.SESSIONS_VIEW + " "
+                + buildSessionsViewSelect(accountName) + " WHERE "
+                + buildInSelection(Qualified.SESSIONS_SESSION_ID, sessionIds,
+                        Qualified.SESSIONS_ROOM_ID, roomIds));
+    }
+
+    /**
+     * @return a selection of the rows whose {@code sessionIdColumn} is one of
+     * {@code sessionIds} or whose {@code roomIdColumn} is one of {@code roomIds}. The ids are
+     * inlined rather than bound, so a whole sync can be applied at once.
+     */
+    private static String buildInSelection(String sessionIdColumn, Collection<String> sessionIds,
+            String roomIdColumn, Collection<String> roomIds) {
+        StringBuilder selection = new StringBuilder();
+        appendIn(selection.append('('), sessionIdColumn, sessionIds);
+        appendIn(selection.append(" OR "), roomIdColumn, roomIds);
+        return selection.append(')').toString();
+    }
+
+    private static void appendIn(StringBuilder selection, String column, Collection<String> ids) {
+        selection.append(column).append(" IN (");
+        boolean first = true;
+        for (String id : ids) {
+            if (!first) {
+                selection.append(',');
+            }
+            DatabaseUtils.appendEscapedSQLString(selection, id);
+            first = false;
+        }
+        selection.append(')');
+    }
+
+    /**
+     * @return whether {@link Tables#SESSIONS_VIEW} holds the in-schedule flags of
+     * {@code accountName}
+     */
+    static boolean isSessionsViewAccount(SQLiteDatabase db, String accountName) {
+        return DatabaseUtils.queryNumEntries(db, Tables.SESSIONS_VIEW_ACCOUNT,
+                SessionsView.ACCOUNT_NAME + "=?",
+                new String[] {String.valueOf(accountName)}) > 0;
+    }
+
+    /**
+     * Makes {@link Tables#SESSIONS_VIEW} hold the in-schedule flags of {@code accountName}, after
+     * another account became active. This rewrites the flag of every session, so it isn't meant
+     * for My Schedule writes of the account of the view, see {@link #updateSessionsViewRows}.
+     */
+    static void setSessionsViewAccount(SQLiteDatabase db, String accountName) {
+        db.execSQL("UPDATE " + Tables.SESSIONS_VIEW + " SET "
+                + SessionsView.VIEW_IN_MY_SCHEDULE + "=IFNULL((SELECT "
+                + MySchedule.MY_SCHEDULE_IN_SCHEDULE + " FROM " + Tables.MY_SCHEDULE
+                + " WHERE " + Qualified.MY_SCHEDULE_SESSION_ID + "="
+                + Tables.SESSIONS_VIEW + "." + Sessions.SESSION_ID
+                + " AND " + MySchedule.MY_SCHEDULE_ACCOUNT_NAME + "=?),0)",
+                new Object[] {String.valueOf(accountName)});
+        db.delete(Tables.SESSIONS_VIEW_ACCOUNT, null, null);
+        db.execSQL("INSERT INTO " + Tables.SESSIONS_VIEW_ACCOUNT + " VALUES(?)",
+                new Object[] {String.valueOf(accountName)});
     }
 
     @Override
@@ -554,6 +761,20 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
             version = VER_2016_RELEASE_B;
         }
 
+        // Check if we can upgrade from release 2016 B to release 2016 C.
+        if (version == VER_2016_RELEASE_B) {
+            LOGD(TAG, "Upgrading database from 2016 release B to 2016 release C.");
+            upgradeFrom2016Bto2016C(db);
+            version = VER_2016_RELEASE_C;
+        }
+
+        // Check if we can upgrade from release 2016 C to release 2016 D.
+        if (version == VER_2016_RELEASE_C) {
+            LOGD(TAG, "Upgrading database from 2016 release C to 2016 release D.");
+            upgradeFrom2016Cto2016D(db);
+            version = VER_2016_RELEASE_D;
+        }
+
         LOGD(TAG, "After upgrade logic, at version " + version);
 
         // Drop tables that have been deprecated.
@@ -570,6 +791,10 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
             db.execSQL("DROP TRIGGER IF EXISTS " + Triggers.SESSIONS_SPEAKERS_DELETE);
             db.execSQL("DROP TRIGGER IF EXISTS " + Triggers.SESSIONS_FEEDBACK_DELETE);
             db.execSQL("DROP TRIGGER IF EXISTS " + Triggers.SESSIONS_MY_SCHEDULE_DELETE);
+            db.execSQL("DROP TRIGGER IF EXISTS " + Triggers.SESSIONS_SEARCH_BEFORE_DELETE);
+            db.execSQL("DROP TRIGGER IF EXISTS " + Triggers.SESSIONS_SEARCH_BEFORE_UPDATE);
+            db.execSQL("DROP TRIGGER IF EXISTS " + Triggers.SESSIONS_SEARCH_AFTER_UPDATE);
+            db.execSQL("DROP TRIGGER IF EXISTS " + Triggers.SESSIONS_SEARCH_AFTER_INSERT);
             db.execSQL("DROP TRIGGER IF EXISTS " + Triggers.DeprecatedTriggers.SESSIONS_TRACKS_DELETE);
 
             db.execSQL("DROP TABLE IF EXISTS " + Tables.BLOCKS);
@@ -585,6 +810,8 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
             db.execSQL("DROP TABLE IF EXISTS " + Tables.ANNOUNCEMENTS);
             db.execSQL("DROP TABLE IF EXISTS " + Tables.FEEDBACK);
             db.execSQL("DROP TABLE IF EXISTS " + Tables.SESSIONS_SEARCH);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.SESSIONS_VIEW);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.SESSIONS_VIEW_ACCOUNT);
             db.execSQL("DROP TABLE IF EXISTS " + Tables.SEARCH_SUGGEST);
             db.execSQL("DROP TABLE IF EXISTS " + Tables.MAPMARKERS);
             db.execSQL("DROP TABLE IF EXISTS " + Tables.MAPTILES);
@@ -593,6 +820,9 @@ public class ScheduleDatabase extends SQLiteOpenHelper {
 
             onCreate(db);
             version = CUR_DATABASE_VERSION;
+        } else {
+            // the sessions table may have changed, so the view is recreated from it
+            createSessionsView(db, null);
         }
 
         if (dataInvalidated) {
@@ -16,6 +16,7 @@
 
 package com.google.samples.apps.iosched.provider;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.samples.apps.iosched.Config;
 import com.google.samples.apps.iosched.appwidget.ScheduleWidgetProvider;
 import com.google.samples.apps.iosched.provider.ScheduleContract.Announcements;
@@ -37,8 +38,8 @@ import com.google.samples.apps.iosched.provider.ScheduleContract.Speakers;
 import com.google.samples.apps.iosched.provider.ScheduleContract.Tags;
 import com.google.samples.apps.iosched.provider.ScheduleContract.VideoColumns;
 import com.google.samples.apps.iosched.provider.ScheduleContract.Videos;
-import com.google.samples.apps.iosched.provider.ScheduleDatabase.SessionsSearchColumns;
 import com.google.samples.apps.iosched.provider.ScheduleDatabase.SessionsSpeakers;
+import com.google.samples.apps.iosched.provider.ScheduleDatabase.SessionsView;
 import com.google.samples.apps.iosched.provider.ScheduleDatabase.Tables;
 import com.google.samples.apps.iosched.settings.SettingsUtils;
 import com.google.samples.apps.iosched.util.AccountUtils;
@@ -52,10 +53,13 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.ParcelFileDescriptor;
 import android.provider.BaseColumns;
 import android.text.TextUtils;
@@ -66,7 +70,9 @@ import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static com.google.samples.apps.iosched.util.LogUtils.LOGD;
 import static com.google.samples.apps.iosched.util.LogUtils.LOGE;
@@ -87,6 +93,27 @@ public class ScheduleProvider extends ContentProvider {
 
     private ScheduleProviderUriMatcher mUriMatcher;
 
+    /**
+     * Changes to {@link Tables#SESSIONS_VIEW} needed by the batch the current thread applies,
+     * made once at the end of the batch instead of after each operation.
+     */
+    private final ThreadLocal<SessionsViewChanges> mBatchSessionsViewChanges =
+            new ThreadLocal<>();
+
+    private final Object mSessionTagIndexLock = new Object();
+
+    /**
+     * Tags of the sessions, or null while it is loaded or rebuilt. Writers rebuild it after
+     * they commit, queries never load it themselves.
+     */
+    private SessionTagIndex mSessionTagIndex;
+
+    /** Whether {@link #mSessionTagIndex} was loaded or is being loaded. */
+    private boolean mSessionTagIndexRequested;
+
+    /** Incremented when the sessions or tags are written. */
+    private int mSessionTagIndexGeneration;
+
     /**
      * Providing important state information to be included in bug reports.
      *
@@ -132,6 +159,11 @@ public class ScheduleProvider extends ContentProvider {
         Context context = getContext();
         ScheduleDatabase.deleteDatabase(context);
         mOpenHelper = new ScheduleDatabase(getContext());
+        synchronized (mSessionTagIndexLock) {
+            mSessionTagIndex = null;
+            mSessionTagIndexRequested = false;
+            mSessionTagIndexGeneration++;
+        }
     }
 
     /** {@inheritDoc} */
@@ -193,6 +225,125 @@ public class ScheduleProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Restricts {@code builder} to the sessions matching the {@code tagsFilter} query parameter:
+     * sessions must have one of the selected tags in each category with a selected tag. The
+     * filter is evaluated on the {@link SessionTagIndex}, or in SQL while the index isn't built.
+     */
+    private void addTagIndexFilter(SQLiteDatabase db, SelectionBuilder builder,
+            String tagsFilter) {
+        String[] requiredTags = tagsFilter.split(",");
+        if (requiredTags.length == 0) {
+            return;
+        }
+        SessionTagIndex index = getSessionTagIndex();
+        if (index == null) {
+            addTagCategoriesFilter(db, builder, requiredTags);
+            return;
+        }
+        List<String> sessionIds = index.filter(requiredTags);
+        // The ids are inlined rather than bound, so the number of matching sessions isn't
+        // limited by the maximum number of SQLite host parameters.
+        StringBuilder inClause = new StringBuilder(Qualified.SESSIONS_SESSION_ID).append(" IN (");
+        for (int i = 0; i < sessionIds.size(); i++) {
+            if (i > 0) {
+                inClause.append(',');
+            }
+            DatabaseUtils.appendEscapedSQLString(inClause, sessionIds.get(i));
+        }
+        builder.where(inClause.append(')').toString());
+    }
+
+    /**
+     * The filter of {@link #addTagIndexFilter} in SQL: the sessions whose selected tags span as
+     * many categories as the selected tags. Tags without a category, like unknown ones, are a
+     * category of their own, as in {@link SessionTagIndex#filter}.
+     */
+    private void addTagCategoriesFilter(SQLiteDatabase db, SelectionBuilder builder,
+            String[] requiredTags) {
+        String questionMarkTuple = makeQuestionMarkTuple(requiredTags.length);
+        Set<String> categories = new HashSet<>();
+        Set<String> uncategorizedTags = new HashSet<>(Arrays.asList(requiredTags));
+        Cursor cursor = db.query(Tables.TAGS, new String[] {Tags.TAG_ID, Tags.TAG_CATEGORY},
+                Tags.TAG_ID + " IN " + questionMarkTuple, requiredTags, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getString(1) != null) {
+                    uncategorizedTags.remove(cursor.getString(0));
+                    categories.add(cursor.getString(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        builder.where(Qualified.SESSIONS_SESSION_ID + " IN (SELECT "
+                + Qualified.SESSIONS_TAGS_SESSION_ID + " FROM " + Tables.SESSIONS_TAGS_JOIN_TAGS
+                + " WHERE " + Qualified.SESSIONS_TAGS_TAG_ID + " IN " + questionMarkTuple
+                + " GROUP BY " + Qualified.SESSIONS_TAGS_SESSION_ID
+                + " HAVING COUNT(DISTINCT IFNULL(" + Qualified.TAGS_TAG_CATEGORY + ","
+                + Qualified.SESSIONS_TAGS_TAG_ID + "))="
+                + (categories.size() + uncategorizedTags.size()) + ")", requiredTags);
+    }
+
+    /**
+     * @return the {@link SessionTagIndex}, or null while it is built. The first call starts
+     * loading it in the background.
+     */
+    private SessionTagIndex getSessionTagIndex() {
+        final int generation;
+        synchronized (mSessionTagIndexLock) {
+            if (mSessionTagIndex != null || mSessionTagIndexRequested) {
+                return mSessionTagIndex;
+            }
+            mSessionTagIndexRequested = true;
+            generation = mSessionTagIndexGeneration;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadSessionTagIndex(generation);
+            }
+        });
+        return null;
+    }
+
+    /**
+     * Rebuilds the {@link SessionTagIndex} once sessions or tags were written and committed, on
+     * the thread of the writer. Queries use the SQL filter meanwhile.
+     */
+    private void rebuildSessionTagIndex() {
+        int generation;
+        synchronized (mSessionTagIndexLock) {
+            mSessionTagIndex = null;
+            mSessionTagIndexRequested = true;
+            generation = ++mSessionTagIndexGeneration;
+        }
+        loadSessionTagIndex(generation);
+    }
+
+    private void loadSessionTagIndex(int generation) {
+        SessionTagIndex index;
+        try {
+            index = SessionTagIndex.load(mOpenHelper.getReadableDatabase());
+        } catch (SQLiteException e) {
+            LOGE(TAG, "Could not load the session tag index", e);
+            synchronized (mSessionTagIndexLock) {
+                if (generation == mSessionTagIndexGeneration) {
+                    // the next query tries again
+                    mSessionTagIndexRequested = false;
+                }
+            }
+            return;
+        }
+        synchronized (mSessionTagIndexLock) {
+            // keep it only if no session or tag was written while loading, else the writer
+            // rebuilds it
+            if (generation == mSessionTagIndexGeneration) {
+                mSessionTagIndex = index;
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
@@ -213,11 +364,15 @@ public class ScheduleProvider extends ContentProvider {
 
         switch (matchingUriEnum) {
             default: {
+                boolean sessionsView = matchingUriEnum == ScheduleUriEnum.SESSIONS;
+
                 // Most cases are handled with simple SelectionBuilder.
                 final SelectionBuilder builder = buildExpandedSelection(uri, matchingUriEnum.code);
 
                 // If a special filter was specified, try to apply it.
-                if (!TextUtils.isEmpty(tagsFilter) && !TextUtils.isEmpty(categories)) {
+                if (sessionsView && !TextUtils.isEmpty(tagsFilter)) {
+                    addTagIndexFilter(db, builder, tagsFilter);
+                } else if (!TextUtils.isEmpty(tagsFilter) && !TextUtils.isEmpty(categories)) {
                     addTagsFilter(builder, tagsFilter, categories);
                 }
 
@@ -328,6 +483,7 @@ public class ScheduleProvider extends ContentProvider {
         if (matchingUriEnum.table != null) {
             try {
                 db.insertOrThrow(matchingUriEnum.table, null, values);
+                onSessionsViewSourceInserted(db, matchingUriEnum, values);
                 notifyChange(uri);
             } catch (SQLiteConstraintException exception) {
                 // Leaving this here as it's handy to to breakpoint on this throw when debugging a
@@ -362,6 +518,7 @@ public class ScheduleProvider extends ContentProvider {
             case MY_SCHEDULE: {
                 values.put(MySchedule.MY_SCHEDULE_ACCOUNT_NAME, getCurrentAccountName(uri, false));
                 db.insertOrThrow(Tables.MY_SCHEDULE, null, values);
+                onSessionsViewSourceInserted(db, matchingUriEnum, values);
                 notifyChange(uri);
                 Uri sessionUri = Sessions.buildSessionUri(
                         values.getAsString(MyScheduleColumns.SESSION_ID));
@@ -428,12 +585,6 @@ public class ScheduleProvider extends ContentProvider {
 
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         ScheduleUriEnum matchingUriEnum = mUriMatcher.matchUri(uri);
-        if (matchingUriEnum == ScheduleUriEnum.SEARCH_INDEX) {
-            // update the search index
-            ScheduleDatabase.updateSessionSearchIndex(db);
-            return 1;
-        }
-
         final SelectionBuilder builder = buildSimpleSelection(uri);
         if (matchingUriEnum == ScheduleUriEnum.MY_SCHEDULE) {
             values.remove(MySchedule.MY_SCHEDULE_ACCOUNT_NAME);
@@ -449,7 +600,11 @@ public class ScheduleProvider extends ContentProvider {
                     accountName);
         }
 
-        int retVal = builder.where(selection, selectionArgs).update(db, values);
+        builder.where(selection, selectionArgs);
+        SessionsViewChanges changes = beforeSessionsViewSourceWrite(db, matchingUriEnum, builder,
+                values);
+        int retVal = builder.update(db, values);
+        afterSessionsViewSourceWrite(db, changes);
         notifyChange(uri);
         return retVal;
     }
@@ -479,11 +634,152 @@ public class ScheduleProvider extends ContentProvider {
                     MyFeedbackSubmitted.MY_FEEDBACK_SUBMITTED_ACCOUNT_NAME + "=?", accountName);
         }
 
-        int retVal = builder.where(selection, selectionArgs).delete(db);
+        builder.where(selection, selectionArgs);
+        SessionsViewChanges changes = beforeSessionsViewSourceWrite(db, matchingUriEnum, builder,
+                null);
+        int retVal = builder.delete(db);
+        afterSessionsViewSourceWrite(db, changes);
         notifyChange(uri);
         return retVal;
     }
 
+    /**
+     * Records the rows of {@link Tables#SESSIONS_VIEW} and the {@link SessionTagIndex} an insert
+     * through {@code uriEnum} changed, and updates them unless a batch is being applied.
+     */
+    private void onSessionsViewSourceInserted(SQLiteDatabase db, ScheduleUriEnum uriEnum,
+            ContentValues values) {
+        SessionsViewChanges changes = getSessionsViewChanges();
+        switch (uriEnum) {
+            case SESSIONS:
+                changes.sessionIds.add(values.getAsString(Sessions.SESSION_ID));
+                changes.tagIndex = true;
+                break;
+            case ROOMS:
+                changes.roomIds.add(values.getAsString(Rooms.ROOM_ID));
+                break;
+            case MY_SCHEDULE:
+                changes.sessionIds.add(values.getAsString(MySchedule.SESSION_ID));
+                break;
+            case TAGS:
+            case SESSIONS_ID_TAGS:
+                changes.tagIndex = true;
+                break;
+        }
+        afterSessionsViewSourceWrite(db, changes);
+    }
+
+    /**
+     * Records the rows of {@link Tables#SESSIONS_VIEW} and the {@link SessionTagIndex} an update
+     * or delete through {@code uriEnum} is about to change. The sessions and rooms are read
+     * before the write, as a delete removes them and an update may change what the selection
+     * matches.
+     *
+     * @param builder the selection of the write
+     * @param values the values of an update, or null for a delete
+     * @return the changes to pass to {@link #afterSessionsViewSourceWrite} after the write
+     */
+    private SessionsViewChanges beforeSessionsViewSourceWrite(SQLiteDatabase db,
+            ScheduleUriEnum uriEnum, SelectionBuilder builder, ContentValues values) {
+        SessionsViewChanges changes = getSessionsViewChanges();
+        switch (uriEnum) {
+            case SESSIONS:
+            case SESSIONS_ID:
+                addIds(changes.sessionIds, db, builder, Sessions.SESSION_ID, values);
+                changes.tagIndex = true;
+                break;
+            case ROOMS:
+            case ROOMS_ID:
+                addIds(changes.roomIds, db, builder, Rooms.ROOM_ID, values);
+                break;
+            case MY_SCHEDULE:
+            case SESSIONS_MY_SCHEDULE:
+                addIds(changes.sessionIds, db, builder, MySchedule.SESSION_ID, values);
+                break;
+            case TAGS:
+            case TAGS_ID:
+            case SESSIONS_ID_TAGS:
+                changes.tagIndex = true;
+                break;
+        }
+        return changes;
+    }
+
+    /**
+     * Adds the {@code idColumn} of the rows {@code builder} selects, and the one set by
+     * {@code values} if any, to {@code ids}.
+     */
+    private static void addIds(Set<String> ids, SQLiteDatabase db, SelectionBuilder builder,
+            String idColumn, ContentValues values) {
+        Cursor cursor = builder.query(db, new String[] {idColumn}, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (values != null && values.containsKey(idColumn)) {
+            ids.add(values.getAsString(idColumn));
+        }
+    }
+
+    /**
+     * @return the changes of the batch the current thread applies, or new ones outside a batch
+     */
+    private SessionsViewChanges getSessionsViewChanges() {
+        SessionsViewChanges batchChanges = mBatchSessionsViewChanges.get();
+        return batchChanges != null ? batchChanges : new SessionsViewChanges();
+    }
+
+    /**
+     * Updates {@link Tables#SESSIONS_VIEW} and the {@link SessionTagIndex} after a write, unless
+     * a batch is being applied: then they are updated once the whole batch is applied.
+     */
+    private void afterSessionsViewSourceWrite(SQLiteDatabase db, SessionsViewChanges changes) {
+        if (changes == mBatchSessionsViewChanges.get()) {
+            return;
+        }
+        if (!changes.sessionIds.isEmpty() || !changes.roomIds.isEmpty()) {
+            applySessionsViewChanges(db, changes);
+        }
+        if (changes.tagIndex) {
+            rebuildSessionTagIndex();
+        }
+    }
+
+    /**
+     * Rewrites the rows of {@link Tables#SESSIONS_VIEW} of the sessions in {@code changes}. The
+     * view holds the in-schedule flags of the active account: if another account became active
+     * since the view was last written, the flags of all sessions are refreshed first. Queries
+     * for other accounts read their flags from {@link Tables#MY_SCHEDULE}, so they never write
+     * the view.
+     */
+    private void applySessionsViewChanges(SQLiteDatabase db, SessionsViewChanges changes) {
+        String accountName = AccountUtils.getActiveAccountName(getContext());
+        db.beginTransaction();
+        try {
+            if (!ScheduleDatabase.isSessionsViewAccount(db, accountName)) {
+                ScheduleDatabase.setSessionsViewAccount(db, accountName);
+            }
+            ScheduleDatabase.updateSessionsViewRows(db, accountName, changes.sessionIds,
+                    changes.roomIds);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Changes to {@link Tables#SESSIONS_VIEW} and the {@link SessionTagIndex} due to writes. */
+    private static class SessionsViewChanges {
+        /** Sessions written, or whose My Schedule entry was written. */
+        final Set<String> sessionIds = new HashSet<>();
+        /** Rooms written, whose sessions show their name and floor. */
+        final Set<String> roomIds = new HashSet<>();
+        /** Whether sessions or tags were written. */
+        boolean tagIndex;
+    }
+
     /**
      * Notifies the system that the given {@code uri} data has changed.
      * <p/>
@@ -507,12 +803,21 @@ public class ScheduleProvider extends ContentProvider {
     /**
      * Apply the given set of {@link ContentProviderOperation}, executing inside
      * a {@link SQLiteDatabase} transaction. All changes will be rolled back if
-     * any single one fails.
+     * any single one fails. The sessions view is updated once, at the end of the batch, and the
+     * {@link SessionTagIndex} is rebuilt once the batch is committed.
+     * <p/>
+     * The database is in write-ahead logging mode and queries never write, so queries from other
+     * threads aren't blocked by the transaction of a large batch, like a full conference data
+     * sync: they keep reading the data from before the batch until it is committed. The batch
+     * is therefore not split into yielding chunks, which would let queries see part of a sync.
      */
     @Override
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final SessionsViewChanges sessionsViewChanges = new SessionsViewChanges();
+        mBatchSessionsViewChanges.set(sessionsViewChanges);
+        boolean committed = false;
         db.beginTransaction();
         try {
             final int numOperations = operations.size();
@@ -520,10 +825,18 @@ public class ScheduleProvider extends ContentProvider {
             for (int i = 0; i < numOperations; i++) {
                 results[i] = operations.get(i).apply(this, results, i);
             }
+            mBatchSessionsViewChanges.remove();
+            applySessionsViewChanges(db, sessionsViewChanges);
             db.setTransactionSuccessful();
+            committed = true;
             return results;
         } finally {
+            mBatchSessionsViewChanges.remove();
             db.endTransaction();
+            if (committed && sessionsViewChanges.tagIndex) {
+                // built here rather than by the next query, which may be on the UI thread
+                rebuildSessionTagIndex();
+            }
         }
     }
 
@@ -666,7 +979,8 @@ public class ScheduleProvider extends ContentProvider {
      * {@link Uri}. This is usually only used by {@link #query}, since it
      * performs table joins useful for {@link Cursor} data.
      */
-    private SelectionBuilder buildExpandedSelection(Uri uri, int match) {
+    @VisibleForTesting
+    SelectionBuilder buildExpandedSelection(Uri uri, int match) {
         final SelectionBuilder builder = new SelectionBuilder();
         ScheduleUriEnum matchingUriEnum = mUriMatcher.matchCode(match);
         if (matchingUriEnum == null) {
@@ -717,17 +1031,13 @@ public class ScheduleProvider extends ContentProvider {
                         .groupBy(Qualified.SESSIONS_SESSION_ID);
             }
             case SESSIONS: {
-                // We query sessions on the joined table of sessions with rooms and tags.
-                // Since there may be more than one tag per session, we GROUP BY session ID.
-                // The starred sessions ("my schedule") are associated with a user, so we
-                // use the current user to select them properly
-                return builder
-                        .table(Tables.SESSIONS_JOIN_ROOMS_TAGS, getCurrentAccountName(uri, true))
-                        .mapToTable(Sessions._ID, Tables.SESSIONS)
-                        .mapToTable(Sessions.ROOM_ID, Tables.SESSIONS)
-                        .mapToTable(Sessions.SESSION_ID, Tables.SESSIONS)
-                        .map(Sessions.SESSION_IN_MY_SCHEDULE, "IFNULL(in_schedule, 0)")
-                        .groupBy(Qualified.SESSIONS_SESSION_ID);
+                // We query sessions on sessions_view, which holds each session with its room
+                // and the in-schedule flag of the active user, so no joins or GROUP BY are
+                // needed. It is aliased as sessions, so qualified selections keep working.
+                return builder.table(Tables.SESSIONS_VIEW + " " + Tables.SESSIONS)
+                        .map(Sessions.SESSION_IN_MY_SCHEDULE,
+                                buildSessionsViewInMySchedule(
+                                        getCurrentAccountName(uri, false)));
             }
             case SESSIONS_COUNTER: {
                 return builder
@@ -771,7 +1081,7 @@ public class ScheduleProvider extends ContentProvider {
                         .mapToTable(Sessions.SESSION_ID, Tables.SESSIONS)
                         .mapToTable(Sessions.ROOM_ID, Tables.SESSIONS)
                         .map(Sessions.SESSION_IN_MY_SCHEDULE, "IFNULL(in_schedule, 0)")
-                        .where(SessionsSearchColumns.BODY + " MATCH ?", query);
+                        .where(Tables.SESSIONS_SEARCH + " MATCH ?", query);
             }
             case SESSIONS_AT: {
                 final List<String> segments = uri.getPathSegments();
@@ -939,6 +1249,24 @@ public class ScheduleProvider extends ContentProvider {
         throw new UnsupportedOperationException("openFile is not supported for " + uri);
     }
 
+    /**
+     * The in-schedule flag of {@code accountName} for a row of {@link Tables#SESSIONS_VIEW}:
+     * the one the view holds if it is the account of the view, else the one of
+     * {@link Tables#MY_SCHEDULE}. The view is only switched to another account by writers.
+     */
+    private static String buildSessionsViewInMySchedule(String accountName) {
+        String account = DatabaseUtils.sqlEscapeString(String.valueOf(accountName));
+        return "CASE WHEN EXISTS (SELECT 1 FROM " + Tables.SESSIONS_VIEW_ACCOUNT
+                + " WHERE " + SessionsView.ACCOUNT_NAME + "=" + account + ")"
+                + " THEN " + SessionsView.VIEW_IN_MY_SCHEDULE
+                + " ELSE IFNULL((SELECT " + MySchedule.MY_SCHEDULE_IN_SCHEDULE
+                + " FROM " + Tables.MY_SCHEDULE
+                + " WHERE " + Qualified.MY_SCHEDULE_SESSION_ID + "="
+                + Qualified.SESSIONS_SESSION_ID
+                + " AND " + Qualified.MY_SCHEDULE_ACCOUNT_NAME + "=" + account + "),0)"
+                + " END";
+    }
+
     private interface Subquery {
         String SESSION_HAS_GIVEN_FEEDBACK = "(SELECT COUNT(1) FROM "
                 + Tables.FEEDBACK + " WHERE " + Qualified.FEEDBACK_SESSION_ID + "="
@@ -956,6 +1284,9 @@ public class ScheduleProvider extends ContentProvider {
         String SESSIONS_ROOM_ID = Tables.SESSIONS + "." + Sessions.ROOM_ID;
         String SESSIONS_TAGS_SESSION_ID = Tables.SESSIONS_TAGS + "."
                 + ScheduleDatabase.SessionsTags.SESSION_ID;
+        String SESSIONS_TAGS_TAG_ID = Tables.SESSIONS_TAGS + "."
+                + ScheduleDatabase.SessionsTags.TAG_ID;
+        String TAGS_TAG_CATEGORY = Tables.TAGS + "." + Tags.TAG_CATEGORY;
 
         String SESSIONS_SPEAKERS_SESSION_ID = Tables.SESSIONS_SPEAKERS + "."
                 + SessionsSpeakers.SESSION_ID;
@@ -964,5 +1295,9 @@ public class ScheduleProvider extends ContentProvider {
                 + SessionsSpeakers.SPEAKER_ID;
 
         String FEEDBACK_SESSION_ID = Tables.FEEDBACK + "." + Feedback.SESSION_ID;
+
+        String MY_SCHEDULE_SESSION_ID = Tables.MY_SCHEDULE + "." + MySchedule.SESSION_ID;
+        String MY_SCHEDULE_ACCOUNT_NAME = Tables.MY_SCHEDULE + "."
+                + MySchedule.MY_SCHEDULE_ACCOUNT_NAME;
     }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.provider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.google.samples.apps.iosched.provider.ScheduleContract.Sessions;
+import com.google.samples.apps.iosched.provider.ScheduleContract.Tags;
+import com.google.samples.apps.iosched.provider.ScheduleDatabase.SessionsTags;
+import com.google.samples.apps.iosched.provider.ScheduleDatabase.Tables;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of the sessions of each tag, used to evaluate the tag filters of Explore.
+ * <p />
+ * Each session gets an ordinal, and each tag a {@link BitSet} of the ordinals of its sessions. A
+ * filter selects the sessions that have at least one of the selected tags of each category:
+ * the bitsets of a category are OR'ed together, and the results of the categories AND'ed.
+ */
+class SessionTagIndex {
+
+    private final String[] mSessionIds;
+    private final Map<String, BitSet> mSessionsByTag;
+    private final Map<String, String> mCategoryByTag;
+
+    private SessionTagIndex(String[] sessionIds, Map<String, BitSet> sessionsByTag,
+            Map<String, String> categoryByTag) {
+        mSessionIds = sessionIds;
+        mSessionsByTag = sessionsByTag;
+        mCategoryByTag = categoryByTag;
+    }
+
+    /**
+     * Loads the index from the sessions, tags and sessions_tags tables of {@code db}.
+     */
+    static SessionTagIndex load(SQLiteDatabase db) {
+        Builder builder = new Builder();
+        Cursor cursor = db.query(Tables.SESSIONS, new String[] {Sessions.SESSION_ID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                builder.addSession(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = db.query(Tables.TAGS, new String[] {Tags.TAG_ID, Tags.TAG_CATEGORY},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                builder.addTag(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = db.query(Tables.SESSIONS_TAGS,
+                new String[] {SessionsTags.SESSION_ID, SessionsTags.TAG_ID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                builder.addSessionTag(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the ids of the sessions that have at least one of {@code tagIds} in each of the
+     * categories of {@code tagIds}. Tags that are not in the index match no session.
+     */
+    List<String> filter(String[] tagIds) {
+        Map<String, BitSet> byCategory = new HashMap<>();
+        for (String tagId : tagIds) {
+            String category = mCategoryByTag.get(tagId);
+            if (category == null) {
+                // unknown tags get a category of their own, so they exclude every session
+                category = tagId;
+            }
+            BitSet categorySessions = byCategory.get(category);
+            if (categorySessions == null) {
+                categorySessions = new BitSet(mSessionIds.length);
+                byCategory.put(category, categorySessions);
+            }
+            BitSet tagSessions = mSessionsByTag.get(tagId);
+            if (tagSessions != null) {
+                categorySessions.or(tagSessions);
+            }
+        }
+
+        BitSet matching = null;
+        for (BitSet categorySessions : byCategory.values()) {
+            if (matching == null) {
+                matching = categorySessions;
+            } else {
+                matching.and(categorySessions);
+            }
+        }
+
+        List<String> sessionIds = new ArrayList<>();
+        if (matching != null) {
+            for (int i = matching.nextSetBit(0); i >= 0; i = matching.nextSetBit(i + 1)) {
+                sessionIds.add(mSessionIds[i]);
+            }
+        }
+        return sessionIds;
+    }
+
+    static class Builder {
+        private final List<String> mSessionIds = new ArrayList<>();
+        private final Map<String, Integer> mOrdinals = new HashMap<>();
+        private final Map<String, BitSet> mSessionsByTag = new HashMap<>();
+        private final Map<String, String> mCategoryByTag = new HashMap<>();
+
+        Builder addSession(String sessionId) {
+            if (!mOrdinals.containsKey(sessionId)) {
+                mOrdinals.put(sessionId, mSessionIds.size());
+                mSessionIds.add(sessionId);
+            }
+            return this;
+        }
+
+        Builder addTag(String tagId, String category) {
+            mCategoryByTag.put(tagId, category);
+            return this;
+        }
+
+        Builder addSessionTag(String sessionId, String tagId) {
+            Integer ordinal = mOrdinals.get(sessionId);
+            if (ordinal != null) {
+                BitSet sessions = mSessionsByTag.get(tagId);
+                if (sessions == null) {
+                    sessions = new BitSet();
+                    mSessionsByTag.put(tagId, sessions);
+                }
+                sessions.set(ordinal);
+            }
+            return this;
+        }
+
+        SessionTagIndex build() {
+            return new SessionTagIndex(mSessionIds.toArray(new String[mSessionIds.size()]),
+                    new HashMap<>(mSessionsByTag), new HashMap<>(mCategoryByTag));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.sync;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.samples.apps.iosched.util.LogUtils.LOGW;
+import static com.google.samples.apps.iosched.util.LogUtils.makeLogTag;
+
+/**
+ * Applies the entity-level deltas published next to each new session data file, so that a
+ * client which already has the previous data file only downloads what changed.
+ */
+public class ConferenceDataDelta {
+    private static final String TAG = makeLogTag(ConferenceDataDelta.class);
+
+    private static final String FORMAT = "iosched-json-delta-v1";
+
+    private static final String KEY_FORMAT = "format";
+    private static final String KEY_UPDATED = "updated";
+    private static final String KEY_REMOVED = "removed";
+
+    /**
+     * Entity types that can appear in a delta, and the property that identifies each entity.
+     */
+    private static final Map<String, String> ENTITY_KEYS = new LinkedHashMap<String, String>();
+    static {
+        ENTITY_KEYS.put("rooms", "id");
+        ENTITY_KEYS.put("tags", "tag");
+        ENTITY_KEYS.put("speakers", "id");
+        ENTITY_KEYS.put("sessions", "id");
+        ENTITY_KEYS.put("video_library", "id");
+    }
+
+    /**
+     * @param baseJson The contents of the data file the delta was computed from.
+     * @param deltaJson The contents of the delta file.
+     * @return The contents of the new data file, or null if the delta can't be applied, in which
+     * case the new data file has to be downloaded in full.
+     */
+    public static String apply(String baseJson, String deltaJson) {
+        try {
+            JsonParser parser = new JsonParser();
+            JsonObject base = parser.parse(baseJson).getAsJsonObject();
+            JsonObject delta = parser.parse(deltaJson).getAsJsonObject();
+            JsonElement format = delta.get(KEY_FORMAT);
+            if (format == null || !FORMAT.equals(format.getAsString())) {
+                LOGW(TAG, "Unsupported delta format: " + format);
+                return null;
+            }
+
+            for (Map.Entry<String, String> entityKey : ENTITY_KEYS.entrySet()) {
+                JsonElement changes = delta.get(entityKey.getKey());
+                if (changes == null) {
+                    continue;
+                }
+                JsonObject changesObject = changes.getAsJsonObject();
+
+                // Updated entities replace the base ones in place, new ones are appended.
+                Map<String, JsonElement> entities = new LinkedHashMap<String, JsonElement>();
+                JsonElement baseEntities = base.get(entityKey.getKey());
+                if (baseEntities != null) {
+                    for (JsonElement entity : baseEntities.getAsJsonArray()) {
+                        entities.put(getId(entity, entityKey.getValue()), entity);
+                    }
+                }
+                JsonElement removed = changesObject.get(KEY_REMOVED);
+                if (removed != null) {
+                    for (JsonElement id : removed.getAsJsonArray()) {
+                        entities.remove(id.getAsString());
+                    }
+                }
+                JsonElement updated = changesObject.get(KEY_UPDATED);
+                if (updated != null) {
+                    for (JsonElement entity : updated.getAsJsonArray()) {
+                        entities.put(getId(entity, entityKey.getValue()), entity);
+                    }
+                }
+
+                JsonArray result = new JsonArray();
+                for (JsonElement entity : entities.values()) {
+                    result.add(entity);
+                }
+                base.add(entityKey.getKey(), result);
+            }
+            return new Gson().toJson(base);
+        } catch (JsonParseException | IllegalStateException | ClassCastException
+                | UnsupportedOperationException e) {
+            LOGW(TAG, "Could not apply delta: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String getId(JsonElement entity, String idProperty) {
+        JsonElement id = entity.getAsJsonObject().get(idProperty);
+        if (id == null) {
+            throw new JsonParseException("Entity without " + idProperty + ": " + entity);
+        }
+        return id.getAsString();
+    }
+}
@@ -60,6 +60,7 @@ public class ConferenceDataHandler {
     // Shared settings_prefs key under which we store the timestamp that corresponds to
     // the data we currently have in our content provider.
     private static final String SP_KEY_DATA_TIMESTAMP = "data_timestamp";
+    private static final String SP_KEY_DATA_ETAG = "data_etag";
 
     // symbolic timestamp to use when we are missing timestamp data (which means our data is
     // really old or nonexistent)
@@ -182,9 +183,9 @@ public class ConferenceDataHandler {
             throw new RuntimeException("Error executing content provider batch operation", ex);
         }
 
-        // notify all top-level paths
-        LOGD(TAG, "Notifying changes on all top-level paths on Content Resolver.");
+        // notify all top-level paths, the sessions view was updated by the batch
         ContentResolver resolver = mContext.getContentResolver();
+        LOGD(TAG, "Notifying changes on all top-level paths on Content Resolver.");
         for (String path : ScheduleContract.TOP_LEVEL_PATHS) {
             Uri uri = ScheduleContract.BASE_CONTENT_URI.buildUpon().appendPath(path).build();
             resolver.notifyChange(uri, null);
@@ -305,11 +306,24 @@ public class ConferenceDataHandler {
                 SP_KEY_DATA_TIMESTAMP, timestamp).commit();
     }
 
+    // Returns the ETag of the manifest the data in the content provider was read from.
+    public String getDataETag() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext).getString(
+                SP_KEY_DATA_ETAG, null);
+    }
+
+    // Sets the ETag of the manifest the data in the content provider was read from.
+    public void setDataETag(String eTag) {
+        LOGD(TAG, "Setting data ETag to: " + eTag);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit().putString(
+                SP_KEY_DATA_ETAG, eTag).commit();
+    }
+
     // Reset the timestamp of the data we have in the content provider
     public static void resetDataTimestamp(final Context context) {
         LOGD(TAG, "Resetting data timestamp to default (to invalidate our synced data)");
         PreferenceManager.getDefaultSharedPreferences(context).edit().remove(
-                SP_KEY_DATA_TIMESTAMP).commit();
+                SP_KEY_DATA_TIMESTAMP).remove(SP_KEY_DATA_ETAG).commit();
     }
 
     /**
@@ -62,6 +62,9 @@ public class RemoteConferenceDataFetcher {
     // timestamp of the manifest file on the server
     private String mServerTimestamp = null;
 
+    // ETag of the manifest file on the server
+    private String mServerETag = null;
+
     // the set of cache files we have used -- we use this for cache cleanup.
     private HashSet<String> mCacheFilesToKeep = new HashSet<String>();
 
@@ -82,10 +85,14 @@ public class RemoteConferenceDataFetcher {
      * @param refTimestamp The timestamp of the data to use as a reference; if the remote data is
      *                     not newer than this timestamp, no data will be downloaded and this method
      *                     will return null.
+     * @param refETag The ETag of the manifest the data was read from, or null. If the remote
+     *                manifest still has this ETag, no data will be downloaded and this method will
+     *                return null.
      * @return The data downloaded, or null if there is no data to download
      * @throws IOException if an error occurred during download.
      */
-    public String[] fetchConferenceDataIfNewer(String refTimestamp) throws IOException {
+    public String[] fetchConferenceDataIfNewer(String refTimestamp, String refETag)
+            throws IOException {
         if (TextUtils.isEmpty(mManifestUrl)) {
             LOGW(TAG, "Manifest URL is empty (remote sync disabled!).");
             return null;
@@ -111,6 +118,14 @@ public class RemoteConferenceDataFetcher {
             }
         }
 
+        // The ETag changes exactly when the manifest contents do, so it is checked first by the
+        // server, and still works when the local clock or the timestamp format is off.
+        if (!TextUtils.isEmpty(refETag)) {
+            httpClient.addHeader("If-None-Match", refETag);
+        }
+
+        // Files are stored gzip-encoded. HttpURLConnection requests gzip and decodes it
+        // transparently, as long as we don't set Accept-Encoding ourselves.
         HttpResponse response = httpClient.get(mManifestUrl, null);
         if (response == null) {
             LOGE(TAG, "Request for manifest returned null response.");
@@ -121,7 +136,9 @@ public class RemoteConferenceDataFetcher {
         if (status == HttpURLConnection.HTTP_OK) {
             LOGD(TAG, "Server returned HTTP_OK, so new data is available.");
             mServerTimestamp = getLastModified(response);
-            LOGD(TAG, "Server timestamp for new data is: " + mServerTimestamp);
+            mServerETag = getETag(response);
+            LOGD(TAG, "Server timestamp for new data is: " + mServerTimestamp + ", ETag: " +
+                    mServerETag);
             String body = response.getBodyAsString();
             if (TextUtils.isEmpty(body)) {
                 LOGE(TAG, "Request for manifest returned empty data.");
@@ -132,7 +149,8 @@ public class RemoteConferenceDataFetcher {
             return processManifest(body);
         } else if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
             // data on the server is not newer than our data
-            LOGD(TAG, "HTTP_NOT_MODIFIED: data has not changed since " + refTimestamp);
+            LOGD(TAG, "HTTP_NOT_MODIFIED: data has not changed since " + refTimestamp +
+                    " (ETag " + refETag + ")");
             return null;
         } else {
             LOGE(TAG, "Error fetching conference data: HTTP status " + status + " and manifest " +
@@ -146,6 +164,11 @@ public class RemoteConferenceDataFetcher {
         return mServerTimestamp;
     }
 
+    // Returns the ETag of the manifest downloaded from the server
+    public String getServerDataETag() {
+        return mServerETag;
+    }
+
     /**
      * Returns the remote manifest file's URL. This is stored as a resource in the app, but can be
      * overriden by a file in the filesystem for debug purposes.
@@ -182,14 +205,9 @@ public class RemoteConferenceDataFetcher {
      * @throws IOException If an error occurs.
      */
     private String fetchFile(String url) throws IOException {
-        // If this is a relative url, consider it relative to the manifest URL
-        if (!url.contains("://")) {
-            if (TextUtils.isEmpty(mManifestUrl) || !mManifestUrl.contains("/")) {
-                LOGE(TAG, "Could not build relative URL based on manifest URL.");
-                return null;
-            }
-            int i = mManifestUrl.lastIndexOf('/');
-            url = mManifestUrl.substring(0, i) + "/" + url;
+        url = resolveUrl(url);
+        if (url == null) {
+            return null;
         }
 
         LOGD(TAG, "Attempting to fetch: " + sanitizeUrl(url));
@@ -242,6 +260,73 @@ public class RemoteConferenceDataFetcher {
         }
     }
 
+    /**
+     * Returns the absolute URL of a file listed in the manifest. Relative URLs are considered to
+     * be relative to the manifest URL.
+     *
+     * @return The absolute URL, or null if a relative URL could not be resolved.
+     */
+    private String resolveUrl(String url) {
+        if (url.contains("://")) {
+            return url;
+        }
+        if (TextUtils.isEmpty(mManifestUrl) || !mManifestUrl.contains("/")) {
+            LOGE(TAG, "Could not build relative URL based on manifest URL.");
+            return null;
+        }
+        int i = mManifestUrl.lastIndexOf('/');
+        return mManifestUrl.substring(0, i) + "/" + url;
+    }
+
+    /**
+     * Builds a data file from the previous version of the file in our cache and a delta listed
+     * in the manifest, and caches it like a downloaded file.
+     *
+     * @param url The URL of the data file, as listed in the manifest.
+     * @param deltaFiles The deltas listed in the manifest, or null.
+     * @return The contents of the data file, or null if it has to be fetched in full, because it
+     * is already cached, or no delta applies to a cached file.
+     */
+    private String fetchFileFromDelta(String url, DataManifest.DeltaFile[] deltaFiles) {
+        if (deltaFiles == null) {
+            return null;
+        }
+        String absoluteUrl = resolveUrl(url);
+        if (absoluteUrl == null || getCacheFile(absoluteUrl).exists()) {
+            return null;
+        }
+        for (DataManifest.DeltaFile deltaFile : deltaFiles) {
+            if (deltaFile == null || deltaFile.file == null || deltaFile.base == null
+                    || !url.equals(deltaFile.target)) {
+                continue;
+            }
+            String baseUrl = resolveUrl(deltaFile.base);
+            try {
+                String base = baseUrl == null ? null : loadFromCache(baseUrl);
+                if (TextUtils.isEmpty(base)) {
+                    LOGD(TAG, "Base of delta for " + sanitizeUrl(url) + " is not cached.");
+                    continue;
+                }
+                String delta = fetchFile(deltaFile.file);
+                String body = TextUtils.isEmpty(delta) ? null
+                        : ConferenceDataDelta.apply(base, delta);
+                if (TextUtils.isEmpty(body)) {
+                    continue;
+                }
+                LOGD(TAG, "Built " + sanitizeUrl(url) + " from delta " +
+                        sanitizeUrl(deltaFile.file));
+                mBytesReadFromCache += base.getBytes().length;
+                writeToCache(absoluteUrl, body);
+                mCacheFilesToKeep.add(getCacheKey(absoluteUrl));
+                return body;
+            } catch (IOException ex) {
+                LOGW(TAG, "Failed to use delta " + sanitizeUrl(deltaFile.file) +
+                        ", fetching " + sanitizeUrl(url) + " in full: " + ex.getMessage());
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns the cache file where we store our cache of the response of the given URL.
      *
@@ -349,7 +434,10 @@ public class RemoteConferenceDataFetcher {
         for (int i = 0; i < manifest.data_files.length; i++) {
             String url = manifest.data_files[i];
             LOGD(TAG, "Processing data file: " + sanitizeUrl(url));
-            jsons[i] = fetchFile(url);
+            jsons[i] = fetchFileFromDelta(url, manifest.delta_files);
+            if (jsons[i] == null) {
+                jsons[i] = fetchFile(url);
+            }
             if (TextUtils.isEmpty(jsons[i])) {
                 LOGE(TAG, "Failed to fetch data file: " + sanitizeUrl(url));
                 throw new IOException("Failed to fetch data file " + sanitizeUrl(url));
@@ -402,6 +490,15 @@ public class RemoteConferenceDataFetcher {
         return s.isEmpty() ? "" : s.get(0);
     }
 
+    private String getETag(HttpResponse resp) {
+        if (!resp.getHeaders().containsKey("ETag")) {
+            return "";
+        }
+
+        List<String> s = resp.getHeaders().get("ETag");
+        return s.isEmpty() ? "" : s.get(0);
+    }
+
     /**
      * A type of ConsoleRequestLogger that does not log requests and responses.
      */
@@ -234,10 +234,7 @@ public class SyncHelper {
     }
 
     public static void performPostSyncChores(final Context context) {
-        // Update search index.
-        LOGD(TAG, "Updating search index.");
-        context.getContentResolver().update(ScheduleContract.SearchIndex.CONTENT_URI,
-                new ContentValues(), null, null);
+        // The search index is kept up to date by the database as sessions are written.
 
         // Sync calendar.
         LOGD(TAG, "Session data changed. Syncing starred sessions with Calendar.");
@@ -273,13 +270,14 @@ public class SyncHelper {
 
         // Fetch the remote data files via RemoteConferenceDataFetcher.
         String[] dataFiles = mRemoteDataFetcher.fetchConferenceDataIfNewer(
-                mConferenceDataHandler.getDataTimestamp());
+                mConferenceDataHandler.getDataTimestamp(), mConferenceDataHandler.getDataETag());
 
         if (dataFiles != null) {
             LOGI(TAG, "Applying remote data.");
             // Save the remote data to the database.
             mConferenceDataHandler.applyConferenceData(dataFiles,
                     mRemoteDataFetcher.getServerDataTimestamp(), true);
+            mConferenceDataHandler.setDataETag(mRemoteDataFetcher.getServerDataETag());
             LOGI(TAG, "Done applying remote data.");
 
             // Mark that conference data sync has succeeded.
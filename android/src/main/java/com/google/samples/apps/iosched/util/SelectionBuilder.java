@@ -25,6 +25,7 @@ package com.google.samples.apps.iosched.util;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.text.TextUtils;
 
 import java.util.ArrayList;
@@ -193,6 +194,17 @@ public class SelectionBuilder {
                 mHaving, orderBy, limit);
     }
 
+    /**
+     * Build the SQL that {@link #query(SQLiteDatabase, boolean, String[], String, String)} runs,
+     * to be run with {@link #getSelectionArgs()}.
+     */
+    public String buildQuery(boolean distinct, String[] columns, String orderBy, String limit) {
+        assertTable();
+        if (columns != null) mapColumns(columns);
+        return SQLiteQueryBuilder.buildQueryString(distinct, mTable, columns, getSelection(),
+                mGroupBy, mHaving, orderBy, limit);
+    }
+
     /**
      * Execute update using the current internal state as {@code WHERE} clause.
      */
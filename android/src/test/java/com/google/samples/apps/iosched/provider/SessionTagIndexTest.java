@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.provider;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+@SmallTest
+public class SessionTagIndexTest {
+
+    private SessionTagIndex mIndex;
+
+    @Before
+    public void buildIndex() {
+        mIndex = new SessionTagIndex.Builder()
+                .addSession("s1").addSession("s2").addSession("s3").addSession("s4")
+                .addTag("TRACK_ANDROID", "TRACK").addTag("TRACK_WEB", "TRACK")
+                .addTag("TYPE_SESSIONS", "TYPE").addTag("TYPE_CODELABS", "TYPE")
+                .addSessionTag("s1", "TRACK_ANDROID").addSessionTag("s1", "TYPE_SESSIONS")
+                .addSessionTag("s2", "TRACK_WEB").addSessionTag("s2", "TYPE_SESSIONS")
+                .addSessionTag("s3", "TRACK_ANDROID").addSessionTag("s3", "TYPE_CODELABS")
+                .addSessionTag("s4", "TRACK_ANDROID").addSessionTag("s4", "TRACK_WEB")
+                .build();
+    }
+
+    @Test
+    public void filter_tagsOfOneCategory_areOred() {
+        assertThat(mIndex.filter(new String[] {"TRACK_ANDROID", "TRACK_WEB"}),
+                is(Arrays.asList("s1", "s2", "s3", "s4")));
+    }
+
+    @Test
+    public void filter_categories_areAnded() {
+        assertThat(mIndex.filter(new String[] {"TRACK_ANDROID", "TRACK_WEB", "TYPE_SESSIONS"}),
+                is(Arrays.asList("s1", "s2")));
+        assertThat(mIndex.filter(new String[] {"TRACK_ANDROID", "TYPE_CODELABS"}),
+                is(Collections.singletonList("s3")));
+    }
+
+    @Test
+    public void filter_unknownTag_matchesNothing() {
+        assertThat(mIndex.filter(new String[] {"TRACK_ANDROID", "THEME_UNKNOWN"}),
+                is(Collections.<String>emptyList()));
+    }
+}
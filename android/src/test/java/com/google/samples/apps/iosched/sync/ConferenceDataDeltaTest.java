@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.sync;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+@SmallTest
+public class ConferenceDataDeltaTest {
+
+    private static final String BASE = "{"
+            + "\"rooms\":[{\"id\":\"r1\",\"name\":\"Room 1\"}],"
+            + "\"sessions\":[{\"id\":\"s1\",\"title\":\"One\"},{\"id\":\"s2\",\"title\":\"Two\"},"
+            + "{\"id\":\"s3\",\"title\":\"Three\"}],"
+            + "\"tags\":[{\"tag\":\"TRACK_ANDROID\"}]}";
+
+    @Test
+    public void apply_UpdatesRemovesAndAddsEntities() {
+        String delta = "{\"format\":\"iosched-json-delta-v1\",\"base\":\"session_data_v1.1.json\","
+                + "\"sessions\":{\"updated\":[{\"id\":\"s2\",\"title\":\"Two, moved\"},"
+                + "{\"id\":\"s4\",\"title\":\"Four\"}],\"removed\":[\"s1\"]}}";
+
+        String result = ConferenceDataDelta.apply(BASE, delta);
+
+        JsonObject expected = new JsonParser().parse("{"
+                + "\"rooms\":[{\"id\":\"r1\",\"name\":\"Room 1\"}],"
+                + "\"sessions\":[{\"id\":\"s2\",\"title\":\"Two, moved\"},"
+                + "{\"id\":\"s3\",\"title\":\"Three\"},{\"id\":\"s4\",\"title\":\"Four\"}],"
+                + "\"tags\":[{\"tag\":\"TRACK_ANDROID\"}]}").getAsJsonObject();
+        assertThat(new JsonParser().parse(result).getAsJsonObject(), is(expected));
+    }
+
+    @Test
+    public void apply_AddsEntityTypeMissingFromBase() {
+        String delta = "{\"format\":\"iosched-json-delta-v1\","
+                + "\"speakers\":{\"updated\":[{\"id\":\"sp1\"}],\"removed\":[]}}";
+
+        JsonObject result = new JsonParser().parse(ConferenceDataDelta.apply(BASE, delta))
+                .getAsJsonObject();
+
+        assertThat(result.getAsJsonArray("speakers").size(), is(1));
+        assertThat(result.getAsJsonArray("sessions").size(), is(3));
+    }
+
+    @Test
+    public void apply_UnknownFormat_ReturnsNull() {
+        assertNull(ConferenceDataDelta.apply(BASE, "{\"format\":\"iosched-json-delta-v2\"}"));
+    }
+
+    @Test
+    public void apply_EntityWithoutId_ReturnsNull() {
+        String delta = "{\"format\":\"iosched-json-delta-v1\","
+                + "\"sessions\":{\"updated\":[{\"title\":\"No id\"}],\"removed\":[]}}";
+
+        assertNull(ConferenceDataDelta.apply(BASE, delta));
+    }
+
+    @Test
+    public void apply_MalformedBase_ReturnsNull() {
+        assertNull(ConferenceDataDelta.apply("[]", "{\"format\":\"iosched-json-delta-v1\"}"));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.iosched.test.FakeApiEnvironment;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.LocalFileStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the whole update pipeline (fetch, extraction, hashing, data check and manifest
+ * generation) on local storage, with the recorded test data copied 1, 10 and 100 times, and
+ * prints the mean time of every stage, the bytes allocated and the peak heap of a run.
+ *
+ * <p>This is not a test and never fails the build. Run it with
+ * {@code ./gradlew benchmarkUpdatePipeline}, optionally passing the scales to run as
+ * arguments, e.g. {@code -Pscales=1,10}.
+ */
+public class UpdatePipelineBenchmark {
+
+  private static final int[] DEFAULT_SCALES = {1, 10, 100};
+  private static final int WARMUP_RUNS = 2;
+  private static final int MEASURED_RUNS = 5;
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  /** Bytes allocated by the fetch and check threads of the updater, which die with each run. */
+  private static final AtomicLong workerAllocatedBytes = new AtomicLong();
+
+  public static void main(String[] args) throws IOException {
+    int[] scales = DEFAULT_SCALES;
+    if (args.length > 0) {
+      scales = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        scales[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    // data check failures in the test data are logged as severe, one by one
+    Logger rootLogger = Logger.getLogger("");
+    Level rootLogLevel = rootLogger.getLevel();
+    rootLogger.setLevel(Level.OFF);
+    File workDir = Files.createTempDirectory("update-pipeline-benchmark").toFile();
+    try {
+      for (int scale: scales) {
+        System.out.println(run(new File(workDir, "scale" + scale), scale));
+      }
+    } finally {
+      rootLogger.setLevel(rootLogLevel);
+    }
+  }
+
+  private static String run(File dir, int scale) throws IOException {
+    dir.mkdirs();
+    CloudFileManager fileManager = new CloudFileManager(new LocalFileStore(dir));
+    InMemoryUpdateRunStore runStore = new InMemoryUpdateRunStore();
+    UpdatePipelineFixtures.writeInputs(fileManager, scale);
+
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      runOnce(fileManager, runStore);
+    }
+
+    Map<String, Long> totalMillis = new TreeMap<String, Long>();
+    long totalRunMillis = 0;
+    long totalAllocatedBytes = 0;
+    long maxPeakHeap = 0;
+    for (int i = 0; i < MEASURED_RUNS; i++) {
+      resetPeakHeapUsage();
+      long allocatedBefore = getAllocatedBytes();
+      long start = System.nanoTime();
+      Entity run = runOnce(fileManager, runStore);
+      totalRunMillis += (System.nanoTime() - start) / 1000000;
+      totalAllocatedBytes += getAllocatedBytes() - allocatedBefore;
+      maxPeakHeap = Math.max(maxPeakHeap, getPeakHeapUsage());
+      for (Map.Entry<String, Object> property: run.getProperties().entrySet()) {
+        if (property.getKey().startsWith("time_")) {
+          // timers are named time_[order]_[stage]
+          String stage = property.getKey().substring(property.getKey().indexOf('_', 5) + 1);
+          Long total = totalMillis.get(stage);
+          totalMillis.put(stage, (total == null ? 0 : total) + (Long) property.getValue());
+        }
+      }
+    }
+
+    StringBuilder report = new StringBuilder("scale=" + scale + "x runs=" + MEASURED_RUNS
+        + " meanRunMillis=" + (totalRunMillis / (double) MEASURED_RUNS)
+        + " meanAllocatedMB=" + (totalAllocatedBytes / MEASURED_RUNS / (1024 * 1024))
+        + " maxPeakHeapMB=" + (maxPeakHeap / (1024 * 1024)));
+    for (Map.Entry<String, Long> stage: totalMillis.entrySet()) {
+      report.append(" ").append(stage.getKey()).append("=")
+          .append(stage.getValue() / (double) MEASURED_RUNS).append("ms");
+    }
+    return report.toString();
+  }
+
+  /**
+   * Forces a full run, so that every run goes through all stages.
+   *
+   * @return the logged run
+   */
+  private static Entity runOnce(CloudFileManager fileManager, UpdateRunStore runStore)
+      throws IOException {
+    // UpdateRunLogger creates Datastore entities, which need an App Engine environment
+    FakeApiEnvironment.install();
+    new APIUpdater(fileManager, new UpdateRunLogger(runStore), new AllocationCountingThreadFactory(),
+        null).run(true, false, null);
+    List<Entity> runs = runStore.getMostRecentRuns("UpdateRun", 1);
+    return runs.get(0);
+  }
+
+  /**
+   * @return the bytes allocated so far by this thread and by the finished worker threads
+   */
+  private static long getAllocatedBytes() {
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId())
+        + workerAllocatedBytes.get();
+  }
+
+  /**
+   * Creates threads that add what they allocated to {@link #workerAllocatedBytes} when they end,
+   * as the allocations of a dead thread can't be read anymore.
+   */
+  private static class AllocationCountingThreadFactory implements ThreadFactory {
+    private final ThreadFactory delegate = Executors.defaultThreadFactory();
+
+    @Override
+    public Thread newThread(final Runnable r) {
+      return delegate.newThread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            r.run();
+          } finally {
+            workerAllocatedBytes.addAndGet(
+                THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()));
+          }
+        }
+      });
+    }
+  }
+
+  private static void resetPeakHeapUsage() {
+    System.gc();
+    for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  /**
+   * @return the sum of the peak usage of all heap pools, an upper bound of the peak heap usage
+   */
+  private static long getPeakHeapUsage() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+}
@@ -15,9 +15,21 @@
  */
 package com.google.samples.apps.iosched.server.gcm;
 
+import com.google.samples.apps.iosched.server.gcm.db.AuthKeyStore;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import javax.servlet.http.HttpServletRequest;
 
 public class AuthHelper {
+  private static final Logger LOG = Logger.getLogger(AuthHelper.class.getName());
 
   /** Keys that can be used to request GCM registration */
   private static final String[][] REGISTRATION_KEYS = {
@@ -32,6 +44,30 @@ public class AuthHelper {
     {"7ea6b7b1-91ce-487b-b718-dd385c88ca8d", "Updater AppEngine app"}
   };
 
+  private static final String AUTH_HEADER_PREFIX = "key=";
+
+  /** How long keys loaded from Datastore are used before they are loaded again. */
+  static final long RELOAD_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  /** Maximum number of user principals kept, so unknown keys can't grow memory unbounded. */
+  static final int MAX_CACHED_USERS = 1000;
+
+  private static volatile Map<String, AuthInfo> keyIndex;
+  private static volatile long keyIndexLoadedAt;
+
+  /** Held by the request that reloads the keys. */
+  private static final ReentrantLock reloadLock = new ReentrantLock();
+  /** Keys of the last successful load from Datastore, guarded by {@link #reloadLock}. */
+  private static Iterable<AuthInfo> storedKeys = Collections.emptyList();
+
+  private static final Map<String, AuthInfo> userCache = Collections.synchronizedMap(
+      new LinkedHashMap<String, AuthInfo>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AuthInfo> eldest) {
+          return size() > MAX_CACHED_USERS;
+        }
+      });
+
   /**
    * Extract authorization info from the HTTP request header or query param.
    * @param req
@@ -39,59 +75,122 @@ public class AuthHelper {
    * is used, or set to false if any non-admin key is present.
    */
   public static AuthInfo processAuthorization(HttpServletRequest req) {
-    // Authenticate request
-    // Auth key defaults to the 'key' query parameter
-    String authKey = req.getParameter("key");
-
-    String authHeader = req.getHeader("Authorization");
-    if (authHeader != null) {
-        // Use 'Authorization: key=...' header
-        String splitHeader[] = authHeader.split("=");
-        if ("key".equals(splitHeader[0])) {
-            authKey = splitHeader[1];
-        }
-    }
+    String authKey = extractKey(req.getParameter("key"), req.getHeader("Authorization"));
     if (authKey == null) {
       return null;
     }
 
-    for (String[] candidateKey : ADMIN_KEYS) {
-        if (candidateKey[0].equals(authKey)) {
-            // caller is an admin
-            AuthInfo info = new AuthInfo(candidateKey[0], candidateKey[1]);
-            info.permAdmin = true;
-            return info;
-        }
-    }
-
-    for (String[] candidateKey : REGISTRATION_KEYS) {
-      if (candidateKey[0].equals(authKey)) {
-          // caller is using a valid registration API key, so they
-          // can register
-        AuthInfo info = new AuthInfo(candidateKey[0], candidateKey[1]);
-        info.permRegister = true;
-        return info;
-      }
+    AuthInfo info = getKeyIndex().get(authKey);
+    if (info != null) {
+      return info;
     }
 
     // the key is not a special admin or registration key, so all the user can do is
     // send message to themselves
-    AuthInfo info = new AuthInfo(authKey, "User");
-    info.permSendSelfMessage = true;
+    info = userCache.get(authKey);
+    if (info == null) {
+      info = new AuthInfo(authKey, "User", false, false, true);
+      userCache.put(authKey, info);
+    }
     return info;
   }
 
+  /**
+   * Auth key defaults to the 'key' query parameter, an 'Authorization: key=...' header
+   * takes precedence.
+   */
+  static String extractKey(String keyParam, String authHeader) {
+    if (authHeader != null && authHeader.startsWith(AUTH_HEADER_PREFIX)) {
+      return authHeader.substring(AUTH_HEADER_PREFIX.length());
+    }
+    return keyParam;
+  }
+
+  /**
+   * Returns the index of privileged keys, reloading the keys stored in Datastore when the
+   * current index is older than {@link #RELOAD_INTERVAL_MILLIS}. Only one request reloads, the
+   * others keep using the current index.
+   */
+  static Map<String, AuthInfo> getKeyIndex() {
+    Map<String, AuthInfo> index = keyIndex;
+    if (index != null && System.currentTimeMillis() - keyIndexLoadedAt <= RELOAD_INTERVAL_MILLIS) {
+      return index;
+    }
+    if (index == null) {
+      // nothing to use yet, wait for the first load
+      reloadLock.lock();
+    } else if (!reloadLock.tryLock()) {
+      return index;
+    }
+    try {
+      long now = System.currentTimeMillis();
+      if (keyIndex == null || now - keyIndexLoadedAt > RELOAD_INTERVAL_MILLIS) {
+        reloadKeyIndex(now);
+      }
+      return keyIndex;
+    } finally {
+      reloadLock.unlock();
+    }
+  }
+
+  /**
+   * Loads the stored keys again and rebuilds the index. If Datastore fails, the keys of the
+   * previous load are kept until the next reload. Called with {@link #reloadLock} held.
+   */
+  static void reloadKeyIndex(long now) {
+    boolean loaded = false;
+    try {
+      storedKeys = AuthKeyStore.loadKeys();
+      loaded = true;
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Could not load API keys, keeping the keys loaded before", e);
+    }
+    keyIndex = buildKeyIndex(storedKeys);
+    keyIndexLoadedAt = now;
+    if (loaded) {
+      // a key may have been promoted from a plain user key
+      userCache.clear();
+    }
+  }
+
+  /**
+   * Builds an immutable index of the built-in keys and the given stored keys. Stored keys
+   * override built-in keys with the same value.
+   */
+  static Map<String, AuthInfo> buildKeyIndex(Iterable<AuthInfo> storedKeys) {
+    Map<String, AuthInfo> index = new HashMap<String, AuthInfo>();
+    for (String[] candidateKey : REGISTRATION_KEYS) {
+      // caller is using a valid registration API key, so they can register
+      index.put(candidateKey[0],
+          new AuthInfo(candidateKey[0], candidateKey[1], false, true, false));
+    }
+    for (String[] candidateKey : ADMIN_KEYS) {
+      // caller is an admin
+      index.put(candidateKey[0],
+          new AuthInfo(candidateKey[0], candidateKey[1], true, false, false));
+    }
+    for (AuthInfo info : storedKeys) {
+      index.put(info.authKey, info);
+    }
+    return Collections.unmodifiableMap(index);
+  }
+
+  /** Resolved permissions of a key. Instances are shared between requests. */
   public static class AuthInfo {
-    public boolean permAdmin = false;
-    public boolean permRegister = false;
-    public boolean permSendSelfMessage = false;
+    public final boolean permAdmin;
+    public final boolean permRegister;
+    public final boolean permSendSelfMessage;
 
-    public String authKey;
-    public String clientName;
+    public final String authKey;
+    public final String clientName;
 
-    public AuthInfo(String authKey, String clientName) {
+    public AuthInfo(String authKey, String clientName, boolean permAdmin, boolean permRegister,
+        boolean permSendSelfMessage) {
       this.authKey = authKey;
       this.clientName = clientName;
+      this.permAdmin = permAdmin;
+      this.permRegister = permRegister;
+      this.permSendSelfMessage = permSendSelfMessage;
     }
   }
 
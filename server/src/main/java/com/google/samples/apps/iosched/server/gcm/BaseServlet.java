@@ -18,6 +18,8 @@ package com.google.samples.apps.iosched.server.gcm;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.samples.apps.iosched.server.gcm.metrics.ApiCallCounter;
+import com.google.samples.apps.iosched.server.gcm.metrics.RequestMetrics;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -28,11 +30,13 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
 /**
  * Skeleton class for all servlets in this package.
  *
- * <p>Provides extra logging information when running in debug mode.
+ * <p>Provides extra logging information when running in debug mode, and records the latency and
+ * status of every request in {@link RequestMetrics}, under the servlet name.
  */
 @SuppressWarnings("serial")
 public abstract class BaseServlet extends HttpServlet {
@@ -43,6 +47,73 @@ public abstract class BaseServlet extends HttpServlet {
 
   protected final Logger logger = Logger.getLogger(getClass().getName());
 
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    ApiCallCounter.install();
+  }
+
+  @Override
+  protected void service(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException, ServletException {
+    String endpoint = getServletName();
+    StatusRecordingResponse recordingResp = new StatusRecordingResponse(resp);
+    long start = System.currentTimeMillis();
+    RequestMetrics.setEndpoint(endpoint);
+    boolean failed = true;
+    try {
+      super.service(req, recordingResp);
+      failed = false;
+    } finally {
+      RequestMetrics.clearEndpoint();
+      RequestMetrics.recordRequest(endpoint, System.currentTimeMillis() - start,
+          failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : recordingResp.status);
+      RequestMetrics.maybeFlush();
+    }
+  }
+
+  /**
+   * Keeps the response status, which the servlet API of App Engine doesn't expose.
+   */
+  private static class StatusRecordingResponse extends HttpServletResponseWrapper {
+    int status = HttpServletResponse.SC_OK;
+
+    StatusRecordingResponse(HttpServletResponse resp) {
+      super(resp);
+    }
+
+    @Override
+    public void setStatus(int sc) {
+      status = sc;
+      super.setStatus(sc);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+      status = sc;
+      super.setStatus(sc, sm);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+      status = sc;
+      super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+      status = sc;
+      super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+      status = HttpServletResponse.SC_FOUND;
+      super.sendRedirect(location);
+    }
+  }
+
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse resp)
       throws IOException, ServletException {
@@ -17,9 +17,11 @@ package com.google.samples.apps.iosched.server.gcm.admin;
 
 import com.google.samples.apps.iosched.server.gcm.BaseServlet;
 import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
+import com.google.samples.apps.iosched.server.gcm.device.DispatchScheduler;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -40,6 +42,14 @@ public class AdminServlet extends BaseServlet {
         }
         out.print("</body></html>");
         out.print("<h2>" + DeviceStore.getDeviceCount() + " device(s) registered!</h2>");
+        out.print("<h3>Dispatch</h3>");
+        out.print("<table>");
+        Map<String, Long> metrics = new DispatchScheduler(getServletConfig()).getMetrics();
+        for (Map.Entry<String, Long> metric : metrics.entrySet()) {
+            out.print("<tr><td>" + metric.getKey() + "</td><td>" + metric.getValue()
+                    + "</td></tr>");
+        }
+        out.print("</table>");
         out.print("<form method='POST' action='/scheduleupdate'>");
         out.print("<table>");
         out.print("<tr>");
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.admin;
+
+import com.google.samples.apps.iosched.server.gcm.BaseServlet;
+import com.google.samples.apps.iosched.server.gcm.metrics.RequestMetrics;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Exports the GCM servlet metrics as JSON, see {@link RequestMetrics}.
+ */
+@SuppressWarnings("serial")
+public class MetricsServlet extends BaseServlet {
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        resp.setContentType("application/json");
+        resp.addHeader("X-FRAME-OPTIONS", "DENY");
+        resp.getWriter().print(RequestMetrics.export());
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+}
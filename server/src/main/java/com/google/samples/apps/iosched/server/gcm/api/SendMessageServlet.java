@@ -19,7 +19,7 @@ import com.google.samples.apps.iosched.server.gcm.AuthHelper;
 import com.google.samples.apps.iosched.server.gcm.AuthHelper.AuthInfo;
 import com.google.samples.apps.iosched.server.gcm.BaseServlet;
 import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
-import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.google.samples.apps.iosched.server.gcm.device.MessageCoalescer;
 import com.google.samples.apps.iosched.server.gcm.device.MessageSender;
 
 import java.io.IOException;
@@ -89,9 +89,10 @@ public class SendMessageServlet extends BaseServlet {
                 "\nExtra Data: " + payload);
 
         MessageSender sender = new MessageSender(getServletConfig());
+        MessageCoalescer coalescer = new MessageCoalescer(getServletConfig());
 
         // what's the audience of the message?
-        if ("global".equals(target)) {
+        if (MessageSender.GLOBAL_TARGET.equals(target)) {
             // Only admins can spam the world
             if (!authInfo.permAdmin) {
               LOG.info("Attempt to send global message, but no admin perm.");
@@ -99,14 +100,14 @@ public class SendMessageServlet extends BaseServlet {
               return;
             }
 
-            List<Device> allDevices = DeviceStore.getAllDevices();
-            if (allDevices == null || allDevices.isEmpty()) {
+            if (!DeviceStore.hasDevices()) {
                 send(resp, 404, "No devices registered");
+            } else if (!coalescer.offer(target, action, payload)) {
+                send(resp, 200, "Message coalesced with a pending one");
             } else {
-                int resultCount = allDevices.size();
-                LOG.info("Selected " + resultCount + " devices");
-                sender.multicastSend(allDevices, action, payload);
-                send(resp, 200, "Message queued: " + resultCount + " devices");
+                // devices are paged through by task queue workers, not loaded here
+                sender.globalSend(action, payload);
+                send(resp, 200, "Message queued: all devices");
             }
         } else {
             // Send message to one device
@@ -128,9 +129,11 @@ public class SendMessageServlet extends BaseServlet {
                 return;
               }
             }
-            List<Device> userDevices = DeviceStore.findDevicesByGcmGroupId(target);
+            List<String> userDevices = DeviceStore.findDeviceIdsByGcmGroupId(target);
             if (userDevices == null || userDevices.isEmpty()) {
                 send(resp, 404, "User not found");
+            } else if (!coalescer.offer(target, action, payload)) {
+                send(resp, 200, "Message coalesced with a pending one");
             } else {
                 int resultCount = userDevices.size();
                 LOG.info("Selected " + resultCount + " devices");
@@ -15,19 +15,80 @@
  */
 package com.google.samples.apps.iosched.server.gcm.cron;
 
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.samples.apps.iosched.server.gcm.BaseServlet;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
+import com.google.samples.apps.iosched.server.gcm.db.MessageStore;
+import com.google.samples.apps.iosched.server.gcm.db.PageResult;
+import com.google.samples.apps.iosched.server.gcm.device.MessageSender;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Deletes multicast records older than {@link #MULTICAST_TTL_MILLIS}, which are left behind by
+ * tasks that failed for good or kept as dead letters, the coalescing state of targets not sent
+ * a message for as long, and devices that have been inactive for {@link #DEVICE_IDLE_MILLIS}.
+ *
+ * <p>Entities are deleted a page at a time. When the time budget of a request runs out, the
+ * job queues a task to itself with the current phase and Datastore cursor, and continues there.
+ *
+ * <p>In the {@link MessageSender#BROADCAST_MODE_TOPIC} broadcast mode, devices only register
+ * activity when the app registers again, so idle devices are not purged.
+ *
+ * <p>Records and devices stored before their creation time and activity were, never match the
+ * cutoffs. Requesting the job once with {@code phase=}{@value #PHASE_BACKFILL_MULTICASTS} gives
+ * them the time of that run instead, so they are purged with the others from then on.
+ */
 @SuppressWarnings("serial")
 public class VacuumDbServlet extends BaseServlet {
+
+    static final long MULTICAST_TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+    static final long DEVICE_IDLE_MILLIS = TimeUnit.DAYS.toMillis(120);
+
+    private static final int PAGE_SIZE = 500;
+    private static final long TIME_BUDGET_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    static final String URL = "/cron/vacuum_db";
+    static final String PARAM_PHASE = "phase";
+    static final String PARAM_CURSOR = "cursor";
+    static final String PARAM_CUTOFF = "cutoff";
+
+    static final String PHASE_MULTICASTS = "multicasts";
+    static final String PHASE_PENDING_MESSAGES = "pendingMessages";
+    static final String PHASE_DEVICES = "devices";
+    static final String PHASE_BACKFILL_MULTICASTS = "backfillMulticasts";
+    static final String PHASE_BACKFILL_DEVICES = "backfillDevices";
+
+    private static final Logger LOG = Logger.getLogger(VacuumDbServlet.class.getName());
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws IOException {
+        long start = System.currentTimeMillis();
+        String phase = req.getParameter(PARAM_PHASE);
+        String cursor = req.getParameter(PARAM_CURSOR);
+        String cutoff = req.getParameter(PARAM_CUTOFF);
+        if (phase == null) {
+            // started by cron
+            phase = PHASE_MULTICASTS;
+        }
+        if (cutoff == null) {
+            // all phases use cutoffs relative to this run
+            cutoff = Long.toString(start);
+        }
+        boolean purgeDevices = !MessageSender.BROADCAST_MODE_TOPIC.equals(
+                getServletContext().getInitParameter(MessageSender.BROADCAST_MODE_PARAM));
+        vacuum(phase, cursor, Long.parseLong(cutoff), start + TIME_BUDGET_MILLIS, PAGE_SIZE,
+                purgeDevices);
+
         resp.setContentType("text/html");
         resp.addHeader("X-FRAME-OPTIONS", "DENY");
 
@@ -36,4 +97,73 @@ public class VacuumDbServlet extends BaseServlet {
         out.print("OK");
         resp.setStatus(HttpServletResponse.SC_OK);
     }
+
+    /**
+     * Processes pages from the given phase on until all phases are done, or queues a task that
+     * continues where this left off once the deadline has passed.
+     *
+     * @param cursor web-safe cursor in the current phase, or null to start the phase
+     * @param now time the cutoffs of all phases are relative to
+     * @param deadline time after which no page is started
+     * @param purgeDevices whether idle devices are purged after the multicasts
+     * @return number of entities deleted, or updated by the backfill phases
+     */
+    static int vacuum(String phase, String cursor, long now, long deadline, int pageSize,
+            boolean purgeDevices) {
+        int count = 0;
+        while (phase != null) {
+            if (System.currentTimeMillis() > deadline) {
+                continueLater(phase, cursor, now);
+                break;
+            }
+            PageResult result;
+            if (PHASE_MULTICASTS.equals(phase)) {
+                result = MessageStore.purgeMulticasts(
+                        new Date(now - MULTICAST_TTL_MILLIS), cursor, pageSize);
+            } else if (PHASE_PENDING_MESSAGES.equals(phase)) {
+                result = MessageStore.purgePendingMessages(
+                        new Date(now - MULTICAST_TTL_MILLIS), cursor, pageSize);
+            } else if (PHASE_DEVICES.equals(phase)) {
+                result = DeviceStore.purgeIdleDevices(
+                        new Date(now - DEVICE_IDLE_MILLIS), cursor, pageSize);
+            } else if (PHASE_BACKFILL_MULTICASTS.equals(phase)) {
+                result = MessageStore.backfillMulticastCreated(new Date(now), cursor, pageSize);
+            } else if (PHASE_BACKFILL_DEVICES.equals(phase)) {
+                result = DeviceStore.backfillLastActive(new Date(now), cursor, pageSize);
+            } else {
+                throw new IllegalArgumentException("Unknown phase " + phase);
+            }
+            count += result.count;
+            cursor = result.nextCursor;
+            if (cursor == null) {
+                phase = nextPhase(phase, purgeDevices);
+            }
+        }
+        LOG.info("Vacuum deleted or updated " + count + " entities"
+                + (phase == null ? ", done" : ", continuing with " + phase));
+        return count;
+    }
+
+    private static String nextPhase(String phase, boolean purgeDevices) {
+        if (PHASE_MULTICASTS.equals(phase)) {
+            return PHASE_PENDING_MESSAGES;
+        } else if (PHASE_PENDING_MESSAGES.equals(phase)) {
+            return purgeDevices ? PHASE_DEVICES : null;
+        } else if (PHASE_BACKFILL_MULTICASTS.equals(phase)) {
+            return PHASE_BACKFILL_DEVICES;
+        }
+        return null;
+    }
+
+    private static void continueLater(String phase, String cursor, long cutoff) {
+        TaskOptions taskOptions = TaskOptions.Builder
+                .withUrl(URL)
+                .param(PARAM_PHASE, phase)
+                .param(PARAM_CUTOFF, Long.toString(cutoff))
+                .method(TaskOptions.Method.GET);
+        if (cursor != null) {
+            taskOptions.param(PARAM_CURSOR, cursor);
+        }
+        QueueFactory.getDefaultQueue().add(taskOptions);
+    }
 }
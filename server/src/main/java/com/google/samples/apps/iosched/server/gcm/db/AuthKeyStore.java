@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.db;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.samples.apps.iosched.server.gcm.AuthHelper.AuthInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads API keys from {@value #ENTITY_KIND} entities, so keys can be added and revoked in the
+ * App Engine admin console without a redeploy.
+ *
+ * <p>The key name of each entity is the API key. Its properties are {@value #CLIENT_NAME_FIELD}
+ * (String), and {@value #ADMIN_FIELD} and {@value #REGISTER_FIELD} (Boolean) for the granted
+ * permissions. To rotate a key, add the new one, update the clients, then delete the old one.
+ */
+public class AuthKeyStore {
+
+    private static final String ENTITY_KIND = "AuthKey";
+    private static final String CLIENT_NAME_FIELD = "clientName";
+    private static final String ADMIN_FIELD = "admin";
+    private static final String REGISTER_FIELD = "register";
+
+    private AuthKeyStore() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the keys stored in Datastore
+     */
+    public static List<AuthInfo> loadKeys() {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        List<AuthInfo> keys = new ArrayList<AuthInfo>();
+        for (Entity entity : datastore.prepare(new Query(ENTITY_KIND))
+                .asIterable(FetchOptions.Builder.withChunkSize(500))) {
+            keys.add(new AuthInfo(entity.getKey().getName(),
+                    (String) entity.getProperty(CLIENT_NAME_FIELD),
+                    Boolean.TRUE.equals(entity.getProperty(ADMIN_FIELD)),
+                    Boolean.TRUE.equals(entity.getProperty(REGISTER_FIELD)),
+                    false));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.db;
+
+import static com.google.samples.apps.iosched.server.gcm.db.OfyService.ofy;
+
+import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.google.samples.apps.iosched.server.gcm.db.models.DeviceCountShard;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Sharded count of the registered devices.
+ *
+ * <p>Registrations update a random shard, so they do not contend on a single entity, and the
+ * count is the sum of a few entities instead of a scan of all devices. Shard {@value #BASE_SHARD}
+ * holds the number of devices registered before the counter existed, and is computed once
+ * with a full count.
+ */
+final class DeviceCounter {
+    private static final Logger LOG = Logger.getLogger(DeviceCounter.class.getName());
+
+    // datastore ids cannot be 0
+    private static final long BASE_SHARD = 1;
+    private static final int SHARDS = 20;
+
+    private static final Random RANDOM = new Random();
+
+    private DeviceCounter() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Adds delta to the device count.
+     */
+    static void add(final long delta) {
+        if (delta == 0) {
+            return;
+        }
+        final long shardId = BASE_SHARD + 1 + RANDOM.nextInt(SHARDS);
+        ofy().transactNew(new VoidWork() {
+            @Override
+            public void vrun() {
+                DeviceCountShard shard = ofy().load().type(DeviceCountShard.class).id(shardId)
+                        .now();
+                if (shard == null) {
+                    shard = new DeviceCountShard();
+                    shard.setId(shardId);
+                }
+                shard.setCount(shard.getCount() + delta);
+                ofy().save().entity(shard);
+            }
+        });
+    }
+
+    /**
+     * @return the number of registered devices
+     */
+    static long get() {
+        List<Long> ids = new ArrayList<Long>(SHARDS + 1);
+        for (long id = BASE_SHARD; id <= BASE_SHARD + SHARDS; id++) {
+            ids.add(id);
+        }
+        Map<Long, DeviceCountShard> shards = ofy().load().type(DeviceCountShard.class).ids(ids);
+        long increments = 0;
+        for (DeviceCountShard shard : shards.values()) {
+            if (shard.getId() != BASE_SHARD) {
+                increments += shard.getCount();
+            }
+        }
+        DeviceCountShard base = shards.get(BASE_SHARD);
+        if (base == null) {
+            base = initBase(increments);
+        }
+        return base.getCount() + increments;
+    }
+
+    /**
+     * Counts the devices once, and stores the devices not accounted for by the other shards.
+     */
+    private static DeviceCountShard initBase(final long increments) {
+        final int total = ofy().load().type(Device.class).count();
+        LOG.info("Initializing device counter with " + total + " devices");
+        return ofy().transactNew(new Work<DeviceCountShard>() {
+            @Override
+            public DeviceCountShard run() {
+                DeviceCountShard base = ofy().load().type(DeviceCountShard.class)
+                        .id(BASE_SHARD).now();
+                if (base == null) {
+                    base = new DeviceCountShard();
+                    base.setId(BASE_SHARD);
+                    base.setCount(total - increments);
+                    ofy().save().entity(base);
+                }
+                return base;
+            }
+        });
+    }
+}
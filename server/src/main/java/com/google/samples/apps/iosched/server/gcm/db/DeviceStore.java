@@ -18,14 +18,68 @@ package com.google.samples.apps.iosched.server.gcm.db;
 
 import static com.google.samples.apps.iosched.server.gcm.db.OfyService.ofy;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 public class DeviceStore {
     private static final Logger LOG = Logger.getLogger(DeviceStore.class.getName());
 
+    /**
+     * Caches the registration ids of each GCM group, which are needed for every message sent to
+     * a user. Groups are read with a query on an index that lags behind writes, so entries are
+     * never dropped when a device changes: they are updated in place, see
+     * {@link #updateCachedGroups}. An entry is one of:
+     * <ul>
+     * <li>the list of registration ids of the group;</li>
+     * <li>{@link #GROUP_LOADING} while a read fills the entry;</li>
+     * <li>the {@link GroupChanges} made while the group was not cached, which reads apply to the
+     * query results until the index shows them.</li>
+     * </ul>
+     */
+    private static final MemcacheService GROUP_CACHE =
+            MemcacheServiceFactory.getMemcacheService("DeviceStore.groups");
+    private static final Expiration GROUP_CACHE_EXPIRATION = Expiration.byDeltaSeconds(600);
+    private static final String GROUP_LOADING = "loading";
+    private static final Expiration GROUP_LOADING_EXPIRATION = Expiration.byDeltaSeconds(30);
+    /** How long changes are applied to query results, well over the usual index lag. */
+    private static final Expiration GROUP_CHANGES_EXPIRATION = Expiration.byDeltaSeconds(60);
+    private static final int MAX_GROUP_CACHE_UPDATES = 10;
+
+    /** {@link Device#getLastActive()} is only updated when it is older than this. */
+    private static final long ACTIVITY_RESOLUTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Registration ids whose activity was recorded recently, so that deliveries to them do not
+     * read the device again.
+     */
+    private static final MemcacheService ACTIVITY_CACHE =
+            MemcacheServiceFactory.getMemcacheService("DeviceStore.activity");
+    private static final Expiration ACTIVITY_CACHE_EXPIRATION =
+            Expiration.byDeltaMillis((int) ACTIVITY_RESOLUTION_MILLIS);
+
     /**
      * Registers a device.
      *
@@ -39,14 +93,23 @@ public class DeviceStore {
             Device newDevice = new Device();
             newDevice.setGcmId(gcmId);
             newDevice.setGcmGroupId(gcmGroupId);
+            newDevice.setLastActive(new Date());
             ofy().save().entity(newDevice);
+            new GroupUpdates().add(gcmGroupId, gcmId).apply();
+            DeviceCounter.add(1);
         } else {
             // Existing device found
             LOG.warning(gcmId + " is already registered");
             if (!gcmGroupId.equals(oldDevice.getGcmGroupId())) {
                 LOG.info("GcmGroupId has changed from '" + oldDevice.getGcmGroupId() + "' to '"
                         + gcmGroupId + "'");
+                String oldGroupId = oldDevice.getGcmGroupId();
                 oldDevice.setGcmGroupId(gcmGroupId);
+                oldDevice.setLastActive(new Date());
+                ofy().save().entity(oldDevice).now();
+                new GroupUpdates().remove(oldGroupId, gcmId).add(gcmGroupId, gcmId).apply();
+            } else if (isActivityStale(oldDevice, System.currentTimeMillis())) {
+                oldDevice.setLastActive(new Date());
                 ofy().save().entity(oldDevice);
             }
         }
@@ -64,7 +127,9 @@ public class DeviceStore {
             return;
         }
         LOG.info("Unregistering " + gcmId);
-        ofy().delete().entity(device);
+        ofy().delete().entity(device).now();
+        new GroupUpdates().remove(device.getGcmGroupId(), gcmId).apply();
+        DeviceCounter.add(-1);
     }
 
     /**
@@ -77,26 +142,261 @@ public class DeviceStore {
             LOG.warning("No device for registration id " + oldGcmId);
             return;
         }
+        if (findDeviceByGcmId(newGcmId) != null) {
+            // the device also registered with its new id, so it is counted already
+            LOG.info(newGcmId + " is already registered, removing " + oldGcmId);
+            ofy().delete().entity(oldDevice).now();
+            new GroupUpdates().remove(oldDevice.getGcmGroupId(), oldGcmId).apply();
+            DeviceCounter.add(-1);
+            return;
+        }
         // Device exists. Since we use the GCM key as the (immutable) primary key,
         // we must create a new entity.
         Device newDevice = new Device();
         newDevice.setGcmId(newGcmId);
         newDevice.setGcmGroupId(oldDevice.getGcmGroupId());
-        ofy().save().entity(newDevice);
-        ofy().delete().entity(oldDevice);
+        newDevice.setLastActive(new Date());
+        Result<?> saved = ofy().save().entity(newDevice);
+        ofy().delete().entity(oldDevice).now();
+        saved.now();
+        new GroupUpdates().remove(oldDevice.getGcmGroupId(), oldGcmId)
+                .add(oldDevice.getGcmGroupId(), newGcmId).apply();
+    }
+
+    /**
+     * Applies the registration changes reported by GCM for a multicast in batch: one read for
+     * all affected devices, then one write for the new registration ids and one delete, issued
+     * together.
+     *
+     * @param canonicalIds new registration ids by old registration id
+     * @param unregisteredIds registration ids GCM reported as no longer registered
+     * @return how many devices were changed
+     */
+    public static RegistrationChanges applyRegistrationChanges(Map<String, String> canonicalIds,
+            Collection<String> unregisteredIds) {
+        RegistrationChanges changes = new RegistrationChanges();
+        if (canonicalIds.isEmpty() && unregisteredIds.isEmpty()) {
+            return changes;
+        }
+        // canonical ids are read too, to find the devices that also registered with them
+        Set<String> affectedIds = new HashSet<String>(canonicalIds.keySet());
+        affectedIds.addAll(canonicalIds.values());
+        affectedIds.addAll(unregisteredIds);
+        Map<String, Device> devices = ofy().load().type(Device.class).ids(affectedIds);
+
+        GroupUpdates groupUpdates = new GroupUpdates();
+        List<Device> newDevices = new ArrayList<Device>(canonicalIds.size());
+        List<Key<Device>> deletedKeys = new ArrayList<Key<Device>>(devices.size());
+        Set<String> registeredIds = new HashSet<String>(devices.keySet());
+        for (Map.Entry<String, String> entry : canonicalIds.entrySet()) {
+            Device oldDevice = devices.get(entry.getKey());
+            if (oldDevice == null) {
+                changes.missing++;
+                continue;
+            }
+            groupUpdates.remove(oldDevice.getGcmGroupId(), entry.getKey());
+            deletedKeys.add(Key.create(Device.class, entry.getKey()));
+            if (!registeredIds.add(entry.getValue())) {
+                // already registered, by the device itself or an earlier entry of this batch
+                changes.merged++;
+                continue;
+            }
+            // Since we use the GCM key as the (immutable) primary key, we must create a new
+            // entity.
+            Device newDevice = new Device();
+            newDevice.setGcmId(entry.getValue());
+            newDevice.setGcmGroupId(oldDevice.getGcmGroupId());
+            newDevice.setLastActive(new Date());
+            newDevices.add(newDevice);
+            groupUpdates.add(newDevice.getGcmGroupId(), newDevice.getGcmId());
+            changes.updated++;
+        }
+        for (String gcmId : unregisteredIds) {
+            Device device = devices.get(gcmId);
+            if (device != null) {
+                groupUpdates.remove(device.getGcmGroupId(), gcmId);
+                deletedKeys.add(Key.create(Device.class, gcmId));
+                changes.unregistered++;
+            } else {
+                changes.missing++;
+            }
+        }
+
+        Result<?> saved = newDevices.isEmpty() ? null : ofy().save().entities(newDevices);
+        Result<Void> deleted = deletedKeys.isEmpty() ? null : ofy().delete().keys(deletedKeys);
+        if (saved != null) {
+            saved.now();
+        }
+        if (deleted != null) {
+            deleted.now();
+        }
+        groupUpdates.apply();
+        DeviceCounter.add(-changes.unregistered - changes.merged);
+        LOG.info("Registration changes: " + changes);
+        return changes;
+    }
+
+    /**
+     * Records that messages were delivered to devices, so that they are not pruned as idle. To
+     * keep this cheap, each device is read and written at most about once a day: devices seen
+     * recently are remembered in memcache and skipped without a Datastore read.
+     *
+     * @param gcmIds registration ids of the devices GCM accepted a message for
+     */
+    public static void recordDeliveries(Collection<String> gcmIds) {
+        if (gcmIds.isEmpty()) {
+            return;
+        }
+        Set<String> due = new HashSet<String>(gcmIds);
+        due.removeAll(ACTIVITY_CACHE.getAll(gcmIds).keySet());
+        if (due.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Device> touched = new ArrayList<Device>();
+        Map<String, Boolean> seen = new HashMap<String, Boolean>();
+        for (Device device : ofy().load().type(Device.class).ids(due).values()) {
+            if (isActivityStale(device, now)) {
+                device.setLastActive(new Date(now));
+                touched.add(device);
+            }
+            seen.put(device.getGcmId(), Boolean.TRUE);
+        }
+        if (!touched.isEmpty()) {
+            ofy().save().entities(touched);
+        }
+        ACTIVITY_CACHE.putAll(seen, ACTIVITY_CACHE_EXPIRATION);
+    }
+
+    private static boolean isActivityStale(Device device, long now) {
+        return device.getLastActive() == null
+                || device.getLastActive().getTime() < now - ACTIVITY_RESOLUTION_MILLIS;
+    }
+
+    /**
+     * Deletes a page of devices that have not registered nor been delivered a message since a
+     * given time. GCM does not always report uninstalled apps as NotRegistered, so without
+     * this their devices would be sent every broadcast forever.
+     *
+     * @param cutoff devices inactive since before this time are deleted
+     * @param cursor web-safe cursor returned with the previous page, or null
+     * @param limit maximum number of devices deleted
+     */
+    public static PageResult purgeIdleDevices(Date cutoff, String cursor, int limit) {
+        Query<Device> query = ofy().load().type(Device.class).filter("lastActive <", cutoff)
+                .limit(limit).chunk(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Device> devices = query.iterable().iterator();
+        List<Device> deleted = new ArrayList<Device>(limit);
+        GroupUpdates groupUpdates = new GroupUpdates();
+        while (devices.hasNext()) {
+            Device device = devices.next();
+            deleted.add(device);
+            groupUpdates.remove(device.getGcmGroupId(), device.getGcmId());
+        }
+        ofy().delete().entities(deleted).now();
+        groupUpdates.apply();
+        DeviceCounter.add(-deleted.size());
+        LOG.info("Purged " + deleted.size() + " devices inactive since " + cutoff);
+        return new PageResult(deleted.size(),
+                deleted.size() < limit ? null : devices.getCursor().toWebSafeString());
+    }
+
+    /**
+     * Sets the last activity of a page of devices stored without one, which
+     * {@link #purgeIdleDevices} would never match. Goes through all devices, so it is only run
+     * once, when devices registered before the activity was stored may be left.
+     *
+     * @param lastActive last activity given to the devices
+     * @param cursor web-safe cursor returned with the previous page, or null
+     * @param limit maximum number of devices read
+     * @return the number of devices updated
+     */
+    public static PageResult backfillLastActive(Date lastActive, String cursor, int limit) {
+        Query<Device> query = ofy().load().type(Device.class).limit(limit).chunk(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Device> devices = query.iterable().iterator();
+        int read = 0;
+        int updated = 0;
+        while (devices.hasNext()) {
+            Device device = devices.next();
+            read++;
+            if (device.getLastActive() == null
+                    && setMissingLastActive(device.getGcmId(), lastActive)) {
+                updated++;
+            }
+        }
+        LOG.info("Set the last activity of " + updated + " devices");
+        return new PageResult(updated,
+                read < limit ? null : devices.getCursor().toWebSafeString());
+    }
+
+    /**
+     * Sets the last activity of a device in a transaction, so a concurrent registration is not
+     * overwritten.
+     */
+    private static boolean setMissingLastActive(final String gcmId, final Date lastActive) {
+        return ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                Device device = findDeviceByGcmId(gcmId);
+                if (device == null || device.getLastActive() != null) {
+                    return false;
+                }
+                device.setLastActive(lastActive);
+                ofy().save().entity(device);
+                return true;
+            }
+        });
     }
 
     /**
      * Gets registered device count.
      */
     public static int getDeviceCount() {
-        return ofy().load().type(Device.class).count();
+        return (int) DeviceCounter.get();
     }
 
     public static List<Device> getAllDevices() {
         return ofy().load().type(Device.class).list();
     }
 
+    /**
+     * @return whether at least one device is registered, without loading any device
+     */
+    public static boolean hasDevices() {
+        return ofy().load().type(Device.class).keys().first().now() != null;
+    }
+
+    /**
+     * Reads one page of registration ids with a keys-only query, so device entities are never
+     * loaded and memory use does not depend on the number of registered devices.
+     *
+     * @param cursor web-safe cursor returned with the previous page, or null for the first page
+     * @param limit maximum number of registration ids in the page
+     */
+    public static DeviceIdsPage getDeviceIdsPage(String cursor, int limit) {
+        Query<Device> query = ofy().load().type(Device.class).limit(limit).chunk(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<Device>> keys = query.keys().iterable().iterator();
+        List<String> gcmIds = new ArrayList<String>(limit);
+        while (keys.hasNext()) {
+            gcmIds.add(keys.next().getName());
+        }
+        String nextCursor = null;
+        if (gcmIds.size() == limit) {
+            Cursor next = keys.getCursor();
+            nextCursor = next == null ? null : next.toWebSafeString();
+        }
+        return new DeviceIdsPage(gcmIds, nextCursor);
+    }
+
     public static Device findDeviceByGcmId(String regId) {
         return ofy().load().type(Device.class).id(regId).now();
     }
@@ -104,4 +404,196 @@ public class DeviceStore {
     public static List<Device> findDevicesByGcmGroupId(String target) {
         return ofy().load().type(Device.class).filter("gPlusId", target).list();
     }
+
+    /**
+     * @return the registration ids of the devices of a GCM group, from the cache if possible
+     */
+    @SuppressWarnings("unchecked")
+    public static List<String> findDeviceIdsByGcmGroupId(String target) {
+        IdentifiableValue cached = GROUP_CACHE.getIdentifiable(target);
+        if (cached != null && cached.getValue() instanceof List) {
+            return (List<String>) cached.getValue();
+        }
+        if (cached == null) {
+            // a write to the group from now on replaces the marker, so the list read below is
+            // only cached if no device of the group changed meanwhile
+            GROUP_CACHE.put(target, GROUP_LOADING, GROUP_LOADING_EXPIRATION,
+                    MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+            cached = GROUP_CACHE.getIdentifiable(target);
+        }
+
+        List<Key<Device>> keys = ofy().load().type(Device.class).filter("gPlusId", target)
+                .keys().list();
+        List<String> gcmIds = new ArrayList<String>(keys.size());
+        for (Key<Device> key : keys) {
+            gcmIds.add(key.getName());
+        }
+
+        if (cached != null && GROUP_LOADING.equals(cached.getValue())
+                && GROUP_CACHE.putIfUntouched(target, cached, gcmIds, GROUP_CACHE_EXPIRATION)) {
+            return gcmIds;
+        }
+        // the group changed recently, and the query may not show it yet
+        Object changes = GROUP_CACHE.get(target);
+        if (changes instanceof GroupChanges) {
+            ((GroupChanges) changes).applyTo(gcmIds);
+        } else if (changes instanceof List) {
+            return (List<String>) changes;
+        }
+        return gcmIds;
+    }
+
+    /**
+     * Applies changes to the cached registration ids of groups. Each entry is updated with a
+     * compare-and-set: the cached list is edited, and a group that is not cached, or being
+     * loaded, records the changes for the reads of the next minute.
+     */
+    @SuppressWarnings("unchecked")
+    private static void updateCachedGroups(Map<String, GroupChanges> changesByGroup) {
+        for (Map.Entry<String, GroupChanges> entry : changesByGroup.entrySet()) {
+            String groupId = entry.getKey();
+            GroupChanges changes = entry.getValue();
+            boolean updated = false;
+            for (int i = 0; i < MAX_GROUP_CACHE_UPDATES && !updated; i++) {
+                IdentifiableValue cached = GROUP_CACHE.getIdentifiable(groupId);
+                if (cached == null) {
+                    updated = GROUP_CACHE.put(groupId, changes, GROUP_CHANGES_EXPIRATION,
+                            MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+                } else if (cached.getValue() instanceof List) {
+                    ArrayList<String> gcmIds =
+                            new ArrayList<String>((List<String>) cached.getValue());
+                    changes.applyTo(gcmIds);
+                    updated = GROUP_CACHE.putIfUntouched(groupId, cached, gcmIds,
+                            GROUP_CACHE_EXPIRATION);
+                } else {
+                    GroupChanges merged = cached.getValue() instanceof GroupChanges
+                            ? ((GroupChanges) cached.getValue()).plus(changes) : changes;
+                    updated = GROUP_CACHE.putIfUntouched(groupId, cached, merged,
+                            GROUP_CHANGES_EXPIRATION);
+                }
+            }
+            if (!updated) {
+                // too much contention: keep at least these changes, and no stale list
+                LOG.warning("Could not update the cached devices of group " + groupId);
+                GROUP_CACHE.put(groupId, changes, GROUP_CHANGES_EXPIRATION);
+            }
+        }
+    }
+
+    /**
+     * Collects the devices added to and removed from groups by a write, see
+     * {@link #updateCachedGroups}.
+     */
+    private static class GroupUpdates {
+        private final Map<String, GroupChanges> mChanges = new HashMap<String, GroupChanges>();
+
+        GroupUpdates add(String groupId, String gcmId) {
+            if (groupId != null) {
+                changesOf(groupId).add(gcmId);
+            }
+            return this;
+        }
+
+        GroupUpdates remove(String groupId, String gcmId) {
+            if (groupId != null) {
+                changesOf(groupId).remove(gcmId);
+            }
+            return this;
+        }
+
+        private GroupChanges changesOf(String groupId) {
+            GroupChanges changes = mChanges.get(groupId);
+            if (changes == null) {
+                changes = new GroupChanges();
+                mChanges.put(groupId, changes);
+            }
+            return changes;
+        }
+
+        void apply() {
+            updateCachedGroups(mChanges);
+        }
+    }
+
+    /**
+     * Registration ids added to and removed from one group, in the order they were written.
+     */
+    static class GroupChanges implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final LinkedHashSet<String> mAdded = new LinkedHashSet<String>();
+        private final LinkedHashSet<String> mRemoved = new LinkedHashSet<String>();
+
+        void add(String gcmId) {
+            mRemoved.remove(gcmId);
+            mAdded.add(gcmId);
+        }
+
+        void remove(String gcmId) {
+            mAdded.remove(gcmId);
+            mRemoved.add(gcmId);
+        }
+
+        /**
+         * @return these changes followed by {@code later}
+         */
+        GroupChanges plus(GroupChanges later) {
+            GroupChanges merged = new GroupChanges();
+            for (GroupChanges changes : Arrays.asList(this, later)) {
+                for (String gcmId : changes.mRemoved) {
+                    merged.remove(gcmId);
+                }
+                for (String gcmId : changes.mAdded) {
+                    merged.add(gcmId);
+                }
+            }
+            return merged;
+        }
+
+        void applyTo(List<String> gcmIds) {
+            gcmIds.removeAll(mRemoved);
+            for (String gcmId : mAdded) {
+                if (!gcmIds.contains(gcmId)) {
+                    gcmIds.add(gcmId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts of the devices changed by {@link #applyRegistrationChanges(Map, Collection)}.
+     */
+    public static class RegistrationChanges {
+        /** Devices moved to their canonical registration id. */
+        public int updated;
+        /**
+         * Devices deleted because their canonical registration id was already registered by
+         * another device entity.
+         */
+        public int merged;
+        /** Devices deleted because they are no longer registered. */
+        public int unregistered;
+        /** Registration ids that had no device, e.g. already updated by another task. */
+        public int missing;
+
+        @Override
+        public String toString() {
+            return updated + " updated, " + merged + " merged, " + unregistered
+                    + " unregistered, " + missing + " missing";
+        }
+    }
+
+    /**
+     * A page of registration ids, see {@link #getDeviceIdsPage(String, int)}.
+     */
+    public static class DeviceIdsPage {
+        public final List<String> gcmIds;
+        /** Web-safe cursor to the next page, or null if this is the last page. */
+        public final String nextCursor;
+
+        DeviceIdsPage(List<String> gcmIds, String nextCursor) {
+            this.gcmIds = gcmIds;
+            this.nextCursor = nextCursor;
+        }
+    }
 }
@@ -15,8 +15,16 @@
  */
 package com.google.samples.apps.iosched.server.gcm.db;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.samples.apps.iosched.server.gcm.db.models.MulticastMessage;
+import com.google.samples.apps.iosched.server.gcm.db.models.PendingMessage;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -42,22 +50,46 @@ public final class MessageStore {
      * @param devices registration ids of the devices
      * @param type message type
      * @param extraData additional message payload
+     * @param broadcast whether the message is sent to all devices
      * @return ID for the persistent record
      */
     public static Long createMulticast(List<String> devices,
                                          String type,
-                                         String extraData) {
+                                         String extraData,
+                                         boolean broadcast) {
         LOG.info("Storing multicast for " + devices.size() + " devices. (type=" + type + ")");
         MulticastMessage msg = new MulticastMessage();
         msg.setDestinations(devices);
         msg.setAction(type);
         msg.setExtraData(extraData);
+        msg.setBroadcast(broadcast);
+        msg.setCreated(new Date());
         ofy().save().entity(msg).now();
         Long id = msg.getId();
         LOG.fine("Multicast ID: " + id);
         return id;
     }
 
+    /**
+     * Creates a persistent record for a message sent to a GCM topic.
+     *
+     * @param topic topic name, starting with /topics/
+     * @param type message type
+     * @param extraData additional message payload
+     * @return ID for the persistent record
+     */
+    public static Long createTopicMessage(String topic, String type, String extraData) {
+        MulticastMessage msg = new MulticastMessage();
+        msg.setTopic(topic);
+        msg.setDestinations(new ArrayList<String>());
+        msg.setAction(type);
+        msg.setExtraData(extraData);
+        msg.setBroadcast(true);
+        msg.setCreated(new Date());
+        ofy().save().entity(msg).now();
+        return msg.getId();
+    }
+
     /**
      * Gets a persistent record with the devices to be notified using a
      * multicast message.
@@ -72,27 +104,143 @@ public final class MessageStore {
      * Updates a persistent record with the devices to be notified using a
      * multicast message.
      *
-     * @param id ID for the persistent record.
+     * @param msg the persistent record.
      * @param devices new list of registration ids of the devices.
+     * @param attempts number of times the multicast was sent so far.
      */
-    public static void updateMulticast(Long id, List<String> devices) {
-        MulticastMessage msg = ofy().load().type(MulticastMessage.class).id(id).now();
-        if (msg == null) {
-            LOG.severe("No entity for multicast ID: " + id);
-            return;
-        }
+    public static void updateMulticast(MulticastMessage msg, List<String> devices,
+            int attempts) {
+        msg.setDestinations(devices);
+        msg.setAttempts(attempts);
+        ofy().save().entity(msg).now();
+    }
+
+    /**
+     * Keeps a multicast that will not be retried anymore, with the devices that
+     * could not be notified, so that it can be inspected.
+     *
+     * @param msg the persistent record.
+     * @param devices registration ids of the devices that were not notified.
+     * @param attempts number of times the multicast was sent.
+     */
+    public static void deadLetterMulticast(MulticastMessage msg, List<String> devices,
+            int attempts) {
         msg.setDestinations(devices);
-        ofy().save().entity(msg);
+        msg.setAttempts(attempts);
+        msg.setDeadLetter(true);
+        ofy().save().entity(msg).now();
+    }
+
+    /**
+     * Deletes a page of multicast records created before a given time, e.g.
+     * left behind by tasks that failed for good.
+     *
+     * @param cutoff records created before this time are deleted.
+     * @param cursor cursor returned with the previous page, or null.
+     * @param limit maximum number of records deleted.
+     */
+    public static PageResult purgeMulticasts(Date cutoff, String cursor, int limit) {
+        Query<MulticastMessage> query = ofy().load().type(MulticastMessage.class)
+                .filter("created <", cutoff).limit(limit).chunk(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<MulticastMessage>> keys = query.keys().iterable().iterator();
+        List<Key<MulticastMessage>> deleted = new ArrayList<Key<MulticastMessage>>(limit);
+        while (keys.hasNext()) {
+            deleted.add(keys.next());
+        }
+        ofy().delete().keys(deleted).now();
+        LOG.info("Purged " + deleted.size() + " multicasts created before " + cutoff);
+        return new PageResult(deleted.size(),
+                deleted.size() < limit ? null : keys.getCursor().toWebSafeString());
+    }
+
+    /**
+     * Sets the creation time of a page of multicast records stored without one, which
+     * {@link #purgeMulticasts} would never match. Goes through all records, so it is only run
+     * once, when records from before the creation time was stored may be left.
+     *
+     * @param created creation time given to the records.
+     * @param cursor cursor returned with the previous page, or null.
+     * @param limit maximum number of records read.
+     * @return the number of records updated.
+     */
+    public static PageResult backfillMulticastCreated(Date created, String cursor, int limit) {
+        Query<MulticastMessage> query = ofy().load().type(MulticastMessage.class)
+                .limit(limit).chunk(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<MulticastMessage> messages = query.iterable().iterator();
+        int read = 0;
+        int updated = 0;
+        while (messages.hasNext()) {
+            MulticastMessage msg = messages.next();
+            read++;
+            if (msg.getCreated() == null && setMissingCreated(msg.getId(), created)) {
+                updated++;
+            }
+        }
+        LOG.info("Set the creation time of " + updated + " multicasts");
+        return new PageResult(updated,
+                read < limit ? null : messages.getCursor().toWebSafeString());
+    }
+
+    /**
+     * Sets the creation time of a record in a transaction, so the update of a concurrent retry
+     * is not overwritten.
+     */
+    private static boolean setMissingCreated(final Long id, final Date created) {
+        return ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                MulticastMessage msg = getMulticast(id);
+                if (msg == null || msg.getCreated() != null) {
+                    return false;
+                }
+                msg.setCreated(created);
+                ofy().save().entity(msg);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Deletes a page of coalescing states whose last window ended before a given time. A
+     * target that is sent a message again gets a new one.
+     *
+     * @param cutoff states whose window ended before this time are deleted.
+     * @param cursor cursor returned with the previous page, or null.
+     * @param limit maximum number of states deleted.
+     */
+    public static PageResult purgePendingMessages(Date cutoff, String cursor, int limit) {
+        Query<PendingMessage> query = ofy().load().type(PendingMessage.class)
+                .filter("windowEnd <", cutoff).limit(limit).chunk(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<PendingMessage>> keys = query.keys().iterable().iterator();
+        List<Key<PendingMessage>> deleted = new ArrayList<Key<PendingMessage>>(limit);
+        while (keys.hasNext()) {
+            deleted.add(keys.next());
+        }
+        ofy().delete().keys(deleted).now();
+        LOG.info("Purged " + deleted.size() + " pending messages with windows ended before "
+                + cutoff);
+        return new PageResult(deleted.size(),
+                deleted.size() < limit ? null : keys.getCursor().toWebSafeString());
     }
 
     /**
      * Deletes a persistent record with the devices to be notified using a
-     * multicast message.
+     * multicast message. Waits for the delete, so that a task which cannot delete its record
+     * fails and is retried, rather than leaving the record to be purged as undelivered.
      *
      * @param id ID for the persistent record.
      */
     public static void deleteMulticast(Long id) {
-        ofy().delete().type(MulticastMessage.class).id(id);
+        ofy().delete().type(MulticastMessage.class).id(id).now();
     }
 
 }
@@ -17,7 +17,9 @@
 package com.google.samples.apps.iosched.server.gcm.db;
 
 import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.google.samples.apps.iosched.server.gcm.db.models.DeviceCountShard;
 import com.google.samples.apps.iosched.server.gcm.db.models.MulticastMessage;
+import com.google.samples.apps.iosched.server.gcm.db.models.PendingMessage;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
@@ -33,7 +35,9 @@ import com.googlecode.objectify.ObjectifyService;
 public class OfyService {
     static {
         factory().register(Device.class);
+        factory().register(DeviceCountShard.class);
         factory().register(MulticastMessage.class);
+        factory().register(PendingMessage.class);
     }
 
     public static Objectify ofy() {
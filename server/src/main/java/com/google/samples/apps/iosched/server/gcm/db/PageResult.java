@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.db;
+
+/**
+ * Result of deleting or updating one page of entities.
+ */
+public class PageResult {
+    /** Number of entities deleted or updated. */
+    public final int count;
+    /** Web-safe cursor to the next page, or null if there are no more stale entities. */
+    public final String nextCursor;
+
+    PageResult(int count, String nextCursor) {
+        this.count = count;
+        this.nextCursor = nextCursor;
+    }
+}
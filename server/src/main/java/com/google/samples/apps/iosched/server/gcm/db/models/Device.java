@@ -20,6 +20,8 @@ import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
 
+import java.util.Date;
+
 @Entity
 public class Device {
     @Id private String gcmId;
@@ -28,6 +30,12 @@ public class Device {
     // Objectify doesn't support the JPA's @Column annotation
     @Index private String gPlusId;
 
+    /**
+     * Last time the device registered or was delivered a message, within a day. Devices
+     * registered before this was tracked don't have it, and are never considered idle.
+     */
+    @Index private Date lastActive;
+
     public String getGcmId() {
         return gcmId;
     }
@@ -43,4 +51,12 @@ public class Device {
     public void setGcmGroupId(String gcmGroupId) {
         this.gPlusId = gcmGroupId;
     }
+
+    public Date getLastActive() {
+        return lastActive;
+    }
+
+    public void setLastActive(Date lastActive) {
+        this.lastActive = lastActive;
+    }
 }
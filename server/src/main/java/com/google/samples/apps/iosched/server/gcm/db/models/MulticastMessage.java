@@ -19,7 +19,9 @@ package com.google.samples.apps.iosched.server.gcm.db.models;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
 
+import java.util.Date;
 import java.util.List;
 
 @Entity
@@ -28,6 +30,15 @@ public class MulticastMessage {
     private String action;
     private String extraData;
     private List<String> destinations;
+    @Index private Date created;
+    /** GCM topic the message is sent to instead of the destinations, or null. */
+    private String topic;
+    /** Whether the message is sent to all devices, and dispatched in the broadcast lane. */
+    private boolean broadcast;
+    /** Number of times the message was sent, see MessageSender. */
+    private int attempts;
+    /** Whether the message was given up on, with the destinations that were not notified. */
+    @Index private boolean deadLetter;
 
     public Key<MulticastMessage> getKey() {
         return Key.create(MulticastMessage.class, id);
@@ -61,4 +72,44 @@ public class MulticastMessage {
     public void setDestinations(List<String> destinations) {
         this.destinations = destinations;
     }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public boolean isBroadcast() {
+        return broadcast;
+    }
+
+    public void setBroadcast(boolean broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public boolean isDeadLetter() {
+        return deadLetter;
+    }
+
+    public void setDeadLetter(boolean deadLetter) {
+        this.deadLetter = deadLetter;
+    }
 }
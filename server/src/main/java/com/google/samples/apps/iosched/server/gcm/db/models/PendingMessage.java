@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.db.models;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.Date;
+
+/**
+ * Coalescing state of the messages sent with one action to one target, see MessageCoalescer.
+ */
+@Entity
+public class PendingMessage {
+    @Id private String id;
+    private String target;
+    private String action;
+    /** Extra data of the message waiting for the end of the window, if {@link #pending}. */
+    private String extraData;
+    /** Whether a message is waiting to be sent when the window ends. */
+    private boolean pending;
+    /** Number of requests merged into the pending message. */
+    private int coalesced;
+    /** Messages sent before this time are held back. Indexed to purge old states. */
+    @Index private Date windowEnd;
+
+    public static String createId(String target, String action) {
+        return action + ":" + target;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public String getExtraData() {
+        return extraData;
+    }
+
+    public void setExtraData(String extraData) {
+        this.extraData = extraData;
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
+
+    public int getCoalesced() {
+        return coalesced;
+    }
+
+    public void setCoalesced(int coalesced) {
+        this.coalesced = coalesced;
+    }
+
+    public Date getWindowEnd() {
+        return windowEnd;
+    }
+
+    public void setWindowEnd(Date windowEnd) {
+        this.windowEnd = windowEnd;
+    }
+}
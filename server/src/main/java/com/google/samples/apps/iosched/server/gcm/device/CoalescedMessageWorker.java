@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.samples.apps.iosched.server.gcm.BaseServlet;
+import com.google.samples.apps.iosched.server.gcm.db.models.PendingMessage;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that sends a message held back by {@link MessageCoalescer} when its window ends.
+ *
+ * <p>This class should not be called directly. Instead, it's used as a helper
+ * for the SendMessage task queue.
+ */
+@SuppressWarnings("serial")
+public class CoalescedMessageWorker extends BaseServlet {
+
+    private MessageSender mSender;
+    private MessageCoalescer mCoalescer;
+
+    public CoalescedMessageWorker() {
+    }
+
+    CoalescedMessageWorker(MessageSender sender, MessageCoalescer coalescer) {
+        mSender = sender;
+        mCoalescer = coalescer;
+    }
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        mSender = new MessageSender(config);
+        mCoalescer = new MessageCoalescer(config);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
+        PendingMessage msg = mCoalescer.startFlush(req.getParameter(MessageCoalescer.PARAM_ID));
+        if (msg != null) {
+            logger.info("Sending " + msg.getAction() + " to " + msg.getTarget() + ", coalesced "
+                    + msg.getCoalesced() + " requests");
+            // if this throws, the message is still pending and the task is retried
+            mSender.sendToTarget(msg.getTarget(), msg.getAction(), msg.getExtraData());
+            mCoalescer.finishFlush(msg);
+        }
+        resp.setStatus(200);
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletConfig;
+
+/**
+ * Spreads multicasts over time so that GCM is sent at most a configured number of messages per
+ * second, with a burst of one second's worth.
+ *
+ * <p>The budget is a token bucket shared by all instances through memcache. It is kept as the
+ * time at which the bucket will be full again, so a reservation is a single compare-and-set.
+ * Messages to users are sent right away and only use up budget, so they are never stuck
+ * behind a broadcast; broadcasts wait for the budget they need.
+ *
+ * <p>The budget is set by the {@value #BUDGET_PARAM} context parameter. 0 disables shaping.
+ */
+public class DispatchScheduler {
+
+    public static final String BUDGET_PARAM = "gcmMessagesPerSecond";
+
+    /** Dispatch lanes, by priority. */
+    public enum Lane {
+        /** Messages to one user or group. */
+        USER,
+        /** Messages to all devices. */
+        BROADCAST
+    }
+
+    private static final String FULL_AT_KEY = "fullAt";
+    private static final String SCHEDULED_KEY = "scheduled.";
+    private static final String SENT_KEY = "sent.";
+    private static final long BURST_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private static final MemcacheService CACHE =
+            MemcacheServiceFactory.getMemcacheService("DispatchScheduler");
+
+    private final int mMessagesPerSecond;
+
+    public DispatchScheduler(ServletConfig config) {
+        this(parseBudget(config.getServletContext().getInitParameter(BUDGET_PARAM)));
+    }
+
+    DispatchScheduler(int messagesPerSecond) {
+        mMessagesPerSecond = messagesPerSecond;
+    }
+
+    private static int parseBudget(String budget) {
+        return budget == null ? 0 : Integer.parseInt(budget);
+    }
+
+    /**
+     * Computes how long a multicast must wait for budget, without reserving it. Once the
+     * multicast is queued, the budget is reserved with {@link #reserve}.
+     *
+     * @param notBeforeMillis delay before which the multicast is not sent anyway, e.g. a retry
+     *     backoff
+     * @return the delay before the multicast is sent, at least notBeforeMillis. Messages to
+     *     users never wait for budget.
+     */
+    long quote(Lane lane, int messages, long notBeforeMillis) {
+        if (mMessagesPerSecond <= 0 || lane == Lane.USER) {
+            return notBeforeMillis;
+        }
+        long now = System.currentTimeMillis();
+        Long fullAt = (Long) CACHE.get(FULL_AT_KEY);
+        long[] reservation = reserve(fullAt == null ? now : fullAt, now + notBeforeMillis,
+                cost(messages), BURST_MILLIS);
+        return notBeforeMillis + reservation[0];
+    }
+
+    /**
+     * Reserves budget for a multicast that was queued to be sent after the given delay.
+     */
+    void reserve(Lane lane, int messages, long delayMillis) {
+        CACHE.increment(SCHEDULED_KEY + lane, messages, 0L);
+        if (mMessagesPerSecond <= 0) {
+            return;
+        }
+        long cost = cost(messages);
+        for (int i = 0; i < 5; i++) {
+            long sendAt = System.currentTimeMillis() + delayMillis;
+            IdentifiableValue fullAt = CACHE.getIdentifiable(FULL_AT_KEY);
+            if (fullAt == null) {
+                if (CACHE.put(FULL_AT_KEY, reserve(sendAt, sendAt, cost, BURST_MILLIS)[1], null,
+                        MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                    return;
+                }
+            } else if (CACHE.putIfUntouched(FULL_AT_KEY, fullAt,
+                    reserve((Long) fullAt.getValue(), sendAt, cost, BURST_MILLIS)[1])) {
+                return;
+            }
+        }
+        // under heavy contention, the budget is not reserved and broadcasts may burst a bit
+    }
+
+    private long cost(int messages) {
+        return messages * TimeUnit.SECONDS.toMillis(1) / mMessagesPerSecond;
+    }
+
+    /**
+     * Computes a reservation in the token bucket.
+     *
+     * @param fullAt time at which the bucket is full, i.e. all budget is used up
+     * @param sendAt time at which the messages would be sent without shaping
+     * @param cost time it takes to earn the budget needed
+     * @param burst time worth of budget that can be used at once
+     * @return the delay after sendAt before the budget is available, and the new value of fullAt
+     */
+    static long[] reserve(long fullAt, long sendAt, long cost, long burst) {
+        long start = Math.max(fullAt, sendAt);
+        long delay = Math.max(start - burst - sendAt, 0);
+        return new long[] {delay, start + cost};
+    }
+
+    /**
+     * Counts messages accepted by GCM, for {@link #getMetrics()}.
+     */
+    void recordSent(Lane lane, int messages) {
+        CACHE.increment(SENT_KEY + lane, messages, 0L);
+    }
+
+    /**
+     * @return messages scheduled and sent by lane since the counters were last evicted, and
+     *     the seconds of budget already reserved by waiting broadcasts
+     */
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+        for (Lane lane : Lane.values()) {
+            metrics.put(SCHEDULED_KEY + lane, valueOf(CACHE.get(SCHEDULED_KEY + lane)));
+            metrics.put(SENT_KEY + lane, valueOf(CACHE.get(SENT_KEY + lane)));
+        }
+        long backlog = valueOf(CACHE.get(FULL_AT_KEY)) - System.currentTimeMillis();
+        metrics.put("backlogSeconds", TimeUnit.MILLISECONDS.toSeconds(Math.max(backlog, 0)));
+        metrics.put("budgetPerSecond", (long) mMessagesPerSecond);
+        return metrics;
+    }
+
+    private static long valueOf(Object cached) {
+        return cached == null ? 0 : ((Number) cached).longValue();
+    }
+}
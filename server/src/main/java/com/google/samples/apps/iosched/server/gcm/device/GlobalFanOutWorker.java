@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.samples.apps.iosched.server.gcm.BaseServlet;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore.DeviceIdsPage;
+import com.google.samples.apps.iosched.server.gcm.device.DispatchScheduler.Lane;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that fans a global message out to all registered devices.
+ *
+ * <p>Each task reads a few pages of registration ids with a keys-only query, queues one
+ * multicast per page, then queues a task that continues from the Datastore cursor. Memory use
+ * is bounded by the page size, however many devices are registered.
+ *
+ * <p>This class should not be called directly. Instead, it's used as a helper
+ * for the GlobalFanOut task queue.
+ */
+@SuppressWarnings("serial")
+public class GlobalFanOutWorker extends BaseServlet {
+
+    /** Pages of {@link MessageSender#MAX_DEVICES} ids handled by each task. */
+    private static final int PAGES_PER_TASK = 5;
+
+    private MessageSender mSender;
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        mSender = new MessageSender(config);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
+        String fanOutId = req.getParameter(MessageSender.PARAM_FANOUT_ID);
+        int page = Integer.parseInt(req.getParameter(MessageSender.PARAM_PAGE));
+        String cursor = req.getParameter(MessageSender.PARAM_CURSOR);
+        String action = req.getParameter(MessageSender.PARAM_ACTION);
+        String extraData = req.getParameter(MessageSender.PARAM_EXTRA_DATA);
+
+        long delay = 0;
+        for (int i = 0; i < PAGES_PER_TASK; i++) {
+            DeviceIdsPage ids = DeviceStore.getDeviceIdsPage(cursor, MessageSender.MAX_DEVICES);
+            if (!ids.gcmIds.isEmpty()) {
+                delay = mSender.enqueueMulticasts(ids.gcmIds, action, extraData, Lane.BROADCAST,
+                        "multicast-" + fanOutId + "-" + page);
+            }
+            page++;
+            cursor = ids.nextCursor;
+            if (cursor == null) {
+                logger.info("Fan-out " + fanOutId + " done after " + page + " pages");
+                resp.setStatus(200);
+                return;
+            }
+        }
+        // continue when the last page is about to be sent, instead of reserving budget far ahead
+        mSender.enqueueFanOut(fanOutId, page, cursor, action, extraData, delay);
+        resp.setStatus(200);
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import static com.google.samples.apps.iosched.server.gcm.db.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.samples.apps.iosched.server.gcm.db.models.PendingMessage;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletConfig;
+
+/**
+ * Coalesces messages sent with the same action to the same target.
+ *
+ * <p>The first message sent to a target goes out immediately and opens a window. Messages sent
+ * during the window are merged into a single pending message, which is sent by a task when the
+ * window ends and opens a new window. So each target gets at most one message per action and
+ * window, however often e.g. the schedule updater pings it.
+ *
+ * <p>Only the sync pings in {@link #COALESCED_ACTIONS} are coalesced: they only tell clients to
+ * sync, so one ping per window is as good as many. Other actions, like announcements, carry
+ * their own content and are always sent.
+ *
+ * <p>The window is set by the {@value #WINDOW_PARAM} context parameter, in seconds. 0 disables
+ * coalescing.
+ */
+public class MessageCoalescer {
+
+    public static final String WINDOW_PARAM = "gcmCoalesceWindowSeconds";
+
+    static final String FLUSH_URL = "/queue/flush";
+    static final String PARAM_ID = "pendingId";
+
+    /** Actions whose messages are coalesced. */
+    static final Set<String> COALESCED_ACTIONS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("sync_schedule", "sync_user")));
+
+    private static final Logger LOG = Logger.getLogger(MessageCoalescer.class.getName());
+
+    private final long mWindowMillis;
+
+    public MessageCoalescer(ServletConfig config) {
+        this(parseWindowMillis(config.getServletContext().getInitParameter(WINDOW_PARAM)));
+    }
+
+    MessageCoalescer(long windowMillis) {
+        mWindowMillis = windowMillis;
+    }
+
+    private static long parseWindowMillis(String windowSeconds) {
+        return windowSeconds == null ? 0
+                : TimeUnit.SECONDS.toMillis(Long.parseLong(windowSeconds));
+    }
+
+    /**
+     * @return true if the message must be sent now; false if it was merged into a pending
+     *     message for the same target and action, which will be sent when the window ends
+     */
+    public boolean offer(final String target, final String action, final String extraData) {
+        if (mWindowMillis <= 0 || !COALESCED_ACTIONS.contains(action)) {
+            return true;
+        }
+        final String id = PendingMessage.createId(target, action);
+        return ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                long now = System.currentTimeMillis();
+                PendingMessage msg = ofy().load().type(PendingMessage.class).id(id).now();
+                if (msg == null || msg.getWindowEnd().getTime() <= now) {
+                    // no recent message, send right away and hold back the next ones
+                    msg = new PendingMessage();
+                    msg.setId(id);
+                    msg.setTarget(target);
+                    msg.setAction(action);
+                    msg.setWindowEnd(new Date(now + mWindowMillis));
+                    ofy().save().entity(msg);
+                    return true;
+                }
+                if (msg.isPending()) {
+                    msg.setExtraData(mergeExtraData(msg.getExtraData(), extraData));
+                    msg.setCoalesced(msg.getCoalesced() + 1);
+                } else {
+                    msg.setPending(true);
+                    msg.setExtraData(extraData);
+                    msg.setCoalesced(1);
+                    // added with the transaction, so the pending message cannot be left unsent
+                    QueueFactory.getQueue(MessageSender.MULTICAST_QUEUE).add(
+                            ofy().getTransaction(),
+                            TaskOptions.Builder.withUrl(FLUSH_URL)
+                                    .param(PARAM_ID, id)
+                                    .etaMillis(msg.getWindowEnd().getTime())
+                                    .method(TaskOptions.Method.POST));
+                }
+                ofy().save().entity(msg);
+                LOG.fine("Holding back " + action + " to " + target + " until "
+                        + msg.getWindowEnd());
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Starts sending the pending message: opens a new window, so that messages offered while it
+     * is sent are held back. The message stays pending until {@link #finishFlush}, so if the
+     * send fails, the retried flush task sends it again.
+     *
+     * @return a copy of the pending message to send now, or null if there is none
+     */
+    PendingMessage startFlush(final String id) {
+        return ofy().transact(new Work<PendingMessage>() {
+            @Override
+            public PendingMessage run() {
+                PendingMessage msg = ofy().load().type(PendingMessage.class).id(id).now();
+                if (msg == null || !msg.isPending()) {
+                    return null;
+                }
+                PendingMessage toSend = new PendingMessage();
+                toSend.setId(id);
+                toSend.setTarget(msg.getTarget());
+                toSend.setAction(msg.getAction());
+                toSend.setExtraData(msg.getExtraData());
+                toSend.setCoalesced(msg.getCoalesced());
+
+                msg.setWindowEnd(new Date(System.currentTimeMillis() + mWindowMillis));
+                ofy().save().entity(msg);
+                return toSend;
+            }
+        });
+    }
+
+    /**
+     * Marks the message returned by {@link #startFlush} as sent. Messages merged into it while
+     * it was sent stay pending, and a flush task is queued for them at the end of the window.
+     */
+    void finishFlush(final PendingMessage sent) {
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                PendingMessage msg = ofy().load().type(PendingMessage.class).id(sent.getId())
+                        .now();
+                if (msg == null || !msg.isPending()) {
+                    // a new window was opened by a message sent right away
+                    return;
+                }
+                if (msg.getCoalesced() == sent.getCoalesced()) {
+                    msg.setPending(false);
+                    msg.setExtraData(null);
+                    msg.setCoalesced(0);
+                } else {
+                    msg.setCoalesced(msg.getCoalesced() - sent.getCoalesced());
+                    QueueFactory.getQueue(MessageSender.MULTICAST_QUEUE).add(
+                            ofy().getTransaction(),
+                            TaskOptions.Builder.withUrl(FLUSH_URL)
+                                    .param(PARAM_ID, msg.getId())
+                                    .etaMillis(msg.getWindowEnd().getTime())
+                                    .method(TaskOptions.Method.POST));
+                }
+                ofy().save().entity(msg);
+            }
+        });
+    }
+
+    /**
+     * Merges the extra data of two messages. If both are JSON objects, the result has the
+     * properties of both, with the newer values winning. Otherwise the newer data supersedes
+     * the older one, unless it is empty.
+     */
+    static String mergeExtraData(String older, String newer) {
+        if (newer == null || newer.isEmpty()) {
+            return older;
+        }
+        if (older == null || older.isEmpty() || older.equals(newer)) {
+            return newer;
+        }
+        try {
+            JsonElement olderJson = new JsonParser().parse(older);
+            JsonElement newerJson = new JsonParser().parse(newer);
+            if (olderJson.isJsonObject() && newerJson.isJsonObject()) {
+                JsonObject merged = new JsonObject();
+                for (Map.Entry<String, JsonElement> e : olderJson.getAsJsonObject().entrySet()) {
+                    merged.add(e.getKey(), e.getValue());
+                }
+                for (Map.Entry<String, JsonElement> e : newerJson.getAsJsonObject().entrySet()) {
+                    merged.add(e.getKey(), e.getValue());
+                }
+                return merged.toString();
+            }
+        } catch (JsonParseException e) {
+            // not JSON, fall through
+        }
+        return newer;
+    }
+}
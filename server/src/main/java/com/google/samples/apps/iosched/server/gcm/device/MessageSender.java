@@ -19,17 +19,27 @@ package com.google.samples.apps.iosched.server.gcm.device;
 import com.google.samples.apps.iosched.server.gcm.db.ApiKeyInitializer;
 import com.google.samples.apps.iosched.server.gcm.db.MessageStore;
 import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
-import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore.RegistrationChanges;
 import com.google.samples.apps.iosched.server.gcm.db.models.MulticastMessage;
+import com.google.samples.apps.iosched.server.gcm.device.DispatchScheduler.Lane;
+import com.google.samples.apps.iosched.server.gcm.metrics.RequestMetrics;
 import com.google.android.gcm.server.*;
-import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
 import com.google.appengine.api.taskqueue.TaskOptions;
 
 import javax.servlet.ServletConfig;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,54 +48,260 @@ import java.util.logging.Logger;
  *
  * This class is responsible for communication with the GCM server for purposes of sending
  * messages.
- *
- * @return true if success, false if
  */
 public class MessageSender {
     private String mApiKey;
-    private Sender mGcmService;
+    private final RetryPolicy mRetryPolicy = new RetryPolicy(new Random());
 
     private static final int TTL = (int) TimeUnit.MINUTES.toSeconds(300);
     protected final Logger mLogger = Logger.getLogger(getClass().getName());
     /** Maximum devices in a multicast message */
-    private static final int MAX_DEVICES = 1000;
+    static final int MAX_DEVICES = 1000;
+    /**
+     * Maximum estimated size of a stored multicast, below the 1MB limit of Datastore entities.
+     * Registration ids are usually ~150 characters, but older ones can be much longer.
+     */
+    static final int MAX_MULTICAST_BYTES = 900 * 1024;
+    /** Estimated bytes stored per registration id, in addition to its characters. */
+    private static final int BYTES_PER_DESTINATION = 16;
+    /**
+     * Errors for which a registration id will never be valid again, so its device is removed
+     * like for {@link Constants#ERROR_NOT_REGISTERED}.
+     */
+    private static final Set<String> PERMANENT_ERRORS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList(Constants.ERROR_INVALID_REGISTRATION,
+                    Constants.ERROR_MISMATCH_SENDER_ID)));
+
+    /** Topic all devices subscribe to, used by the {@link #BROADCAST_MODE_TOPIC} mode. */
+    public static final String GLOBAL_TOPIC = "/topics/global";
+    /** Context parameter choosing how messages to all devices are sent. */
+    public static final String BROADCAST_MODE_PARAM = "gcmBroadcastMode";
+    /** Broadcasts are sent to each registered device, see {@link GlobalFanOutWorker}. */
+    public static final String BROADCAST_MODE_FANOUT = "fanout";
+    /** Broadcasts are a single message to {@link #GLOBAL_TOPIC}. */
+    public static final String BROADCAST_MODE_TOPIC = "topic";
+
+    /** Target of messages sent to all devices. */
+    public static final String GLOBAL_TARGET = "global";
+
+    static final String MULTICAST_QUEUE = "MulticastMessagesQueue";
+    static final String BROADCAST_QUEUE = "BroadcastMessagesQueue";
+    static final String FANOUT_QUEUE = "GlobalFanOutQueue";
+    static final String FANOUT_URL = "/queue/fanout";
+
+    static final String PARAM_FANOUT_ID = "fanOutId";
+    static final String PARAM_PAGE = "page";
+    static final String PARAM_CURSOR = "cursor";
+    static final String PARAM_ACTION = "action";
+    static final String PARAM_EXTRA_DATA = "extraData";
+
+    private final DispatchScheduler mScheduler;
+    private final boolean mTopicBroadcast;
 
     public MessageSender(ServletConfig config) {
-        mApiKey = (String) config.getServletContext().getAttribute(
-                ApiKeyInitializer.ATTRIBUTE_ACCESS_KEY);
-        mGcmService = new Sender(mApiKey);
-    }
-
-    public void multicastSend(List<Device> devices, String action, String extraData) {
-        Queue queue = QueueFactory.getQueue("MulticastMessagesQueue");
-
-        // Split messages into batches for multicast
-        // GCM limits maximum devices per multicast request. AppEngine also limits the size of
-        // lists stored in the datastore.
-        int total = devices.size();
-        List<String> partialDevices = new ArrayList<String>(total);
-        int counter = 0;
-        for (Device device : devices) {
-            counter ++;
-            partialDevices.add(device.getGcmId());
-            int partialSize = partialDevices.size();
-            if (partialSize == MAX_DEVICES || counter == total) {
-                // Send multicast message
-                Long multicastKey = MessageStore.createMulticast(partialDevices,
-                        action,
-                        extraData);
-                mLogger.fine("Queuing " + partialSize + " devices on multicast " + multicastKey);
-                TaskOptions taskOptions = TaskOptions.Builder
-                        .withUrl("/queue/send")
-                        .param("multicastKey", Long.toString(multicastKey))
-                        .method(TaskOptions.Method.POST);
-                queue.add(taskOptions);
-                partialDevices.clear();
+        this((String) config.getServletContext().getAttribute(
+                        ApiKeyInitializer.ATTRIBUTE_ACCESS_KEY),
+                new DispatchScheduler(config),
+                BROADCAST_MODE_TOPIC.equals(
+                        config.getServletContext().getInitParameter(BROADCAST_MODE_PARAM)));
+    }
+
+    MessageSender(String apiKey, DispatchScheduler scheduler, boolean topicBroadcast) {
+        mApiKey = apiKey;
+        mScheduler = scheduler;
+        mTopicBroadcast = topicBroadcast;
+    }
+
+    public void multicastSend(List<String> gcmIds, String action, String extraData) {
+        enqueueMulticasts(gcmIds, action, extraData, Lane.USER, null);
+        mLogger.fine("Queued message to " + gcmIds.size() + " devices");
+    }
+
+    /**
+     * Splits registration ids into batches for multicast.
+     *
+     * <p>GCM limits maximum devices per multicast request. AppEngine also limits the size of
+     * entities stored in the datastore, so batches are also cut when the estimated size of the
+     * stored multicast reaches {@link #MAX_MULTICAST_BYTES}.
+     */
+    static List<List<String>> batchBySize(List<String> gcmIds, String action,
+            String extraData) {
+        int fixedBytes = length(action) + length(extraData);
+        List<List<String>> batches = new ArrayList<List<String>>();
+        List<String> batch = new ArrayList<String>();
+        int batchBytes = fixedBytes;
+        for (String gcmId : gcmIds) {
+            int bytes = gcmId.length() + BYTES_PER_DESTINATION;
+            if (!batch.isEmpty()
+                    && (batch.size() == MAX_DEVICES || batchBytes + bytes > MAX_MULTICAST_BYTES)) {
+                batches.add(batch);
+                batch = new ArrayList<String>();
+                batchBytes = fixedBytes;
             }
+            batch.add(gcmId);
+            batchBytes += bytes;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /**
+     * Queues multicasts for any number of registration ids, see {@link #batchBySize}.
+     *
+     * @param taskName prefix of the names of the send tasks, or null
+     * @return the delay before the last multicast is sent
+     */
+    long enqueueMulticasts(List<String> gcmIds, String action, String extraData, Lane lane,
+            String taskName) {
+        long delay = 0;
+        List<List<String>> batches = batchBySize(gcmIds, action, extraData);
+        for (int i = 0; i < batches.size(); i++) {
+            delay = enqueueMulticast(batches.get(i), action, extraData, lane,
+                    taskName == null ? null : taskName + "-" + i);
         }
-        mLogger.fine("Queued message to " + total + " devices");
+        return delay;
     }
 
+    /**
+     * Sends a message to all devices of a GCM group, or to all devices if the target is
+     * {@link #GLOBAL_TARGET}.
+     */
+    void sendToTarget(String target, String action, String extraData) {
+        if (GLOBAL_TARGET.equals(target)) {
+            globalSend(action, extraData);
+            return;
+        }
+        List<String> devices = DeviceStore.findDeviceIdsByGcmGroupId(target);
+        if (devices.isEmpty()) {
+            mLogger.info("No devices for target " + target);
+            return;
+        }
+        multicastSend(devices, action, extraData);
+    }
+
+    /**
+     * Sends a message to all registered devices.
+     *
+     * <p>In the {@link #BROADCAST_MODE_TOPIC} mode, this is a single message to
+     * {@link #GLOBAL_TOPIC}. Otherwise devices are not read here: the first task of a
+     * {@link GlobalFanOutWorker} chain is queued, which pages through the registration ids and
+     * queues the multicasts as it goes.
+     */
+    public void globalSend(String action, String extraData) {
+        if (mTopicBroadcast) {
+            Long multicastKey = MessageStore.createTopicMessage(GLOBAL_TOPIC, action, extraData);
+            mLogger.info("Queuing " + action + " to " + GLOBAL_TOPIC + " on multicast "
+                    + multicastKey);
+            long delay = mScheduler.quote(Lane.BROADCAST, 1, 0);
+            queueSendTask(multicastKey, Lane.BROADCAST, null, delay);
+            mScheduler.reserve(Lane.BROADCAST, 1, delay);
+            return;
+        }
+        String fanOutId = UUID.randomUUID().toString();
+        mLogger.info("Starting global fan-out " + fanOutId + " (action=" + action + ")");
+        enqueueFanOut(fanOutId, 0, null, action, extraData, 0);
+    }
+
+    /**
+     * Queues the fan-out task that continues at the given page.
+     *
+     * <p>Tasks are named after the fan-out and the page, so if a task is retried after it
+     * already queued its successor, the successor is not queued twice.
+     *
+     * @param countdownMillis delay before the task runs, so that the fan-out does not run too
+     *     far ahead of the multicasts it queued
+     */
+    void enqueueFanOut(String fanOutId, int page, String cursor, String action,
+            String extraData, long countdownMillis) {
+        TaskOptions taskOptions = TaskOptions.Builder
+                .withUrl(FANOUT_URL)
+                .countdownMillis(countdownMillis)
+                .taskName("fanout-" + fanOutId + "-" + page)
+                .param(PARAM_FANOUT_ID, fanOutId)
+                .param(PARAM_PAGE, Integer.toString(page))
+                .param(PARAM_ACTION, action)
+                .method(TaskOptions.Method.POST);
+        if (cursor != null) {
+            taskOptions.param(PARAM_CURSOR, cursor);
+        }
+        if (extraData != null) {
+            taskOptions.param(PARAM_EXTRA_DATA, extraData);
+        }
+        try {
+            QueueFactory.getQueue(FANOUT_QUEUE).add(taskOptions);
+        } catch (TaskAlreadyExistsException e) {
+            mLogger.fine("Fan-out " + fanOutId + " page " + page + " already queued");
+        }
+    }
+
+    /**
+     * Stores a multicast for one batch of registration ids and queues the task that sends it,
+     * when the {@link DispatchScheduler} budget allows.
+     *
+     * @param taskName name of the send task, or null. A named task is queued at most once, so
+     *     a retried fan-out task does not send the same page twice.
+     * @return the delay before the multicast is sent
+     */
+    private long enqueueMulticast(List<String> gcmIds, String action, String extraData, Lane lane,
+            String taskName) {
+        Long multicastKey = MessageStore.createMulticast(gcmIds, action, extraData,
+                lane == Lane.BROADCAST);
+        long delay = mScheduler.quote(lane, gcmIds.size(), 0);
+        mLogger.fine("Queuing " + gcmIds.size() + " devices on multicast " + multicastKey
+                + " in " + delay + "ms");
+        try {
+            queueSendTask(multicastKey, lane, taskName, delay);
+            // reserved only once queued, so a duplicate task does not use up budget
+            mScheduler.reserve(lane, gcmIds.size(), delay);
+        } catch (TaskAlreadyExistsException e) {
+            // this page was queued by an earlier attempt, drop the duplicate record
+            mLogger.fine("Task " + taskName + " already queued");
+            MessageStore.deleteMulticast(multicastKey);
+        }
+        return delay;
+    }
+
+    private void queueSendTask(Long multicastKey, Lane lane, String taskName,
+            long countdownMillis) {
+        TaskOptions taskOptions = TaskOptions.Builder
+                .withUrl("/queue/send")
+                .param("multicastKey", Long.toString(multicastKey))
+                .method(TaskOptions.Method.POST);
+        if (taskName != null) {
+            taskOptions.taskName(taskName);
+        }
+        if (countdownMillis > 0) {
+            taskOptions.countdownMillis(countdownMillis);
+        }
+        // each lane has its own queue, so broadcasts never hold back messages to users
+        QueueFactory.getQueue(lane == Lane.BROADCAST ? BROADCAST_QUEUE : MULTICAST_QUEUE)
+                .add(taskOptions);
+    }
+
+    /**
+     * @return the sender used for one message, see {@link RetryAfterSender}
+     */
+    RetryAfterSender newGcmSender() {
+        return new RetryAfterSender(mApiKey);
+    }
+
+    private static Lane laneOf(MulticastMessage msg) {
+        return msg.isBroadcast() ? Lane.BROADCAST : Lane.USER;
+    }
+
+    /**
+     * Sends a stored multicast. Devices that GCM reports as unavailable are retried later by a
+     * new task, see {@link RetryPolicy}.
+     *
+     * @return true if the multicast is finished and its record can be deleted, false if the
+     *     record is kept for a scheduled retry or as a dead letter
+     */
     boolean sendMessage(Long multicastId) {
         MulticastMessage msg = MessageStore.getMulticast(multicastId);
         List<String> devices = msg.getDestinations();
@@ -99,64 +315,174 @@ public class MessageSender {
                     .addData("extraData", msg.getExtraData())
                     .timeToLive(TTL);
         Message message = builder.build();
+        RetryAfterSender gcmService = newGcmSender();
+        if (msg.getTopic() != null) {
+            return sendToTopic(msg, message, gcmService);
+        }
         MulticastResult multicastResult = null;
         try {
             // We occasionally see null messages. (Maybe due to squelch?)
             // We should these from entering the send queue in the first place. In the meantime,
             // here's a hack to prevent this.
             if (devices != null) {
-                multicastResult = mGcmService.sendNoRetry(message, devices);
+                multicastResult = gcmService.sendNoRetry(message, devices);
                 mLogger.info("Result: " + multicastResult);
+                if (multicastResult == null) {
+                    // GCM could not be reached, or its response could not be read
+                    mLogger.warning("No result from GCM for multicast " + multicastId);
+                    RequestMetrics.countGcmResult(RequestMetrics.GCM_UNAVAILABLE, devices.size());
+                    scheduleRetry(msg, devices, gcmService.getRetryAfter());
+                    return false;
+                }
+                mScheduler.recordSent(laneOf(msg), multicastResult.getSuccess());
             } else {
                 mLogger.info("Null device list detected. Aborting.");
                 return true;
             }
-        } catch (IOException e) {
+        } catch (InvalidRequestException e) {
+            if (e.getHttpStatusCode() >= 500) {
+                // GCM is unavailable for the whole request
+                mLogger.warning("GCM returned " + e.getHttpStatusCode() + " for multicast "
+                        + multicastId);
+                RequestMetrics.countGcmResult(RequestMetrics.GCM_UNAVAILABLE, devices.size());
+                scheduleRetry(msg, devices, gcmService.getRetryAfter());
+                return false;
+            }
             mLogger.log(Level.SEVERE, "Exception posting " + message, e);
             return true;
+        } catch (IOException e) {
+            mLogger.log(Level.WARNING, "Exception posting multicast " + multicastId, e);
+            RequestMetrics.countGcmResult(RequestMetrics.GCM_UNAVAILABLE, devices.size());
+            scheduleRetry(msg, devices, gcmService.getRetryAfter());
+            return false;
         }
-        boolean allDone = true;
-        // check if any registration id must be updated
-        if (multicastResult.getCanonicalIds() != 0) {
-            List<Result> results = multicastResult.getResults();
-            for (int i = 0; i < results.size(); i++) {
-                String canonicalRegId = results.get(i).getCanonicalRegistrationId();
-                if (canonicalRegId != null) {
-                    String regId = devices.get(i);
-                    DeviceStore.updateRegistration(regId, canonicalRegId);
-                }
+        // collect the registration ids that must be updated or removed, and apply them in batch
+        Map<String, String> canonicalRegIds = new HashMap<String, String>();
+        List<String> unregisteredRegIds = new ArrayList<String>();
+        List<String> invalidRegIds = new ArrayList<String>();
+        List<String> retriableRegIds = new ArrayList<String>();
+        List<String> deliveredRegIds = new ArrayList<String>(devices.size());
+        List<Result> results = multicastResult.getResults();
+        for (int i = 0; i < results.size(); i++) {
+            String regId = devices.get(i);
+            String canonicalRegId = results.get(i).getCanonicalRegistrationId();
+            if (canonicalRegId != null) {
+                canonicalRegIds.put(regId, canonicalRegId);
+            } else if (results.get(i).getMessageId() != null) {
+                deliveredRegIds.add(regId);
             }
-        }
-        if (multicastResult.getFailure() != 0) {
-            // there were failures, check if any could be retried
-            List<Result> results = multicastResult.getResults();
-            List<String> retriableRegIds = new ArrayList<String>();
-            for (int i = 0; i < results.size(); i++) {
-                String error = results.get(i).getErrorCodeName();
-                if (error != null) {
-                    String regId = devices.get(i);
-                    mLogger.warning("Got error (" + error + ") for regId " + regId);
-                    if (error.equals(Constants.ERROR_NOT_REGISTERED)) {
-                        // application has been removed from device - unregister it
-                        DeviceStore.unregister(regId);
-                    }
-                    if (error.equals(Constants.ERROR_UNAVAILABLE)) {
-                        retriableRegIds.add(regId);
-                    }
+            String error = results.get(i).getErrorCodeName();
+            if (error != null) {
+                mLogger.fine("Got error (" + error + ") for regId " + regId);
+                if (error.equals(Constants.ERROR_NOT_REGISTERED)) {
+                    // application has been removed from device - unregister it
+                    unregisteredRegIds.add(regId);
+                } else if (PERMANENT_ERRORS.contains(error)) {
+                    // the registration id can never be sent to, so remove it as well
+                    invalidRegIds.add(regId);
+                }
+                if (error.equals(Constants.ERROR_UNAVAILABLE)) {
+                    retriableRegIds.add(regId);
                 }
             }
+        }
+        if (!canonicalRegIds.isEmpty() || !unregisteredRegIds.isEmpty()
+                || !invalidRegIds.isEmpty()) {
+            List<String> removedRegIds = new ArrayList<String>(unregisteredRegIds);
+            removedRegIds.addAll(invalidRegIds);
+            RegistrationChanges changes = DeviceStore.applyRegistrationChanges(canonicalRegIds,
+                    removedRegIds);
+            mLogger.info("Multicast " + multicastId + ": " + changes);
+        }
+        // keeps the devices from being pruned by the vacuum cron
+        DeviceStore.recordDeliveries(deliveredRegIds);
+
+        int failures = multicastResult.getFailure();
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_SUCCESS, multicastResult.getSuccess());
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_CANONICAL, canonicalRegIds.size());
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_NOT_REGISTERED,
+                unregisteredRegIds.size());
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_UNAVAILABLE, retriableRegIds.size());
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_OTHER_ERROR,
+                failures - unregisteredRegIds.size() - retriableRegIds.size());
+        if (failures != 0) {
+            mLogger.warning("Multicast " + multicastId + ": " + failures
+                    + " failures, " + retriableRegIds.size() + " retriable");
             if (!retriableRegIds.isEmpty()) {
-                // update task
-                MessageStore.updateMulticast(multicastId, retriableRegIds);
-                allDone = false;
+                scheduleRetry(msg, retriableRegIds, gcmService.getRetryAfter());
                 return false;
             }
         }
-        if (allDone) {
+        return true;
+    }
+
+    /**
+     * Sends a stored message to its topic. GCM fans it out to the subscribed devices, so there
+     * are no per-device results to process.
+     *
+     * @return true if the message is finished and its record can be deleted
+     */
+    private boolean sendToTopic(MulticastMessage msg, Message message,
+            RetryAfterSender gcmService) {
+        Result result;
+        try {
+            result = gcmService.sendNoRetry(message, msg.getTopic());
+        } catch (InvalidRequestException e) {
+            if (e.getHttpStatusCode() >= 500) {
+                RequestMetrics.countGcmResult(RequestMetrics.GCM_UNAVAILABLE, 1);
+                scheduleRetry(msg, Collections.<String>emptyList(), gcmService.getRetryAfter());
+                return false;
+            }
+            mLogger.log(Level.SEVERE, "Exception posting " + message, e);
             return true;
-        } else {
+        } catch (IOException e) {
+            mLogger.log(Level.WARNING, "Exception posting topic message " + msg.getId(), e);
+            RequestMetrics.countGcmResult(RequestMetrics.GCM_UNAVAILABLE, 1);
+            scheduleRetry(msg, Collections.<String>emptyList(), gcmService.getRetryAfter());
+            return false;
+        }
+        mLogger.info("Result for " + msg.getTopic() + ": " + result);
+        // no result means GCM could not be reached, or its response could not be read
+        String error = result == null ? Constants.ERROR_UNAVAILABLE : result.getErrorCodeName();
+        if (Constants.ERROR_UNAVAILABLE.equals(error)
+                || Constants.ERROR_INTERNAL_SERVER_ERROR.equals(error)) {
+            RequestMetrics.countGcmResult(RequestMetrics.GCM_UNAVAILABLE, 1);
+            scheduleRetry(msg, Collections.<String>emptyList(), gcmService.getRetryAfter());
             return false;
         }
+        if (result.getMessageId() != null) {
+            mScheduler.recordSent(laneOf(msg), 1);
+            RequestMetrics.countGcmResult(RequestMetrics.GCM_SUCCESS, 1);
+        } else {
+            RequestMetrics.countGcmResult(RequestMetrics.GCM_OTHER_ERROR, 1);
+        }
+        return true;
+    }
+
+    /**
+     * Keeps only the given devices in the multicast and queues a task to send it again after a
+     * jittered exponential delay, or dead-letters it once it has been tried too many times.
+     *
+     * @param retryAfter Retry-After header of the GCM response, or null
+     */
+    private void scheduleRetry(MulticastMessage msg, List<String> devices,
+            String retryAfter) {
+        int attempts = msg.getAttempts() + 1;
+        if (!mRetryPolicy.shouldRetry(attempts)) {
+            mLogger.severe("Giving up on " + devices.size() + " devices of multicast "
+                    + msg.getId() + " after " + attempts + " attempts");
+            MessageStore.deadLetterMulticast(msg, devices, attempts);
+            return;
+        }
+        long delay = mRetryPolicy.nextDelayMillis(attempts,
+                RetryPolicy.parseRetryAfter(retryAfter, System.currentTimeMillis()));
+        // budget is needed when the retry is sent, not now
+        delay = mScheduler.quote(laneOf(msg), devices.size(), delay);
+        mLogger.info("Retrying " + devices.size() + " devices of multicast " + msg.getId()
+                + " in " + delay + "ms (attempt " + (attempts + 1) + ")");
+        MessageStore.updateMulticast(msg, devices, attempts);
+        queueSendTask(msg.getId(), laneOf(msg), null, delay);
+        mScheduler.reserve(laneOf(msg), devices.size(), delay);
     }
 
 }
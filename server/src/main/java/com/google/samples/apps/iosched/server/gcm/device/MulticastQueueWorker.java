@@ -34,6 +34,13 @@ public class MulticastQueueWorker extends BaseServlet {
 
     private MessageSender mSender;
 
+    public MulticastQueueWorker() {
+    }
+
+    MulticastQueueWorker(MessageSender sender) {
+        mSender = sender;
+    }
+
     @Override
     public void init(ServletConfig config) throws ServletException {
         super.init(config);
@@ -50,17 +57,11 @@ public class MulticastQueueWorker extends BaseServlet {
         if (success) {
             taskDone(resp, multicastId);
         } else {
-            retryTask(resp);
+            // the record is kept for a retry task queued by the sender, or as a dead letter
+            resp.setStatus(200);
         }
     }
 
-    /**
-     * Indicates to App Engine that this task should be retried.
-     */
-    private void retryTask(HttpServletResponse resp) {
-        resp.setStatus(500);
-    }
-
     /**
      * Indicates to App Engine that this task is done.
      */
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import com.google.android.gcm.server.Sender;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * {@link Sender} that keeps the Retry-After header of the last GCM response, which
+ * {@link Sender} reads but does not expose.
+ *
+ * <p>Instances are not thread safe, so a new one is used for each message.
+ */
+class RetryAfterSender extends Sender {
+
+    private String mRetryAfter;
+
+    RetryAfterSender(String apiKey) {
+        super(apiKey);
+    }
+
+    @Override
+    protected HttpURLConnection post(String url, String contentType, String body)
+            throws IOException {
+        HttpURLConnection conn = super.post(url, contentType, body);
+        mRetryAfter = conn.getHeaderField("Retry-After");
+        return conn;
+    }
+
+    /**
+     * @return the Retry-After header of the last response, or null if there was none
+     */
+    String getRetryAfter() {
+        return mRetryAfter;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when multicasts to unavailable devices are retried.
+ *
+ * <p>Delays grow exponentially with the attempt number and are jittered, so the retries of a
+ * large fan-out are spread out instead of hitting GCM all at once. A Retry-After sent by GCM is
+ * a lower bound for the delay.
+ */
+class RetryPolicy {
+
+    /** Attempts after which the remaining devices are given up on. */
+    static final int MAX_ATTEMPTS = 6;
+
+    static final long INITIAL_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    static final long MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final Random mRandom;
+
+    RetryPolicy(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * @param attempts number of attempts made so far, at least 1
+     * @return whether another attempt should be made
+     */
+    boolean shouldRetry(int attempts) {
+        return attempts < MAX_ATTEMPTS;
+    }
+
+    /**
+     * @param attempts number of attempts made so far, at least 1
+     * @param retryAfterMillis delay requested by GCM, or -1 if there was none
+     * @return delay before the next attempt, between half and all of the exponential delay for
+     *     this attempt, and at least retryAfterMillis
+     */
+    long nextDelayMillis(int attempts, long retryAfterMillis) {
+        long delay = INITIAL_DELAY_MILLIS << Math.min(Math.max(attempts - 1, 0), 20);
+        delay = Math.min(delay, MAX_DELAY_MILLIS);
+        long jittered = delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+        return Math.max(jittered, retryAfterMillis);
+    }
+
+    /**
+     * Parses a Retry-After header, which is either a number of seconds or an HTTP date.
+     *
+     * @param header the header value, possibly null
+     * @param nowMillis current time, to convert dates to delays
+     * @return the delay in milliseconds, or -1 if the header is missing or invalid
+     */
+    static long parseRetryAfter(String header, long nowMillis) {
+        if (header == null) {
+            return -1;
+        }
+        header = header.trim();
+        try {
+            return Math.max(TimeUnit.SECONDS.toMillis(Long.parseLong(header)), 0);
+        } catch (NumberFormatException e) {
+            // not a number of seconds, try an HTTP date
+        }
+        SimpleDateFormat format =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        try {
+            return Math.max(format.parse(header).getTime() - nowMillis, 0);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.metrics;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.ApiConfig;
+import com.google.apphosting.api.ApiProxy.ApiProxyException;
+import com.google.apphosting.api.ApiProxy.Delegate;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.apphosting.api.ApiProxy.LogRecord;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * {@link Delegate} that counts the Datastore calls made by each endpoint, see
+ * {@link RequestMetrics}, and passes all calls on to the original delegate.
+ */
+public class ApiCallCounter implements Delegate<Environment> {
+
+    private static final String DATASTORE_PACKAGE = "datastore_v3";
+
+    private final Delegate<Environment> mDelegate;
+
+    private ApiCallCounter(Delegate<Environment> delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Wraps the current delegate, unless it is already wrapped.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized void install() {
+        Delegate<Environment> delegate = ApiProxy.getDelegate();
+        if (delegate != null && !(delegate instanceof ApiCallCounter)) {
+            ApiProxy.setDelegate(new ApiCallCounter(delegate));
+        }
+    }
+
+    private static void count(String packageName, String methodName) {
+        if (DATASTORE_PACKAGE.equals(packageName)) {
+            RequestMetrics.countDatastoreCall(methodName);
+        }
+    }
+
+    @Override
+    public byte[] makeSyncCall(Environment environment, String packageName, String methodName,
+            byte[] request) throws ApiProxyException {
+        count(packageName, methodName);
+        return mDelegate.makeSyncCall(environment, packageName, methodName, request);
+    }
+
+    @Override
+    public Future<byte[]> makeAsyncCall(Environment environment, String packageName,
+            String methodName, byte[] request, ApiConfig apiConfig) {
+        count(packageName, methodName);
+        return mDelegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+    }
+
+    @Override
+    public void log(Environment environment, LogRecord record) {
+        mDelegate.log(environment, record);
+    }
+
+    @Override
+    public void flushLogs(Environment environment) {
+        mDelegate.flushLogs(environment);
+    }
+
+    @Override
+    public List<Thread> getRequestThreads(Environment environment) {
+        return mDelegate.getRequestThreads(environment);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.metrics;
+
+/**
+ * Fixed buckets for request latencies, and percentile estimates from bucket counts.
+ */
+public final class LatencyHistogram {
+
+    /** Upper bound of each bucket, in milliseconds. The last bucket is unbounded. */
+    static final long[] BUCKET_BOUNDS_MILLIS = {
+            5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, Long.MAX_VALUE};
+
+    private LatencyHistogram() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the index of the bucket for a latency
+     */
+    static int bucketOf(long millis) {
+        int bucket = 0;
+        while (millis > BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * @return the name of a bucket, e.g. "le_250ms"
+     */
+    static String bucketName(int bucket) {
+        long bound = BUCKET_BOUNDS_MILLIS[bucket];
+        return bound == Long.MAX_VALUE ? "le_inf" : "le_" + bound + "ms";
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket it falls in.
+     *
+     * @param counts number of requests in each bucket
+     * @param fraction e.g. 0.99 for the 99th percentile
+     * @return the estimate in milliseconds, -1 if it falls in the unbounded bucket or there
+     *     are no requests
+     */
+    static long percentile(long[] counts, double fraction) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return BUCKET_BOUNDS_MILLIS[i] == Long.MAX_VALUE ? -1 : BUCKET_BOUNDS_MILLIS[i];
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.samples.apps.iosched.server.gcm.metrics;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters for the GCM servlets: request latencies and statuses by endpoint, Datastore calls
+ * by endpoint, and GCM results.
+ *
+ * <p>Counters are named with dot-separated paths, e.g. "SendMessageServlet.latency.le_50ms",
+ * and exported as the matching nested JSON objects. They are kept in memory and added to
+ * shared memcache counters every {@link #FLUSH_INTERVAL_MILLIS}, so recording costs no RPC and
+ * the export covers all instances. Counters start over when memcache evicts them.
+ */
+public final class RequestMetrics {
+    private static final Logger LOG = Logger.getLogger(RequestMetrics.class.getName());
+
+    static final String LATENCY = "latency";
+    static final String STATUS = "status";
+    static final String DATASTORE = "datastore";
+
+    /** GCM results, see {@link #countGcmResult(String, long)}. */
+    public static final String GCM_SUCCESS = "success";
+    public static final String GCM_CANONICAL = "canonical";
+    public static final String GCM_NOT_REGISTERED = "notRegistered";
+    public static final String GCM_UNAVAILABLE = "unavailable";
+    public static final String GCM_OTHER_ERROR = "otherError";
+
+    private static final long FLUSH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final String NAMES_KEY = "names";
+
+    private static final MemcacheService CACHE =
+            MemcacheServiceFactory.getMemcacheService("RequestMetrics");
+
+    private static final ThreadLocal<String> ENDPOINT = new ThreadLocal<String>();
+
+    /**
+     * Counts recorded since the last flush. A flush takes each count with getAndSet(0) rather
+     * than swapping the map, so a count recorded while it runs is never lost: it is either
+     * taken or left for the next flush.
+     */
+    private static final ConcurrentMap<String, AtomicLong> sPending =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private static final AtomicLong sLastFlush = new AtomicLong(System.currentTimeMillis());
+
+    private RequestMetrics() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Sets the endpoint that API calls made by the current thread are counted for.
+     */
+    public static void setEndpoint(String endpoint) {
+        ENDPOINT.set(endpoint);
+    }
+
+    public static void clearEndpoint() {
+        ENDPOINT.remove();
+    }
+
+    public static void recordRequest(String endpoint, long millis, int status) {
+        count(endpoint + "." + LATENCY + "."
+                + LatencyHistogram.bucketName(LatencyHistogram.bucketOf(millis)), 1);
+        count(endpoint + "." + STATUS + "." + (status / 100) + "xx", 1);
+    }
+
+    /**
+     * Counts a Datastore call for the endpoint handled by the current thread.
+     */
+    static void countDatastoreCall(String method) {
+        String endpoint = ENDPOINT.get();
+        count((endpoint == null ? "other" : endpoint) + "." + DATASTORE + "." + method, 1);
+    }
+
+    /**
+     * Counts GCM results of one kind, e.g. {@link #GCM_SUCCESS}.
+     */
+    public static void countGcmResult(String result, long count) {
+        if (count > 0) {
+            count("gcm.results." + result, count);
+        }
+    }
+
+    static void count(String name, long delta) {
+        AtomicLong counter = sPending.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = sPending.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Adds the counts recorded by this instance to the shared counters, at most every
+     * {@link #FLUSH_INTERVAL_MILLIS}. Called at the end of requests.
+     */
+    public static void maybeFlush() {
+        long now = System.currentTimeMillis();
+        long lastFlush = sLastFlush.get();
+        // only one of the requests ending at the same time flushes
+        if (now - lastFlush >= FLUSH_INTERVAL_MILLIS && sLastFlush.compareAndSet(lastFlush, now)) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds the counts recorded by this instance to the shared counters now.
+     */
+    public static void flush() {
+        Map<String, Long> deltas = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : sPending.entrySet()) {
+            long delta = entry.getValue().getAndSet(0);
+            if (delta != 0) {
+                deltas.put(entry.getKey(), delta);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            registerNames(deltas.keySet());
+            CACHE.incrementAll(deltas, 0L);
+        } catch (RuntimeException e) {
+            // metrics must never fail a request
+            LOG.log(Level.WARNING, "Could not flush metrics", e);
+        }
+    }
+
+    /**
+     * Adds new counter names to the shared set of names, which the export reads. The set is
+     * read on every flush, as memcache may have evicted it since the names were added.
+     */
+    @SuppressWarnings("unchecked")
+    private static void registerNames(Set<String> names) {
+        for (int i = 0; i < 5; i++) {
+            IdentifiableValue cached = CACHE.getIdentifiable(NAMES_KEY);
+            HashSet<String> all = new HashSet<String>();
+            if (cached != null) {
+                all.addAll((Set<String>) cached.getValue());
+                if (all.containsAll(names)) {
+                    return;
+                }
+            }
+            all.addAll(names);
+            boolean saved = cached == null
+                    ? CACHE.put(NAMES_KEY, all, null,
+                            MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)
+                    : CACHE.putIfUntouched(NAMES_KEY, cached, all);
+            if (saved) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return all shared counters as nested JSON objects, with p50, p90 and p99 estimates
+     *     added to each latency histogram
+     */
+    @SuppressWarnings("unchecked")
+    public static JsonObject export() {
+        Set<String> names = (Set<String>) CACHE.get(NAMES_KEY);
+        Map<String, Object> values = names == null
+                ? new HashMap<String, Object>() : CACHE.getAll(names);
+        JsonObject root = new JsonObject();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String[] path = entry.getKey().split("\\.");
+            JsonObject parent = root;
+            for (int i = 0; i < path.length - 1; i++) {
+                JsonElement child = parent.get(path[i]);
+                if (child == null) {
+                    child = new JsonObject();
+                    parent.add(path[i], child);
+                }
+                parent = child.getAsJsonObject();
+            }
+            parent.add(path[path.length - 1],
+                    new JsonPrimitive(((Number) entry.getValue()).longValue()));
+        }
+        for (Map.Entry<String, JsonElement> endpoint : root.entrySet()) {
+            JsonElement latency = endpoint.getValue().getAsJsonObject().get(LATENCY);
+            if (latency != null) {
+                addPercentiles(latency.getAsJsonObject());
+            }
+        }
+        return root;
+    }
+
+    private static void addPercentiles(JsonObject histogram) {
+        long[] counts = new long[LatencyHistogram.BUCKET_BOUNDS_MILLIS.length];
+        for (int i = 0; i < counts.length; i++) {
+            JsonElement count = histogram.get(LatencyHistogram.bucketName(i));
+            counts[i] = count == null ? 0 : count.getAsLong();
+        }
+        histogram.addProperty("p50", LatencyHistogram.percentile(counts, 0.5));
+        histogram.addProperty("p90", LatencyHistogram.percentile(counts, 0.9));
+        histogram.addProperty("p99", LatencyHistogram.percentile(counts, 0.99));
+    }
+}
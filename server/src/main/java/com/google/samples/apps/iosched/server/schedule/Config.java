@@ -42,6 +42,9 @@ public interface Config {
   public final Pattern SESSIONS_PATTERN = Pattern.compile("session_data_v(\\d+)\\.(\\d+)\\.json");
   public final String SESSIONS_FORMAT = "session_data_v{0,number,integer}.{1,number,integer}.json";
   public final String MANIFEST_FORMAT_VERSION = "iosched-json-v1";
+  // Delta from the previous session file to the one with the given version, listed in the
+  // manifest under "delta_files" so that clients unaware of deltas ignore it.
+  public final String SESSIONS_DELTA_FORMAT = "session_data_delta_v{0,number,integer}.{1,number,integer}.json";
 
   /**
    * The manifest version is used to name the manifest file (manifest_v{version}.json) and as
@@ -52,6 +55,15 @@ public interface Config {
   public final String MANIFEST_NAME = "manifest_v"+MANIFEST_VERSION+".json";
   public final String MANIFEST_NAME_STAGING = "manifest_v"+MANIFEST_VERSION+"__qa_.json";
 
+  // Maximum number of data sources fetched concurrently by the updater, and how long to wait
+  // for each one of them before giving up on the run.
+  public final int FETCH_MAX_CONCURRENCY = 6;
+  public final long FETCH_TIMEOUT_MILLIS = 45 * 1000L;
+  // Maximum number of pages of a single Vendor API entity type requested at the same time.
+  public final int FETCH_MAX_CONCURRENT_PAGES = 4;
+  // Maximum number of entity types validated concurrently by DataCheck.
+  public final int CHECK_MAX_CONCURRENCY = 4;
+
   public final boolean DEBUG_FIX_DATA = false;
   public final boolean SHOW_UNPUBLISHED_DATA=false;
 
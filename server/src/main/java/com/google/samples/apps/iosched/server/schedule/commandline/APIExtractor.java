@@ -15,9 +15,8 @@
  */
 package com.google.samples.apps.iosched.server.schedule.commandline;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonWriter;
+import com.google.samples.apps.iosched.server.schedule.Config;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.EntityFetcher;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.HTTPRemoteFilesEntityFetcher;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.RemoteFilesEntityFetcherFactory;
@@ -30,6 +29,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.nio.channels.Channels;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A class usable on command line that extracts the session data from the CMS.
@@ -63,16 +64,18 @@ public class APIExtractor {
     // fill sources with vendor API input:
     VendorDynamicInput vendorInput = new VendorDynamicInput();
     vendorInput.setExtractUnpublished(extractUnpublished);
-    sources.putAll(vendorInput.fetchAllDataSources());
-    // extract session data from inputs:
-    JsonObject newData = new DataExtractor(false).extractFromDataSources(sources);
-
-    // send data to the outputstream
+    ExecutorService pageExecutor = Executors.newFixedThreadPool(Config.FETCH_MAX_CONCURRENT_PAGES);
+    try {
+      vendorInput.setPageExecutor(pageExecutor);
+      sources.putAll(vendorInput.fetchAllDataSources());
+    } finally {
+      pageExecutor.shutdownNow();
+    }
+    // extract session data from inputs, streaming it to the outputstream:
     Writer writer = Channels.newWriter(Channels.newChannel(optionalOutput), "UTF-8");
     JsonWriter optionalOutputWriter = new JsonWriter(writer);
     optionalOutputWriter.setIndent("  ");
-    new Gson().toJson(newData, optionalOutputWriter);
-    optionalOutputWriter.flush();
+    new DataExtractor(false).extractFromDataSources(sources, optionalOutputWriter);
   }
 
   /**
@@ -35,9 +35,10 @@ public class HTTPRemoteFilesEntityFetcher implements EntityFetcher {
   }
 
   @Override
-  public JsonElement fetch(Enum<?> entityType, Map<String, String> params)
+  public synchronized JsonElement fetch(Enum<?> entityType, Map<String, String> params)
       throws IOException {
-    // On the first call, read all the files
+    // On the first call, read all the files. Synchronized because entity types may be fetched
+    // concurrently, and all of them share the same set of files.
     if (object == null) {
       object = RemoteJsonHelper.mergeJsonFiles(null, filenames);
     }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.get;
+import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.getAsArray;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The data a {@link DataCheck} run shows its rules. Values derived from the data that more than
+ * one rule needs are computed on first use and then shared, so rules may call it concurrently.
+ */
+public class CheckContext {
+
+  private static final String BLOCK_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+
+  private final JsonObject oldData;
+  private final JsonObject newData;
+  private Map<JsonObject, BlockTimes> blockTimes;
+
+  /**
+   * @param oldData the previously saved data, by entity type
+   * @param newData the data about to be saved, by entity type
+   */
+  public CheckContext(JsonObject oldData, JsonObject newData) {
+    this.oldData = oldData;
+    this.newData = newData;
+  }
+
+  public JsonObject getOldData() {
+    return oldData;
+  }
+
+  public JsonObject getNewData() {
+    return newData;
+  }
+
+  /**
+   * @return the parsed start and end of every new block, by block instance
+   */
+  public synchronized Map<JsonObject, BlockTimes> getBlockTimes() {
+    if (blockTimes == null) {
+      SimpleDateFormat blockDateFormat = new SimpleDateFormat(BLOCK_DATE_FORMAT);
+      Map<JsonObject, BlockTimes> times = new IdentityHashMap<JsonObject, BlockTimes>();
+      JsonArray blocks = getAsArray(newData, OutputJsonKeys.MainTypes.blocks);
+      if (blocks != null) for (JsonElement el: blocks) {
+        if (!el.isJsonObject()) {
+          continue;
+        }
+        JsonObject block = el.getAsJsonObject();
+        try {
+          times.put(block, new BlockTimes(
+              blockDateFormat.parse(get(block, OutputJsonKeys.Blocks.start).getAsString()).getTime(),
+              blockDateFormat.parse(get(block, OutputJsonKeys.Blocks.end).getAsString()).getTime(),
+              null));
+        } catch (ParseException ex) {
+          times.put(block, new BlockTimes(0, 0, ex.getMessage()));
+        }
+      }
+      blockTimes = Collections.unmodifiableMap(times);
+    }
+    return blockTimes;
+  }
+
+  /**
+   * Start and end of a block, in milliseconds since the epoch.
+   */
+  public static class BlockTimes {
+    public final long start;
+    public final long end;
+    /** Why the block times could not be parsed, or null if they were. */
+    public final String parseError;
+
+    BlockTimes(long start, long end, String parseError) {
+      this.start = start;
+      this.end = end;
+      this.parseError = parseError;
+    }
+  }
+}
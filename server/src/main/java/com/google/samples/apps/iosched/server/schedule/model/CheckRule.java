@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import com.google.gson.JsonObject;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckResult;
+
+/**
+ * A consistency rule run by {@link DataCheck}.
+ *
+ * <p>For each entity type the rule applies to, it creates an {@link EntityChecker} that is shown
+ * every new entity of that type, in a single pass shared with all other rules for the same type.
+ * Entity types are checked in parallel, so checkers must only keep state of their own, and the
+ * data they are given must be treated as read-only.
+ */
+public interface CheckRule {
+
+  /**
+   * @return a short name for the rule, used to report its timings
+   */
+  String getName();
+
+  /**
+   * @param entityType an entity type, e.g. "sessions"
+   * @return whether {@link #newChecker} should be called for this entity type
+   */
+  boolean appliesTo(String entityType);
+
+  /**
+   * @param entityType type of the entities the checker will be shown
+   * @param context the old and new data, and values derived from them shared by all rules
+   * @return a checker for the new entities of the given type, or null if there is nothing to
+   *     check
+   */
+  EntityChecker newChecker(String entityType, CheckContext context);
+
+  /**
+   * Checks the new entities of one type.
+   */
+  interface EntityChecker {
+    void check(JsonObject entity, CheckResult result);
+
+    /**
+     * Called after all entities have been checked.
+     */
+    void finish(CheckResult result);
+  }
+}
@@ -15,24 +15,29 @@
  */
 package com.google.samples.apps.iosched.server.schedule.model;
 
-import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.get;
 import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.getAsArray;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonPrimitive;
 import com.google.samples.apps.iosched.server.schedule.Config;
 import com.google.samples.apps.iosched.server.schedule.server.ManifestData;
 import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
 
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 
@@ -46,12 +51,26 @@ public class DataCheck {
   static Logger LOG = Logger.getLogger(DataCheck.class.getName());
 
   private CloudFileManager fileManager;
-
-  private SimpleDateFormat sessionDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-  private SimpleDateFormat blockDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+  private ExecutorService executor;
+  private List<CheckRule> rules = DataCheckRules.getDefaultRules();
 
   public DataCheck(CloudFileManager fileManager) {
+    this(fileManager, null);
+  }
+
+  /**
+   * @param executor if not null, entity types are checked in parallel on this executor
+   */
+  public DataCheck(CloudFileManager fileManager, ExecutorService executor) {
     this.fileManager = fileManager;
+    this.executor = executor;
+  }
+
+  /**
+   * Adds a rule to run after the already registered ones.
+   */
+  public void registerRule(CheckRule rule) {
+    rules.add(rule);
   }
 
   /**
@@ -73,49 +92,10 @@ public class DataCheck {
       }
     }
 
-    CheckResult result = new CheckResult();
-
-    // check if array of entities is more than 80% the size of the old data:
-    checkUsingPredicator(result, oldData, newData, new ArraySizeValidator());
-
-    // Check that no existing tag was removed or had its name changed in a significant way
-    checkUsingPredicator(result, oldData, newData,
-        OutputJsonKeys.MainTypes.tags, OutputJsonKeys.Tags.tag,
-        new EntityValidator() {
-          @Override
-          public void evaluate(CheckResult result, String entity, JsonObject oldData,
-              JsonObject newData) {
-            if (newData == null) {
-              String tagName = get(oldData, OutputJsonKeys.Tags.tag).getAsString();
-              String originalId = get(oldData, OutputJsonKeys.Tags.original_id).getAsString();
-              result.failures.add(
-                  new CheckFailure(entity, tagName,
-                      "Tag could not be found or changed name. Original category ID = " + originalId)
-                  );
-            }
-          }
-        });
-
-    // Check that no room was removed
-    checkUsingPredicator(result, oldData, newData,
-        OutputJsonKeys.MainTypes.rooms, OutputJsonKeys.Rooms.id,
-        new EntityValidator() {
-          @Override
-          public void evaluate(CheckResult result, String entity, JsonObject oldData,
-              JsonObject newData) {
-            if (newData == null) {
-              String id = get(oldData, OutputJsonKeys.Rooms.id).getAsString();
-              result.failures.add(
-                  new CheckFailure(entity, id,
-                      "Room could not be found. Original room: " + oldData)
-                  );
-            }
-          }
-        });
-
-    // Check if blocks start and end timestamps are valid
     JsonArray newBlocks = getAsArray(newData, OutputJsonKeys.MainTypes.blocks);
-    LOG.info(newData.toString());
+    if (LOG.isLoggable(Level.INFO)) {
+      LOG.info("Checking data with " + summarize(newData));
+    }
     if (newBlocks == null ) {
       StringBuilder sb= new StringBuilder();
       for (Map.Entry<String, JsonElement> entry: newData.entrySet()) {
@@ -123,123 +103,143 @@ public class DataCheck {
       }
       throw new IllegalArgumentException("Could not find the blocks entities. Entities in newData are: "+sb);
     }
-    for (JsonElement el: newBlocks) {
-      JsonObject block = el.getAsJsonObject();
-      try {
-        Date start = blockDateFormat.parse(get(block, OutputJsonKeys.Blocks.start).getAsString());
-        Date end = blockDateFormat.parse(get(block, OutputJsonKeys.Blocks.end).getAsString());
-        if ( start.getTime() >= end.getTime() ||  // check for invalid start/end combinations
-            start.getTime() < Config.CONFERENCE_DAYS[0][0] || // check for block starting before the conference
-            end.getTime() > Config.CONFERENCE_DAYS[1][1]) {  // check for block ending after the conference
-          result.failures.add(
-              new CheckFailure(OutputJsonKeys.MainTypes.blocks.name(), null,
-                  "Invalid block start or end date. Block=" + block));
-        }
-      } catch (ParseException ex) {
-        result.failures.add(
-            new CheckFailure(OutputJsonKeys.MainTypes.blocks.name(), null,
-                "Could not parse block start or end date. Exception="+ex.getMessage()
-                +". Block=" + block));
-      }
+
+    return runRules(oldData, newData);
+  }
+
+  /**
+   * Runs all registered rules. Each entity type is checked by a separate task, in a single pass
+   * over its new entities shared by all rules that apply to it. Failures are reported in rule
+   * order, and then in entity type order, regardless of which task finished first.
+   */
+  CheckResult runRules(final JsonObject oldData, final JsonObject newData) {
+    final CheckContext context = new CheckContext(oldData, newData);
+    LinkedHashSet<String> entityTypes = new LinkedHashSet<String>();
+    for (Map.Entry<String, JsonElement> entry: oldData.entrySet()) {
+      entityTypes.add(entry.getKey());
+    }
+    for (Map.Entry<String, JsonElement> entry: newData.entrySet()) {
+      entityTypes.add(entry.getKey());
     }
 
-    // Check if sessions start and end timestamps are valid
-    JsonArray newSessions = getAsArray(newData, OutputJsonKeys.MainTypes.sessions);
-    for (JsonElement el: newSessions) {
-      JsonObject session = el.getAsJsonObject();
+    List<TypeCheckResult> typeResults = new ArrayList<TypeCheckResult>();
+    if (executor == null) {
+      for (String entityType: entityTypes) {
+        typeResults.add(checkEntityType(entityType, context));
+      }
+    } else {
+      List<Future<TypeCheckResult>> futures = new ArrayList<Future<TypeCheckResult>>();
       try {
-        Date start = sessionDateFormat.parse(get(session, OutputJsonKeys.Sessions.startTimestamp).getAsString());
-        Date end = sessionDateFormat.parse(get(session, OutputJsonKeys.Sessions.endTimestamp).getAsString());
-        if ( start.getTime() >= end.getTime() ) {  // check for invalid start/end combinations
-          result.failures.add(
-              new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), get(session, OutputJsonKeys.Sessions.id).getAsString(),
-                  "Session ends before or at the same time as it starts. Session=" + session));
-        } else if ( end.getTime() - start.getTime() > 6 * 60 * 60 * 1000L ) { // check for session longer than 6 hours
-          result.failures.add(
-              new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), get(session, OutputJsonKeys.Sessions.id).getAsString(),
-                  "Session is longer than 6 hours. Session=" + session));
-        } else if ( start.getTime() < Config.CONFERENCE_DAYS[0][0] || // check for session starting before the conference
-            end.getTime() > Config.CONFERENCE_DAYS[1][1]) {  // check for session ending after the conference
-          result.failures.add(
-              new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), get(session, OutputJsonKeys.Sessions.id).getAsString(),
-                  "Session starts before or ends after the days of the conference. Session=" + session));
-        } else {
-          // Check if all sessions are covered by at least one free block (except the keynote):
-          boolean valid = false;
-          if (!get(session, OutputJsonKeys.Sessions.id).getAsString().equals("__keynote__")) {
-            for (JsonElement bl: newBlocks) {
-              JsonObject block = bl.getAsJsonObject();
-              Date blockStart= blockDateFormat.parse(get(block, OutputJsonKeys.Blocks.start).getAsString());
-              Date blockEnd = blockDateFormat.parse(get(block, OutputJsonKeys.Blocks.end).getAsString());
-              String blockType = get(block, OutputJsonKeys.Blocks.type).getAsString();
-              if ("free".equals(blockType) &&
-                  start.compareTo(blockStart) >= 0 &&
-                  start.compareTo(blockEnd) < 0) {
-                valid = true;
-                break;
-              }
-            }
-            if (!valid) {
-              result.failures.add(
-                  new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), get(session, OutputJsonKeys.Sessions.id).getAsString(),
-                      "There is no FREE block where this session start date lies on. Session=" + session));
+        for (final String entityType: entityTypes) {
+          futures.add(executor.submit(new Callable<TypeCheckResult>() {
+            @Override
+            public TypeCheckResult call() {
+              return checkEntityType(entityType, context);
             }
-          }
+          }));
+        }
+        for (Future<TypeCheckResult> future: futures) {
+          typeResults.add(future.get());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while checking data", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IllegalStateException("Error while checking data", e.getCause());
+      } finally {
+        for (Future<TypeCheckResult> future: futures) {
+          future.cancel(true);
         }
-      } catch (ParseException ex) {
-        result.failures.add(
-            new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), get(session, OutputJsonKeys.Sessions.id).getAsString(),
-                "Could not parse session start or end date. Exception="+ex.getMessage()
-                +". Session=" + session));
       }
     }
 
-
-    // Check if video sessions (video library) have valid video URLs
-    JsonArray newVideoLibrary = getAsArray(newData, OutputJsonKeys.MainTypes.video_library);
-    for (JsonElement el: newVideoLibrary) {
-      JsonObject session = el.getAsJsonObject();
-      JsonPrimitive videoUrl = (JsonPrimitive) get(session, OutputJsonKeys.VideoLibrary.vid);
-      if (videoUrl == null || !videoUrl.isString() || videoUrl.getAsString() == null ||
-          videoUrl.getAsString().isEmpty()) {
-        result.failures.add(
-          new CheckFailure(InputJsonKeys.VendorAPISource.MainTypes.topics.name(),
-              ""+get(session, OutputJsonKeys.VideoLibrary.id),
-              "Video Session has empty vid info. Session: " + session));
+    CheckResult result = new CheckResult();
+    for (int i = 0; i < rules.size(); i++) {
+      long nanos = 0;
+      for (TypeCheckResult typeResult: typeResults) {
+        if (typeResult.results[i] != null) {
+          result.failures.addAll(typeResult.results[i].failures);
+          nanos += typeResult.nanos[i];
+        }
       }
+      result.ruleTimings.put(rules.get(i).getName(), TimeUnit.NANOSECONDS.toMillis(nanos));
     }
-
     return result;
   }
 
-  public void checkUsingPredicator(CheckResult result, JsonObject oldData, JsonObject newData,
-      ArrayValidator predicate) {
-    for (Map.Entry<String, JsonElement> entry: oldData.entrySet()) {
-      String oldKey = entry.getKey();
-      JsonArray oldValues = entry.getValue().getAsJsonArray();
-      predicate.evaluate(result, oldKey, oldValues, newData.getAsJsonArray(oldKey));
+  private TypeCheckResult checkEntityType(String entityType, CheckContext context) {
+    TypeCheckResult typeResult = new TypeCheckResult(rules.size());
+    CheckRule.EntityChecker[] checkers = new CheckRule.EntityChecker[rules.size()];
+    boolean hasCheckers = false;
+    for (int i = 0; i < rules.size(); i++) {
+      CheckRule rule = rules.get(i);
+      if (rule.appliesTo(entityType)) {
+        long start = System.nanoTime();
+        checkers[i] = rule.newChecker(entityType, context);
+        typeResult.nanos[i] += System.nanoTime() - start;
+        if (checkers[i] != null) {
+          typeResult.results[i] = new CheckResult();
+          hasCheckers = true;
+        }
+      }
+    }
+    if (!hasCheckers) {
+      return typeResult;
     }
-  }
-
 
-  public void checkUsingPredicator(CheckResult result, JsonObject oldData, JsonObject newData, Enum<?> entityType, Enum<?> entityKey, EntityValidator predicate) {
-    HashMap<String, JsonObject> oldMap = new HashMap<String, JsonObject>();
-    HashMap<String, JsonObject> newMap = new HashMap<String, JsonObject>();
-    JsonArray oldArray = getAsArray(oldData, entityType);
-    JsonArray newArray = getAsArray(newData, entityType);
-    if (oldArray!=null) for (JsonElement el: oldArray) {
-      JsonObject obj = (JsonObject) el;
-      oldMap.put(get(obj, entityKey).getAsString(), obj);
+    JsonArray entities = context.getNewData().getAsJsonArray(entityType);
+    if (entities != null) for (JsonElement el: entities) {
+      if (!el.isJsonObject()) {
+        continue;
+      }
+      JsonObject entity = el.getAsJsonObject();
+      for (int i = 0; i < checkers.length; i++) {
+        if (checkers[i] != null) {
+          long start = System.nanoTime();
+          checkers[i].check(entity, typeResult.results[i]);
+          typeResult.nanos[i] += System.nanoTime() - start;
+        }
+      }
     }
-    if (newArray!=null) for (JsonElement el: newArray) {
-      JsonObject obj = (JsonObject) el;
-      newMap.put(get(obj, entityKey).getAsString(), obj);
+    for (int i = 0; i < checkers.length; i++) {
+      if (checkers[i] != null) {
+        long start = System.nanoTime();
+        checkers[i].finish(typeResult.results[i]);
+        typeResult.nanos[i] += System.nanoTime() - start;
+      }
     }
-    for (String id: oldMap.keySet()) {
-      predicate.evaluate(result, entityType.name(), oldMap.get(id), newMap.get(id));
+    return typeResult;
+  }
+
+  /**
+   * Results of all rules for one entity type, indexed like {@link #rules}.
+   */
+  private static class TypeCheckResult {
+    final CheckResult[] results;
+    final long[] nanos;
+
+    TypeCheckResult(int ruleCount) {
+      results = new CheckResult[ruleCount];
+      nanos = new long[ruleCount];
     }
   }
 
+  /**
+   * @return the number of entities of each type, e.g. "rooms=8 sessions=120"
+   */
+  private static String summarize(JsonObject data) {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, JsonElement> entry: data.entrySet()) {
+      if (entry.getValue().isJsonArray()) {
+        sb.append(entry.getKey()).append("=").append(entry.getValue().getAsJsonArray().size())
+            .append(" ");
+      }
+    }
+    return sb.toString().trim();
+  }
 
   private JsonObject clone(JsonObject source) {
     JsonObject dest = new JsonObject();
@@ -278,6 +278,60 @@ public class DataCheck {
     }
   }
 
+  /**
+   * Answers whether a timestamp lies in any of a set of possibly overlapping [start, end)
+   * intervals in O(log n). Intervals are sorted by start, and for each position the maximum end
+   * of all intervals up to it is kept: a timestamp is covered if and only if that maximum, taken
+   * at the last interval starting at or before the timestamp, is after it.
+   */
+  static final class FreeBlockIndex {
+    private long[][] intervals;
+    private int size;
+    private long[] starts;
+    private long[] maxEnds;
+
+    FreeBlockIndex(int expectedSize) {
+      intervals = new long[Math.max(expectedSize, 1)][];
+    }
+
+    void add(long start, long end) {
+      if (size == intervals.length) {
+        intervals = Arrays.copyOf(intervals, size * 2);
+      }
+      intervals[size++] = new long[] {start, end};
+    }
+
+    void build() {
+      Arrays.sort(intervals, 0, size, new Comparator<long[]>() {
+        @Override
+        public int compare(long[] a, long[] b) {
+          return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+        }
+      });
+      starts = new long[size];
+      maxEnds = new long[size];
+      for (int i = 0; i < size; i++) {
+        starts[i] = intervals[i][0];
+        maxEnds[i] = i == 0 ? intervals[i][1] : Math.max(maxEnds[i - 1], intervals[i][1]);
+      }
+      intervals = null;
+    }
+
+    boolean contains(long timestamp) {
+      int pos = Arrays.binarySearch(starts, timestamp);
+      if (pos < 0) {
+        // index of the last interval starting before the timestamp
+        pos = -pos - 2;
+      } else {
+        // skip to the last interval starting exactly at the timestamp
+        while (pos + 1 < starts.length && starts[pos + 1] == timestamp) {
+          pos++;
+        }
+      }
+      return pos >= 0 && maxEnds[pos] > timestamp;
+    }
+  }
+
   public static interface ArrayValidator {
     void evaluate(CheckResult result, String entity, JsonArray oldData, JsonArray newData);
   }
@@ -308,6 +362,8 @@ public class DataCheck {
 
   public static class CheckResult {
     public ArrayList<CheckFailure> failures = new ArrayList<CheckFailure>();
+    /** Time taken by each rule, in milliseconds, summed over all entity types. */
+    public LinkedHashMap<String, Long> ruleTimings = new LinkedHashMap<String, Long>();
   }
 
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.get;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.samples.apps.iosched.server.schedule.Config;
+import com.google.samples.apps.iosched.server.schedule.model.CheckContext.BlockTimes;
+import com.google.samples.apps.iosched.server.schedule.model.CheckRule.EntityChecker;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.ArraySizeValidator;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckFailure;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckResult;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.EntityValidator;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.FreeBlockIndex;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rules {@link DataCheck} runs by default.
+ */
+public class DataCheckRules {
+
+  private static final String SESSION_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+  /**
+   * @return a new list with the default rules, in the order their failures are reported
+   */
+  public static List<CheckRule> getDefaultRules() {
+    List<CheckRule> rules = new ArrayList<CheckRule>();
+    // check if array of entities is more than 80% the size of the old data:
+    rules.add(new ArraySizeRule());
+    // Check that no existing tag was removed or had its name changed in a significant way
+    rules.add(new EntityRemovalRule("tagRemoval", OutputJsonKeys.MainTypes.tags,
+        OutputJsonKeys.Tags.tag, new TagRemovalValidator()));
+    // Check that no room was removed
+    rules.add(new EntityRemovalRule("roomRemoval", OutputJsonKeys.MainTypes.rooms,
+        OutputJsonKeys.Rooms.id, new RoomRemovalValidator()));
+    rules.add(new BlockTimesRule());
+    rules.add(new SessionTimesRule());
+    rules.add(new VideoUrlRule());
+    return rules;
+  }
+
+  /**
+   * Base class for rules that apply to a single entity type.
+   */
+  public static abstract class SingleTypeRule implements CheckRule {
+    private final String name;
+    private final OutputJsonKeys.MainTypes entityType;
+
+    protected SingleTypeRule(String name, OutputJsonKeys.MainTypes entityType) {
+      this.name = name;
+      this.entityType = entityType;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public boolean appliesTo(String entityType) {
+      return this.entityType.name().equals(entityType);
+    }
+  }
+
+  /**
+   * Reports entity types that disappeared or shrank to 80% or less of their previous size.
+   */
+  public static class ArraySizeRule implements CheckRule {
+    @Override
+    public String getName() {
+      return "arraySize";
+    }
+
+    @Override
+    public boolean appliesTo(String entityType) {
+      return true;
+    }
+
+    @Override
+    public EntityChecker newChecker(final String entityType, final CheckContext context) {
+      final JsonArray oldValues = context.getOldData().getAsJsonArray(entityType);
+      if (oldValues == null) {
+        return null;
+      }
+      return new EntityChecker() {
+        @Override
+        public void check(JsonObject entity, CheckResult result) {
+        }
+
+        @Override
+        public void finish(CheckResult result) {
+          new ArraySizeValidator().evaluate(result, entityType, oldValues,
+              context.getNewData().getAsJsonArray(entityType));
+        }
+      };
+    }
+  }
+
+  /**
+   * Runs an {@link EntityValidator} on every old entity of a type, together with the new entity
+   * with the same key, or null if there is none.
+   */
+  public static class EntityRemovalRule extends SingleTypeRule {
+    private final Enum<?> entityKey;
+    private final EntityValidator validator;
+
+    public EntityRemovalRule(String name, OutputJsonKeys.MainTypes entityType, Enum<?> entityKey,
+        EntityValidator validator) {
+      super(name, entityType);
+      this.entityKey = entityKey;
+      this.validator = validator;
+    }
+
+    @Override
+    public EntityChecker newChecker(final String entityType, CheckContext context) {
+      final JsonArray oldArray = context.getOldData().getAsJsonArray(entityType);
+      if (oldArray == null) {
+        return null;
+      }
+      final HashMap<String, JsonObject> newMap = new HashMap<String, JsonObject>();
+      return new EntityChecker() {
+        @Override
+        public void check(JsonObject entity, CheckResult result) {
+          newMap.put(get(entity, entityKey).getAsString(), entity);
+        }
+
+        @Override
+        public void finish(CheckResult result) {
+          LinkedHashMap<String, JsonObject> oldMap = new LinkedHashMap<String, JsonObject>();
+          for (JsonElement el: oldArray) {
+            JsonObject obj = (JsonObject) el;
+            oldMap.put(get(obj, entityKey).getAsString(), obj);
+          }
+          for (Map.Entry<String, JsonObject> old: oldMap.entrySet()) {
+            validator.evaluate(result, entityType, old.getValue(), newMap.get(old.getKey()));
+          }
+        }
+      };
+    }
+  }
+
+  public static class TagRemovalValidator implements EntityValidator {
+    @Override
+    public void evaluate(CheckResult result, String entity, JsonObject oldData,
+        JsonObject newData) {
+      if (newData == null) {
+        String tagName = get(oldData, OutputJsonKeys.Tags.tag).getAsString();
+        String originalId = get(oldData, OutputJsonKeys.Tags.original_id).getAsString();
+        result.failures.add(
+            new CheckFailure(entity, tagName,
+                "Tag could not be found or changed name. Original category ID = " + originalId)
+            );
+      }
+    }
+  }
+
+  public static class RoomRemovalValidator implements EntityValidator {
+    @Override
+    public void evaluate(CheckResult result, String entity, JsonObject oldData,
+        JsonObject newData) {
+      if (newData == null) {
+        String id = get(oldData, OutputJsonKeys.Rooms.id).getAsString();
+        result.failures.add(
+            new CheckFailure(entity, id,
+                "Room could not be found. Original room: " + oldData)
+            );
+      }
+    }
+  }
+
+  /**
+   * Checks if blocks start and end timestamps are valid.
+   */
+  public static class BlockTimesRule extends SingleTypeRule {
+    public BlockTimesRule() {
+      super("blockTimes", OutputJsonKeys.MainTypes.blocks);
+    }
+
+    @Override
+    public EntityChecker newChecker(String entityType, CheckContext context) {
+      final Map<JsonObject, BlockTimes> blockTimes = context.getBlockTimes();
+      return new EntityChecker() {
+        @Override
+        public void check(JsonObject block, CheckResult result) {
+          BlockTimes times = blockTimes.get(block);
+          if (times.parseError != null) {
+            result.failures.add(
+                new CheckFailure(OutputJsonKeys.MainTypes.blocks.name(), null,
+                    "Could not parse block start or end date. Exception="+times.parseError
+                    +". Block=" + block));
+          } else if ( times.start >= times.end ||  // check for invalid start/end combinations
+              times.start < Config.CONFERENCE_DAYS[0][0] || // check for block starting before the conference
+              times.end > Config.CONFERENCE_DAYS[1][1]) {  // check for block ending after the conference
+            result.failures.add(
+                new CheckFailure(OutputJsonKeys.MainTypes.blocks.name(), null,
+                    "Invalid block start or end date. Block=" + block));
+          }
+        }
+
+        @Override
+        public void finish(CheckResult result) {
+        }
+      };
+    }
+  }
+
+  /**
+   * Checks if sessions start and end timestamps are valid, and if they start in a FREE block.
+   */
+  public static class SessionTimesRule extends SingleTypeRule {
+    public SessionTimesRule() {
+      super("sessionTimes", OutputJsonKeys.MainTypes.sessions);
+    }
+
+    @Override
+    public EntityChecker newChecker(String entityType, CheckContext context) {
+      final SimpleDateFormat sessionDateFormat = new SimpleDateFormat(SESSION_DATE_FORMAT);
+      final FreeBlockIndex freeBlocks = indexFreeBlocks(context.getBlockTimes());
+      return new EntityChecker() {
+        @Override
+        public void check(JsonObject session, CheckResult result) {
+          String id = get(session, OutputJsonKeys.Sessions.id).getAsString();
+          try {
+            long start = sessionDateFormat.parse(get(session, OutputJsonKeys.Sessions.startTimestamp).getAsString()).getTime();
+            long end = sessionDateFormat.parse(get(session, OutputJsonKeys.Sessions.endTimestamp).getAsString()).getTime();
+            if ( start >= end ) {  // check for invalid start/end combinations
+              result.failures.add(
+                  new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), id,
+                      "Session ends before or at the same time as it starts. Session=" + session));
+            } else if ( end - start > 6 * 60 * 60 * 1000L ) { // check for session longer than 6 hours
+              result.failures.add(
+                  new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), id,
+                      "Session is longer than 6 hours. Session=" + session));
+            } else if ( start < Config.CONFERENCE_DAYS[0][0] || // check for session starting before the conference
+                end > Config.CONFERENCE_DAYS[1][1]) {  // check for session ending after the conference
+              result.failures.add(
+                  new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), id,
+                      "Session starts before or ends after the days of the conference. Session=" + session));
+            } else if (!id.equals("__keynote__") && !freeBlocks.contains(start)) {
+              // Check if all sessions are covered by at least one free block (except the keynote):
+              result.failures.add(
+                  new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), id,
+                      "There is no FREE block where this session start date lies on. Session=" + session));
+            }
+          } catch (ParseException ex) {
+            result.failures.add(
+                new CheckFailure(OutputJsonKeys.MainTypes.sessions.name(), id,
+                    "Could not parse session start or end date. Exception="+ex.getMessage()
+                    +". Session=" + session));
+          }
+        }
+
+        @Override
+        public void finish(CheckResult result) {
+        }
+      };
+    }
+
+    /**
+     * Blocks that cannot be parsed are left out; {@link BlockTimesRule} reports them.
+     */
+    private static FreeBlockIndex indexFreeBlocks(Map<JsonObject, BlockTimes> blockTimes) {
+      FreeBlockIndex index = new FreeBlockIndex(blockTimes.size());
+      for (Map.Entry<JsonObject, BlockTimes> entry: blockTimes.entrySet()) {
+        if (entry.getValue().parseError == null
+            && "free".equals(get(entry.getKey(), OutputJsonKeys.Blocks.type).getAsString())) {
+          index.add(entry.getValue().start, entry.getValue().end);
+        }
+      }
+      index.build();
+      return index;
+    }
+  }
+
+  /**
+   * Checks if video sessions (video library) have valid video URLs.
+   */
+  public static class VideoUrlRule extends SingleTypeRule {
+    public VideoUrlRule() {
+      super("videoUrl", OutputJsonKeys.MainTypes.video_library);
+    }
+
+    @Override
+    public EntityChecker newChecker(String entityType, CheckContext context) {
+      return new EntityChecker() {
+        @Override
+        public void check(JsonObject session, CheckResult result) {
+          JsonPrimitive videoUrl = (JsonPrimitive) get(session, OutputJsonKeys.VideoLibrary.vid);
+          if (videoUrl == null || !videoUrl.isString() || videoUrl.getAsString() == null ||
+              videoUrl.getAsString().isEmpty()) {
+            result.failures.add(
+              new CheckFailure(InputJsonKeys.VendorAPISource.MainTypes.topics.name(),
+                  ""+get(session, OutputJsonKeys.VideoLibrary.id),
+                  "Video Session has empty vid info. Session: " + session));
+          }
+        }
+
+        @Override
+        public void finish(CheckResult result) {
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.get;
+import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.getAsArray;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes the entity-level difference between two versions of the session data, so that
+ * clients holding the base version can update without downloading the whole file.
+ *
+ * <p>The delta has the following format:
+ * <pre>
+ * {
+ *   "format": "iosched-json-delta-v1",
+ *   "base": "session_data_v1.4.json",
+ *   "sessions": {
+ *     "updated": [ ...entities that were added or changed, in full... ],
+ *     "removed": [ ...ids of entities that were removed... ]
+ *   },
+ *   ...same for speakers, tags, rooms and video_library, only if they changed
+ * }
+ * </pre>
+ */
+public class DataDelta {
+
+  public static final String FORMAT = "iosched-json-delta-v1";
+
+  public static final String FORMAT_KEY = "format";
+  public static final String BASE_KEY = "base";
+  /** Key of the manifest entry of a delta naming the data file the delta produces. */
+  public static final String TARGET_KEY = "target";
+  public static final String UPDATED_KEY = "updated";
+  public static final String REMOVED_KEY = "removed";
+
+  /**
+   * Entity types included in the delta, and the property that identifies each entity.
+   */
+  private static final Map<OutputJsonKeys.MainTypes, Enum<?>> ENTITY_KEYS =
+      new LinkedHashMap<OutputJsonKeys.MainTypes, Enum<?>>();
+  static {
+    ENTITY_KEYS.put(OutputJsonKeys.MainTypes.rooms, OutputJsonKeys.Rooms.id);
+    ENTITY_KEYS.put(OutputJsonKeys.MainTypes.tags, OutputJsonKeys.Tags.tag);
+    ENTITY_KEYS.put(OutputJsonKeys.MainTypes.speakers, OutputJsonKeys.Speakers.id);
+    ENTITY_KEYS.put(OutputJsonKeys.MainTypes.sessions, OutputJsonKeys.Sessions.id);
+    ENTITY_KEYS.put(OutputJsonKeys.MainTypes.video_library, OutputJsonKeys.VideoLibrary.id);
+  }
+
+  /**
+   * @param baseFilename name of the data file the delta applies to
+   * @param base the data in baseFilename
+   * @param target the new data
+   * @return the delta, or null if it cannot be expressed because some entity has no id
+   */
+  public static JsonObject compute(String baseFilename, JsonObject base, JsonObject target) {
+    JsonObject delta = new JsonObject();
+    delta.add(FORMAT_KEY, new JsonPrimitive(FORMAT));
+    delta.add(BASE_KEY, new JsonPrimitive(baseFilename));
+
+    for (Map.Entry<OutputJsonKeys.MainTypes, Enum<?>> entry: ENTITY_KEYS.entrySet()) {
+      Map<String, JsonObject> baseEntities = indexById(getAsArray(base, entry.getKey()),
+          entry.getValue());
+      Map<String, JsonObject> targetEntities = indexById(getAsArray(target, entry.getKey()),
+          entry.getValue());
+      if (baseEntities == null || targetEntities == null) {
+        return null;
+      }
+
+      JsonArray updated = new JsonArray();
+      for (Map.Entry<String, JsonObject> targetEntity: targetEntities.entrySet()) {
+        if (!targetEntity.getValue().equals(baseEntities.get(targetEntity.getKey()))) {
+          updated.add(targetEntity.getValue());
+        }
+      }
+      JsonArray removed = new JsonArray();
+      for (String id: baseEntities.keySet()) {
+        if (!targetEntities.containsKey(id)) {
+          removed.add(new JsonPrimitive(id));
+        }
+      }
+
+      if (updated.size() > 0 || removed.size() > 0) {
+        JsonObject changes = new JsonObject();
+        changes.add(UPDATED_KEY, updated);
+        changes.add(REMOVED_KEY, removed);
+        delta.add(entry.getKey().name(), changes);
+      }
+    }
+    return delta;
+  }
+
+  /**
+   * @return entities by id, in their original order, or null if an entity has no id
+   */
+  private static Map<String, JsonObject> indexById(JsonArray entities, Enum<?> idProperty) {
+    Map<String, JsonObject> result = new LinkedHashMap<String, JsonObject>();
+    if (entities != null) {
+      for (JsonElement el: entities) {
+        JsonObject entity = el.getAsJsonObject();
+        JsonElement id = get(entity, idProperty);
+        if (id == null || !id.isJsonPrimitive()) {
+          return null;
+        }
+        result.put(id.getAsString(), entity);
+      }
+    }
+    return result;
+  }
+}
@@ -21,16 +21,19 @@ import static com.google.samples.apps.iosched.server.schedule.model.DataModelHel
 import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.isHashtag;
 import static com.google.samples.apps.iosched.server.schedule.model.DataModelHelper.set;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
 import com.google.samples.apps.iosched.server.schedule.Config;
 import com.google.samples.apps.iosched.server.schedule.model.validator.Converters;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Encapsulation of the rules that maps Vendor data sources to the IOSched data sources.
@@ -78,6 +81,7 @@ public class DataExtractor {
   private HashMap<String, JsonObject> videoSessionsById;
   private HashMap<String, JsonObject> speakersById;
   private HashMap<String, JsonObject> categoryToTagMap;
+  private HashMap<String, TagRef> tagsByCategoryId;
   private HashSet<String> usedSpeakers, usedTags;
   private JsonElement mainCategory;
   private boolean obfuscate;
@@ -99,28 +103,72 @@ public class DataExtractor {
 
     result.add(OutputJsonKeys.MainTypes.sessions.name(), extractSessions(sources));
 
+    result.add(OutputJsonKeys.MainTypes.speakers.name(), removeUnusedSpeakers(speakers));
+    result.add(OutputJsonKeys.MainTypes.tags.name(), removeUnusedTags(tags));
+    return result;
+  }
+
+  /**
+   * Streaming version of {@link #extractFromDataSources(JsonDataSources)}. Writes exactly the
+   * same JSON as serializing the extracted JsonObject with a default {@link Gson}, but video
+   * sessions and sessions are written as they are extracted, so the output tree is never
+   * fully built in memory.
+   */
+  public void extractFromDataSources(JsonDataSources sources, JsonWriter writer)
+      throws IOException {
+    usedTags = new HashSet<String>();
+    usedSpeakers = new HashSet<String>();
+    Gson gson = new Gson();
+    EntitySink sink = new JsonWriterSink(gson, writer);
+
+    writer.beginObject();
+    writer.name(OutputJsonKeys.MainTypes.rooms.name());
+    gson.toJson(extractRooms(sources), writer);
+
+    // Speakers and tags are only written at the end, because only the ones used by a session
+    // are kept.
+    JsonArray speakers = extractSpeakers(sources);
+    JsonArray tags = extractTags(sources);
+
+    writer.name(OutputJsonKeys.MainTypes.video_library.name());
+    writer.beginArray();
+    extractVideoSessions(sources, sink);
+    writer.endArray();
+
+    writer.name(OutputJsonKeys.MainTypes.sessions.name());
+    writer.beginArray();
+    extractSessions(sources, sink);
+    writer.endArray();
+
+    writer.name(OutputJsonKeys.MainTypes.speakers.name());
+    gson.toJson(removeUnusedSpeakers(speakers), writer);
+    writer.name(OutputJsonKeys.MainTypes.tags.name());
+    gson.toJson(removeUnusedTags(tags), writer);
+    writer.endObject();
+    writer.flush();
+  }
+
+  private JsonArray removeUnusedTags(JsonArray tags) {
     // Remove tags that are not used on any session (b/14419126)
-    Iterator<JsonElement> tagsIt = tags.iterator();
-    while (tagsIt.hasNext()) {
-      JsonElement tag = tagsIt.next();
-      String tagName = get(tag.getAsJsonObject(), OutputJsonKeys.Tags.tag).getAsString();
-      if (!usedTags.contains(tagName)) {
-        tagsIt.remove();
-      }
-    }
+    return keepUsed(tags, OutputJsonKeys.Tags.tag, usedTags);
+  }
 
+  private JsonArray removeUnusedSpeakers(JsonArray speakers) {
     // Remove speakers that are not used on any session:
-    Iterator<JsonElement> it = speakers.iterator();
-    while (it.hasNext()) {
-      JsonElement el = it.next();
-      String id = get(el.getAsJsonObject(), OutputJsonKeys.Speakers.id).getAsString();
-      if (!usedSpeakers.contains(id)) {
-        it.remove();
+    return keepUsed(speakers, OutputJsonKeys.Speakers.id, usedSpeakers);
+  }
+
+  /**
+   * @return the entities whose key is in used, in their original order. Copying is linear,
+   *     while removing from the middle of a JsonArray is not.
+   */
+  private static JsonArray keepUsed(JsonArray entities, Enum<?> key, HashSet<String> used) {
+    JsonArray result = new JsonArray();
+    for (JsonElement el: entities) {
+      if (used.contains(get(el.getAsJsonObject(), key).getAsString())) {
+        result.add(el);
       }
     }
-
-    result.add(OutputJsonKeys.MainTypes.speakers.name(), speakers);
-    result.add(OutputJsonKeys.MainTypes.tags.name(), tags);
     return result;
   }
 
@@ -157,6 +205,7 @@ public class DataExtractor {
     JsonDataSource tagsConfSource = sources.getSource(InputJsonKeys.ExtraSource.MainTypes.tag_conf.name());
 
     categoryToTagMap = new HashMap<String, JsonObject>();
+    HashMap<String, String> trackPhotoObjectIds = null;
 
     // Only for checking duplicates.
     HashSet<String> originalTagNames = new HashSet<String>();
@@ -222,9 +271,12 @@ public class DataExtractor {
           // the images to be attached to the Tag/Track rather than the session.
           if (tagName.getAsString().startsWith(TRACK)) {
             // Extract photo urls from topics for TRACK tags.
-            String objectId = extractTrackPhotoObjectId(sources,
-                    dest.get(OutputJsonKeys.Tags.original_id.name()).getAsString());
-            if (!objectId.isEmpty()) {
+            if (trackPhotoObjectIds == null) {
+              trackPhotoObjectIds = indexTrackPhotoObjectIds(sources);
+            }
+            String objectId = trackPhotoObjectIds.get(
+                dest.get(OutputJsonKeys.Tags.original_id.name()).getAsString());
+            if (objectId != null) {
               dest.addProperty(OutputJsonKeys.Tags.photoUrl.name(),
                       Converters.SESSION_PHOTO_URL.convert(new JsonPrimitive(objectId))
                                                   .getAsString());
@@ -247,6 +299,18 @@ public class DataExtractor {
     if (Config.DEBUG_FIX_DATA) {
       DebugDataExtractorHelper.changeCategories(categoryToTagMap, result);
     }
+
+    // Resolve once what sessions and videos need from each tag.
+    tagsByCategoryId = new HashMap<String, TagRef>(categoryToTagMap.size() * 2);
+    HashMap<JsonObject, TagRef> refsByTag = new HashMap<JsonObject, TagRef>();
+    for (Map.Entry<String, JsonObject> entry: categoryToTagMap.entrySet()) {
+      TagRef ref = refsByTag.get(entry.getValue());
+      if (ref == null) {
+        ref = new TagRef(entry.getValue());
+        refsByTag.put(entry.getValue(), ref);
+      }
+      tagsByCategoryId.put(entry.getKey(), ref);
+    }
     return result;
   }
 
@@ -286,6 +350,12 @@ public class DataExtractor {
   }
 
   public JsonArray extractSessions(JsonDataSources sources) {
+    JsonArraySink result = new JsonArraySink();
+    extractSessions(sources, result);
+    return result.array;
+  }
+
+  private void extractSessions(JsonDataSources sources, EntitySink result) {
     if (videoSessionsById == null) {
       throw new IllegalStateException("You need to extract video sessions before attempting to extract sessions");
     }
@@ -293,7 +363,6 @@ public class DataExtractor {
       throw new IllegalStateException("You need to extract tags before attempting to extract sessions");
     }
 
-    JsonArray result = new JsonArray();
     JsonDataSource source = sources.getSource(InputJsonKeys.VendorAPISource.MainTypes.topics.name());
     if (source != null) {
       for (JsonObject origin: source) {
@@ -342,27 +411,20 @@ public class DataExtractor {
         JsonArray categories= origin.getAsJsonArray(InputJsonKeys.VendorAPISource.Topics.CategoryIds.name());
         JsonArray tags = new JsonArray();
         for (JsonElement category: categories) {
-          JsonObject tag = categoryToTagMap.get(category.getAsString());
+          TagRef tag = tagsByCategoryId.get(category.getAsString());
           if (tag != null) {
-            JsonElement tagName = get(tag, OutputJsonKeys.Tags.tag);
-            tags.add(tagName);
-            usedTags.add(tagName.getAsString());
+            tags.add(tag.tagName);
+            usedTags.add(tag.tagNameString);
 
             if (mainTag == null) {
               // check if the tag is from a "default" category. For example, if THEME is the default
               // category, all sessions will have a "mainTag" property set to the first tag of type THEME
-              JsonElement tagCategory = get(tag, OutputJsonKeys.Tags.category); // THEME, TYPE or TOPIC
-              if (tagCategory.equals(mainCategory)) {
-                mainTag = tagName;
-                mainTagColor = get(tag, OutputJsonKeys.Tags.color);
+              if (tag.category.equals(mainCategory)) {
+                mainTag = tag.tagName;
+                mainTagColor = tag.color;
               }
-              if (hashtag == null && isHashtag(tag)) {
-                hashtag = get(tag, OutputJsonKeys.Tags.hashtag);
-                if (hashtag == null || hashtag.getAsString() == null || hashtag.getAsString().isEmpty()) {
-                  // If no hashtag set in the tagsconf file, we will convert the tagname to find one:
-                  hashtag = new JsonPrimitive(get(tag, OutputJsonKeys.Tags.name, Converters.TAG_NAME)
-                          .getAsString().toLowerCase());
-                }
+              if (hashtag == null && tag.isHashtag) {
+                hashtag = tag.hashtag;
               }
             }
           }
@@ -404,10 +466,15 @@ public class DataExtractor {
         result.add(dest);
       }
     }
-    return result;
   }
 
   public JsonArray extractVideoSessions(JsonDataSources sources) {
+    JsonArraySink result = new JsonArraySink();
+    extractVideoSessions(sources, result);
+    return result.array;
+  }
+
+  private void extractVideoSessions(JsonDataSources sources, EntitySink result) {
     videoSessionsById = new HashMap<String, JsonObject>();
     if (categoryToTagMap == null) {
       throw new IllegalStateException("You need to extract tags before attempting to extract video sessions");
@@ -416,7 +483,6 @@ public class DataExtractor {
       throw new IllegalStateException("You need to extract speakers before attempting to extract video sessions");
     }
 
-    JsonArray result = new JsonArray();
     JsonDataSource source = sources.getSource(InputJsonKeys.VendorAPISource.MainTypes.topics.name());
     if (source != null) {
       for (JsonObject origin: source) {
@@ -444,10 +510,10 @@ public class DataExtractor {
         JsonElement videoTopic = null;
         JsonArray categories= origin.getAsJsonArray(InputJsonKeys.VendorAPISource.Topics.CategoryIds.name());
         for (JsonElement category: categories) {
-          JsonObject tag = categoryToTagMap.get(category.getAsString());
+          TagRef tag = tagsByCategoryId.get(category.getAsString());
           if (tag != null) {
-            if (isHashtag(tag)) {
-              videoTopic = get(tag, OutputJsonKeys.Tags.name);
+            if (tag.isHashtag) {
+              videoTopic = tag.name;
               // by definition, the first tag that can be a hashtag (usually a TOPIC) is considered the video tag
               break;
             }
@@ -474,7 +540,6 @@ public class DataExtractor {
         result.add(dest);
       }
     }
-    return result;
   }
 
   private boolean isVideoSession(JsonObject sessionObj) {
@@ -664,29 +729,35 @@ public class DataExtractor {
   }
 
   /**
-   * Extract the ObjectId (used to generate the photo url of the track) from the first topic that
-   * contains the given trackId.
+   * Maps each category id to the ObjectId (used to generate the photo url of the track) of the
+   * first topic that contains it and has a document, in a single pass over the topics.
    *
    * @param sources The full JSON object retrieved from the CMS.
-   * @param trackId Track id used to filter the topics, so the correct artwork can be retrieved.
-   * @return ObjectId of the topic that contains the trackId.
+   * @return ObjectIds by category id. Categories that no topic with a document contains are
+   *     not in the map.
    */
-  private String extractTrackPhotoObjectId(JsonDataSources sources, String trackId) {
+  private HashMap<String, String> indexTrackPhotoObjectIds(JsonDataSources sources) {
+    HashMap<String, String> result = new HashMap<String, String>();
     JsonDataSource source = sources.getSource(InputJsonKeys.VendorAPISource.MainTypes.topics.name());
     for (JsonObject topic : source) {
-
       JsonElement documents = get(topic, InputJsonKeys.VendorAPISource.Topics.Documents);
+      if (documents == null || !documents.isJsonArray() || documents.getAsJsonArray().size() == 0) {
+        continue;
+      }
+      String objectId = null;
       JsonArray categories = topic.getAsJsonArray(InputJsonKeys.VendorAPISource.Topics.CategoryIds.name());
       for (int i = 0; i < categories.size(); i++) {
         String categoryId = categories.get(i).getAsString();
-        if (categoryId.equals(trackId) && documents.getAsJsonArray().size() > 0) {
-          return documents.getAsJsonArray().get(0).getAsJsonObject().get("ObjectId").getAsString();
+        if (!result.containsKey(categoryId)) {
+          if (objectId == null) {
+            objectId = documents.getAsJsonArray().get(0).getAsJsonObject().get("ObjectId")
+                .getAsString();
+          }
+          result.put(categoryId, objectId);
         }
       }
     }
-    // If no topic is found to have this trackId contained in its categories array then an empty
-    // String is returned.
-    return "";
+    return result;
   }
 
   // TODO: improve the association of colors with tracks.
@@ -745,4 +816,69 @@ public class DataExtractor {
     }
   }
 
+  /**
+   * The values sessions and videos copy from a tag, resolved once per tag instead of once per
+   * session.
+   */
+  private static class TagRef {
+    final JsonElement tagName;
+    final String tagNameString;
+    final JsonElement name;
+    final JsonElement category;
+    final JsonElement color;
+    final boolean isHashtag;
+    final JsonElement hashtag;
+
+    TagRef(JsonObject tag) {
+      tagName = get(tag, OutputJsonKeys.Tags.tag);
+      tagNameString = tagName.getAsString();
+      name = get(tag, OutputJsonKeys.Tags.name);
+      category = get(tag, OutputJsonKeys.Tags.category); // THEME, TYPE or TOPIC
+      color = get(tag, OutputJsonKeys.Tags.color);
+      isHashtag = isHashtag(tag);
+      JsonElement configuredHashtag = get(tag, OutputJsonKeys.Tags.hashtag);
+      if (isHashtag && (configuredHashtag == null || configuredHashtag.getAsString() == null
+          || configuredHashtag.getAsString().isEmpty())) {
+        // If no hashtag set in the tagsconf file, we will convert the tagname to find one:
+        hashtag = new JsonPrimitive(get(tag, OutputJsonKeys.Tags.name, Converters.TAG_NAME)
+            .getAsString().toLowerCase());
+      } else {
+        hashtag = configuredHashtag;
+      }
+    }
+  }
+
+  /**
+   * Receives the entities of an output array as they are extracted.
+   */
+  private interface EntitySink {
+    void add(JsonObject entity);
+  }
+
+  private static class JsonArraySink implements EntitySink {
+    final JsonArray array = new JsonArray();
+
+    @Override
+    public void add(JsonObject entity) {
+      array.add(entity);
+    }
+  }
+
+  private static class JsonWriterSink implements EntitySink {
+    private final Gson gson;
+    private final JsonWriter writer;
+
+    JsonWriterSink(Gson gson, JsonWriter writer) {
+      this.gson = gson;
+      this.writer = writer;
+    }
+
+    /**
+     * @throws com.google.gson.JsonIOException if the entity could not be written
+     */
+    @Override
+    public void add(JsonObject entity) {
+      gson.toJson(entity, writer);
+    }
+  }
 }
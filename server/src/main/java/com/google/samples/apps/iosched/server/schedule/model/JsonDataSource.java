@@ -30,6 +30,7 @@ import java.util.Iterator;
 public class JsonDataSource implements Comparable<JsonDataSource>, Iterable<JsonObject> {
   private Enum<?> sourceType;
   private HashMap<String, JsonObject> data;
+  private byte[] fingerprint;
 
   public JsonDataSource(Enum<?> sourceType) {
     this.sourceType = sourceType;
@@ -56,6 +57,17 @@ public class JsonDataSource implements Comparable<JsonDataSource>, Iterable<Json
     return data.values().iterator();
   }
 
+  /**
+   * @return a hash of the raw data this source was created from, or null if it was not computed
+   */
+  public byte[] getFingerprint() {
+    return fingerprint;
+  }
+
+  public void setFingerprint(byte[] fingerprint) {
+    this.fingerprint = fingerprint;
+  }
+
   public int size() {
     return data.size();
   }
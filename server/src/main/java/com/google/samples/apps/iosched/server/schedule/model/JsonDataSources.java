@@ -17,6 +17,7 @@ package com.google.samples.apps.iosched.server.schedule.model;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.TreeMap;
 
 /**
  * An encapsulation of a JsonDataSource collection.
@@ -53,6 +54,21 @@ public class JsonDataSources implements Iterable<String> {
     this.sources.putAll(dataSources.sources);
   }
 
+  /**
+   * @return the fingerprint of each source, sorted by source name, or null if any source has
+   *         no fingerprint
+   */
+  public TreeMap<String, byte[]> getFingerprints() {
+    TreeMap<String, byte[]> fingerprints = new TreeMap<String, byte[]>();
+    for (JsonDataSource source: sources.values()) {
+      if (source.getFingerprint() == null) {
+        return null;
+      }
+      fingerprints.put(source.getSourceType().name(), source.getFingerprint());
+    }
+    return fingerprints;
+  }
+
   @Override
   public Iterator<String> iterator() {
     return sources.keySet().iterator();
@@ -15,6 +15,7 @@
  */
 package com.google.samples.apps.iosched.server.schedule.server;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.ShortBlob;
 import com.google.appengine.api.mail.MailService.Message;
@@ -32,10 +33,12 @@ import com.google.samples.apps.iosched.server.schedule.input.fetcher.RemoteFiles
 import com.google.samples.apps.iosched.server.schedule.model.DataCheck;
 import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckFailure;
 import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckResult;
+import com.google.samples.apps.iosched.server.schedule.model.DataDelta;
 import com.google.samples.apps.iosched.server.schedule.model.DataExtractor;
 import com.google.samples.apps.iosched.server.schedule.model.JsonDataSource;
 import com.google.samples.apps.iosched.server.schedule.model.JsonDataSources;
 import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
+import com.google.samples.apps.iosched.server.schedule.server.input.DataSourceInput;
 import com.google.samples.apps.iosched.server.schedule.server.input.ExtraInput;
 import com.google.samples.apps.iosched.server.schedule.server.input.VendorStaticInput;
 import com.google.samples.apps.iosched.server.schedule.server.input.fetcher.CloudStorageRemoteFilesEntityFetcher;
@@ -44,8 +47,15 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -57,6 +67,34 @@ public class APIUpdater {
 
   public static final int ADMIN_MESSAGE_SIZE_LIMIT = 10000;
 
+  private final CloudFileManager fileManager;
+  private final UpdateRunLogger logger;
+  private final ThreadFactory threadFactory;
+  private final GCMPing gcmPing;
+
+  /**
+   * Creates an updater that works on GoogleCloudStorage and the Datastore. Must be created on the
+   * request thread that runs it.
+   */
+  public APIUpdater() {
+    this(new CloudFileManager(), new UpdateRunLogger(),
+        ThreadManager.currentRequestThreadFactory(), new GCMPing());
+  }
+
+  /**
+   * @param fileManager where inputs are read from and outputs written to
+   * @param logger where update runs are logged
+   * @param threadFactory creates the threads used to fetch and check the data
+   * @param gcmPing notifies clients of new data, or null to skip the notification
+   */
+  public APIUpdater(CloudFileManager fileManager, UpdateRunLogger logger,
+      ThreadFactory threadFactory, GCMPing gcmPing) {
+    this.fileManager = fileManager;
+    this.logger = logger;
+    this.threadFactory = threadFactory;
+    this.gcmPing = gcmPing;
+  }
+
   public void run(boolean force, boolean obfuscate, OutputStream optionalOutput) throws IOException {
 
     RemoteFilesEntityFetcherFactory.setBuilder(new RemoteFilesEntityFetcherFactory.FetcherBuilder() {
@@ -70,32 +108,53 @@ public class APIUpdater {
 
         @Override
         public EntityFetcher build() {
-            return new CloudStorageRemoteFilesEntityFetcher(filenames);
+            return new CloudStorageRemoteFilesEntityFetcher(fileManager, filenames);
         }
     });
 
-    UpdateRunLogger logger = new UpdateRunLogger();
-    CloudFileManager fileManager = new CloudFileManager();
-    
+    // Fetch all sources concurrently. On App Engine, threads must be created by the
+    // request thread factory and cannot outlive the request.
+    ExecutorService fetchExecutor = Executors.newFixedThreadPool(Config.FETCH_MAX_CONCURRENCY,
+        threadFactory);
+    JsonDataSources sources;
     logger.startTimer();
-    JsonDataSources sources = new ExtraInput().fetchAllDataSources();
-    logger.stopTimer("fetchExtraAPI");
+    try {
+      sources = DataSourceInput.fetchAllDataSources(fetchExecutor, Config.FETCH_TIMEOUT_MILLIS,
+          logger, new ExtraInput(), new VendorStaticInput());
+    } finally {
+      fetchExecutor.shutdownNow();
+    }
+    logger.stopTimer("fetchAllSources");
 
+    // If neither the raw inputs nor the configuration changed since the last run, the output
+    // cannot have changed either, so there is no need to even extract it.
     logger.startTimer();
-    sources.putAll(new VendorStaticInput().fetchAllDataSources());
-    logger.stopTimer("fetchVendorStaticAPI");
+    TreeMap<String, byte[]> sourceFingerprints = sources.getFingerprints();
+    byte[] inputHash = calculateInputHash(sourceFingerprints, obfuscate);
+    Entity lastRun = logger.getLastRun();
+    if (!force && isUpToDate(lastRun, "inputHash", inputHash)) {
+      logger.logNoopRun();
+      return;
+    }
+    logger.stopTimer("compareInputHash");
 
+    // The data is extracted once. The upload, the delta, the data check and the run log all work
+    // on this tree, which is the only copy of the output kept in memory. It is hashed by
+    // serializing it into the digest, without buffering the serialized bytes.
     logger.startTimer();
     JsonObject newData = new DataExtractor(obfuscate).extractFromDataSources(sources);
     logger.stopTimer("extractOurData");
 
     logger.startTimer();
     byte[] newHash = CloudFileManager.calulateHash(newData);
-    logger.stopTimer("calculateHash");
+    logger.stopTimer("hashOurData");
 
     // compare current Vendor API log with the one from previous run:
     logger.startTimer();
-    if (!force && isUpToDate(newHash, logger)) {
+    if (!force && isUpToDate(lastRun, "hash", newHash)) {
+      // The inputs changed in a way that does not affect the output. Remember them, so that
+      // next runs with the same inputs stop earlier.
+      logger.updateInputHash(lastRun, inputHash);
       logger.logNoopRun();
       return;
     }
@@ -120,18 +179,37 @@ public class APIUpdater {
       optionalOutputWriter.flush();
     } else {
       // save data to the CloudStorage
-      fileManager.createOrUpdate(dataProduction.sessionsFilename, newData, false);
+      fileManager.createOrUpdate(dataProduction.sessionsFilename, newData, newHash, false);
     }
     logger.stopTimer("uploadNewSessionsFile");
 
+    JsonArray deltaFiles = new JsonArray();
+    if (optionalOutput == null) {
+      logger.startTimer();
+      JsonObject delta = createDelta(dataProduction, newData);
+      if (delta != null) {
+        deltaFiles.add(delta);
+      }
+      logger.stopTimer("uploadDeltaFile");
+    }
+
     // Check data consistency
     logger.startTimer();
-    DataCheck checker = new DataCheck(fileManager);
-    CheckResult result = checker.check(sources, newData, dataProduction);
+    ExecutorService checkExecutor = Executors.newFixedThreadPool(Config.CHECK_MAX_CONCURRENCY,
+        threadFactory);
+    CheckResult result;
+    try {
+      result = new DataCheck(fileManager, checkExecutor).check(sources, newData, dataProduction);
+    } finally {
+      checkExecutor.shutdownNow();
+    }
     if (!result.failures.isEmpty()) {
       reportDataCheckFailures(result, optionalOutput);
     }
     logger.stopTimer("runDataCheck");
+    for (Map.Entry<String, Long> ruleTiming: result.ruleTimings.entrySet()) {
+      logger.logTimer("check_" + ruleTiming.getKey(), ruleTiming.getValue());
+    }
 
     if (optionalOutput == null) {
       // Only update manifest and log if saving to persistent storage
@@ -142,6 +220,7 @@ public class APIUpdater {
       JsonObject newProductionManifest = new JsonObject();
       newProductionManifest.add("format", new JsonPrimitive(Config.MANIFEST_FORMAT_VERSION));
       newProductionManifest.add("data_files", dataProduction.dataFiles);
+      newProductionManifest.add("delta_files", deltaFiles);
 
       JsonObject newStagingManifest = new JsonObject();
       newStagingManifest.add("format", new JsonPrimitive(Config.MANIFEST_FORMAT_VERSION));
@@ -151,21 +230,55 @@ public class APIUpdater {
       fileManager.createOrUpdateProductionManifest(newProductionManifest);
       fileManager.createOrUpdateStagingManifest(newStagingManifest);
 
-      try {
-        // notify production GCM server:
-        new GCMPing().notifyGCMServer(Config.GCM_URL, Config.GCM_API_KEY);
-      } catch (Throwable t) {
-        Logger.getLogger(APIUpdater.class.getName()).log(Level.SEVERE, "Error while pinging GCM server", t);
+      if (gcmPing != null) {
+        try {
+          // notify production GCM server:
+          gcmPing.notifyGCMServer(Config.GCM_URL, Config.GCM_API_KEY);
+        } catch (Throwable t) {
+          Logger.getLogger(APIUpdater.class.getName()).log(Level.SEVERE, "Error while pinging GCM server", t);
+        }
       }
 
       logger.stopTimer("uploadManifest");
 
       logger.logUpdateRun(dataProduction.majorVersion, dataProduction.minorVersion,
-          dataProduction.sessionsFilename, newHash, newData, force);
+          dataProduction.sessionsFilename, newHash, inputHash, sourceFingerprints, newData, force);
     }
 
   }
 
+  /**
+   * Saves the delta between the previous session file and the new data.
+   *
+   * @return the manifest entry for the delta file, or null if no delta could be created
+   */
+  private JsonObject createDelta(ManifestData manifest, JsonObject newData) throws IOException {
+    if (manifest.previousSessionsFilename == null) {
+      return null;
+    }
+    JsonObject previousData = fileManager.readFileAsJsonObject(manifest.previousSessionsFilename);
+    if (previousData == null) {
+      Logger.getLogger(getClass().getName()).warning("Not creating a delta file, previous "
+          + "session file "+manifest.previousSessionsFilename+" could not be read.");
+      return null;
+    }
+    JsonObject delta = DataDelta.compute(manifest.previousSessionsFilename, previousData, newData);
+    if (delta == null) {
+      Logger.getLogger(getClass().getName()).warning("Not creating a delta file, some entities "
+          + "have no id.");
+      return null;
+    }
+    String deltaFilename = MessageFormat.format(Config.SESSIONS_DELTA_FORMAT,
+        manifest.majorVersion, manifest.minorVersion);
+    fileManager.createOrUpdate(deltaFilename, delta, false);
+
+    JsonObject entry = new JsonObject();
+    entry.add("file", new JsonPrimitive(deltaFilename));
+    entry.add(DataDelta.BASE_KEY, new JsonPrimitive(manifest.previousSessionsFilename));
+    entry.add(DataDelta.TARGET_KEY, new JsonPrimitive(manifest.sessionsFilename));
+    return entry;
+  }
+
   private void reportDataCheckFailures(CheckResult result, OutputStream optionalOutput) throws IOException {
     StringBuilder errorMessage = new StringBuilder();
     errorMessage.append(
@@ -228,6 +341,7 @@ public class APIUpdater {
             if (copyFrom == null) {
               data.majorVersion = Integer.parseInt(matcher.group(1));
               data.minorVersion = Integer.parseInt(matcher.group(2));
+              data.previousSessionsFilename = filename;
             }
           } else {
             data.dataFiles.add(file);
@@ -255,11 +369,13 @@ public class APIUpdater {
   }
 
 
-  private boolean isUpToDate(byte[] newHash, UpdateRunLogger logger) {
-    Entity lastUpdate = logger.getLastRun();
+  private boolean isUpToDate(Entity lastUpdate, String hashProperty, byte[] newHash) {
+    if (newHash == null) {
+      return false;
+    }
     byte[] currentHash = null;
     if (lastUpdate != null) {
-      ShortBlob hash = (ShortBlob) lastUpdate.getProperty("hash");
+      ShortBlob hash = (ShortBlob) lastUpdate.getProperty(hashProperty);
       if (hash != null) {
         currentHash = hash.getBytes();
       }
@@ -268,4 +384,33 @@ public class APIUpdater {
     return Arrays.equals(currentHash, newHash);
   }
 
+  /**
+   * Combines the fingerprints of all sources with everything else that affects the output of
+   * the extraction: the configuration, the deployed code version and whether the conference
+   * is over (livestream URLs are dropped after it).
+   *
+   * @return the combined hash, or null if some source has no fingerprint
+   */
+  private byte[] calculateInputHash(TreeMap<String, byte[]> sourceFingerprints,
+      boolean obfuscate) {
+    if (sourceFingerprints == null) {
+      return null;
+    }
+    long endOfConference = Config.CONFERENCE_DAYS[Config.CONFERENCE_DAYS.length-1][1];
+    String config = "obfuscate=" + obfuscate
+        + ",debugFixData=" + Config.DEBUG_FIX_DATA
+        + ",manifestVersion=" + Config.MANIFEST_VERSION
+        + ",timeTravelShift=" + Config.TIME_TRAVEL_SHIFT
+        + ",conferenceEnded=" + (System.currentTimeMillis() > endOfConference)
+        + ",appVersion=" + SystemProperty.applicationVersion.get();
+    MessageDigest digest = CloudFileManager.newHashDigest();
+    Charset utf8 = Charset.forName("UTF-8");
+    digest.update(config.getBytes(utf8));
+    for (Map.Entry<String, byte[]> fingerprint: sourceFingerprints.entrySet()) {
+      digest.update(fingerprint.getKey().getBytes(utf8));
+      digest.update(fingerprint.getValue());
+    }
+    return digest.digest();
+  }
+
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+
+import java.util.List;
+
+/**
+ * {@link UpdateRunStore} backed by the App Engine Datastore.
+ */
+public class DatastoreUpdateRunStore implements UpdateRunStore {
+
+  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  @Override
+  public List<Entity> getMostRecentRuns(String kind, int number) {
+    Query query = new Query(kind).addSort("date", Query.SortDirection.DESCENDING);
+    return datastore.prepare(query).asList(FetchOptions.Builder.withLimit(number));
+  }
+
+  @Override
+  public void put(Entity run) {
+    datastore.put(run);
+  }
+}
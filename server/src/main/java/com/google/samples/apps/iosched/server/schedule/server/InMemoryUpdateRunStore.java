@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server;
+
+import com.google.appengine.api.datastore.Entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link UpdateRunStore} that keeps runs in memory, used to run the updater outside of App
+ * Engine, e.g. in tests and benchmarks.
+ */
+public class InMemoryUpdateRunStore implements UpdateRunStore {
+
+  private final List<Entity> runs = new ArrayList<Entity>();
+
+  @Override
+  public synchronized List<Entity> getMostRecentRuns(String kind, int number) {
+    List<Entity> result = new ArrayList<Entity>();
+    // runs are stored in the order they were first put, which is also their date order
+    for (int i = runs.size() - 1; i >= 0 && result.size() < number; i--) {
+      if (runs.get(i).getKind().equals(kind)) {
+        result.add(runs.get(i));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized void put(Entity run) {
+    // entities without a datastore key are not equal to anything but themselves
+    for (Entity stored: runs) {
+      if (stored == run) {
+        return;
+      }
+    }
+    runs.add(run);
+  }
+}
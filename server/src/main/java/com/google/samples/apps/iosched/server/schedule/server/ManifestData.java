@@ -26,6 +26,8 @@ public class ManifestData {
   public int minorVersion;
   public int majorVersion;
   public String sessionsFilename;
+  /** Session file listed in the manifest this one replaces, or null if there was none. */
+  public String previousSessionsFilename;
   public JsonArray dataFiles;
 
   public void setFromDataFiles(JsonArray files) {
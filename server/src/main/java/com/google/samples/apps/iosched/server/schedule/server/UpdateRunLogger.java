@@ -15,11 +15,7 @@
  */
 package com.google.samples.apps.iosched.server.schedule.server;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.ShortBlob;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -27,6 +23,7 @@ import com.google.gson.JsonObject;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.logging.Logger;
 
@@ -40,12 +37,17 @@ public class UpdateRunLogger {
   private static final String UPDATERUN_ENTITY_KIND = "UpdateRun";
   private final Logger logger = Logger.getLogger(UpdateRunLogger.class.getName());
 
-  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final UpdateRunStore store;
 
   private long lastStart;
   private HashMap<String, Long> timers;
 
   public UpdateRunLogger() {
+    this(new DatastoreUpdateRunStore());
+  }
+
+  public UpdateRunLogger(UpdateRunStore store) {
+    this.store = store;
     timers = new HashMap<String, Long>();
   }
 
@@ -54,12 +56,18 @@ public class UpdateRunLogger {
   }
 
   public void stopTimer(String description) {
-    timers.put((timers.size()+1)+"_"+description, System.currentTimeMillis() - lastStart);
+    logTimer(description, System.currentTimeMillis() - lastStart);
+  }
+
+  /**
+   * Records a timing measured elsewhere, e.g. by a data source fetched on a worker thread.
+   */
+  public synchronized void logTimer(String description, long elapsedMillis) {
+    timers.put((timers.size()+1)+"_"+description, elapsedMillis);
   }
 
   public Entity getLastRun() {
-    Query query = new Query(UPDATERUN_ENTITY_KIND).addSort("date", Query.SortDirection.DESCENDING);
-    List<Entity> result = datastore.prepare(query).asList(FetchOptions.Builder.withLimit(1));
+    List<Entity> result = store.getMostRecentRuns(UPDATERUN_ENTITY_KIND, 1);
     if (result == null || result.isEmpty()) {
       return null;
     }
@@ -67,19 +75,38 @@ public class UpdateRunLogger {
   }
 
   public List<Entity> getMostRecentRuns(int number) {
-    Query query = new Query(UPDATERUN_ENTITY_KIND).addSort("date", Query.SortDirection.DESCENDING);
-    return datastore.prepare(query).asList(FetchOptions.Builder.withLimit(number));
+    return store.getMostRecentRuns(UPDATERUN_ENTITY_KIND, number);
   }
 
   public void logNoopRun() {
     logger.fine("Run APIUpdater. No updates required.");
   }
 
-  public void logUpdateRun(int majorVersion, int minorVersion, String filename, byte[] hash,
-      JsonObject data, boolean forced) {
+  /**
+   * Records the hash of the inputs of a run that found its output was up to date, so that
+   * following runs with the same inputs can stop before extracting the data.
+   */
+  public void updateInputHash(Entity lastRun, byte[] inputHash) {
+    if (lastRun != null && inputHash != null) {
+      lastRun.setProperty("inputHash", new ShortBlob(inputHash));
+      store.put(lastRun);
+    }
+  }
+
+  public synchronized void logUpdateRun(int majorVersion, int minorVersion, String filename, byte[] hash,
+      byte[] inputHash, Map<String, byte[]> sourceFingerprints, JsonObject data, boolean forced) {
     Entity updateRun = new Entity(UPDATERUN_ENTITY_KIND);
     updateRun.setProperty("date", new Date());
     updateRun.setProperty("hash", new ShortBlob(hash));
+    if (inputHash != null) {
+      updateRun.setProperty("inputHash", new ShortBlob(inputHash));
+    }
+    if (sourceFingerprints != null) {
+      for (Entry<String, byte[]> fingerprint: sourceFingerprints.entrySet()) {
+        updateRun.setProperty("fingerprint_"+fingerprint.getKey(),
+            new ShortBlob(fingerprint.getValue()));
+      }
+    }
     updateRun.setProperty("forced", forced);
     updateRun.setProperty("majorVersion", majorVersion);
     updateRun.setProperty("minorVersion", minorVersion);
@@ -98,7 +125,7 @@ public class UpdateRunLogger {
       sb.deleteCharAt(sb.length()-1);
     }
     updateRun.setProperty("summary", sb.toString());
-    datastore.put(updateRun);
+    store.put(updateRun);
     timers.clear();
   }
 }
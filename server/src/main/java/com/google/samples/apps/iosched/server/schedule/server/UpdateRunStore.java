@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server;
+
+import com.google.appengine.api.datastore.Entity;
+
+import java.util.List;
+
+/**
+ * Storage for the UpdateRun entities written by {@link UpdateRunLogger}.
+ */
+public interface UpdateRunStore {
+
+  /**
+   * @return up to number runs of the given kind, most recent first
+   */
+  List<Entity> getMostRecentRuns(String kind, int number);
+
+  void put(Entity run);
+}
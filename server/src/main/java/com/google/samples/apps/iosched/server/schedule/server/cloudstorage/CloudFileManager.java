@@ -15,77 +15,128 @@
  */
 package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
 
-import com.google.appengine.api.appidentity.AppIdentityService;
-import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
 import com.google.appengine.api.utils.SystemProperty;
-import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
 import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
-import com.google.appengine.tools.cloudstorage.GcsInputChannel;
-import com.google.appengine.tools.cloudstorage.GcsOutputChannel;
-import com.google.appengine.tools.cloudstorage.GcsService;
-import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
-import com.google.appengine.tools.cloudstorage.RetryParams;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 import com.google.samples.apps.iosched.server.schedule.Config;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.RemoteJsonHelper;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.nio.channels.Channels;
 import java.nio.charset.Charset;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Handle all interaction with GoogleCloudStorage.
+ * Handle all interaction with GoogleCloudStorage, through a {@link FileStore}.
  *
  */
 public class CloudFileManager {
 
   private static final String DEFAULT_CHARSET_NAME = "UTF-8";
 
-  private final GcsService gcsService = GcsServiceFactory.createGcsService(
-      RetryParams.getDefaultInstance());
+  /**
+   * Custom metadata holding the hex MD5 of the uncompressed contents of each file.
+   */
+  public static final String CONTENT_HASH_METADATA = "content-hash";
+  public static final String GZIP_ENCODING = "gzip";
 
+  private final FileStore fileStore;
   private final String defaultBucket;
   private final GcsFilename productionManifestFile;
   private final GcsFilename stagingManifestFile;
 
   public CloudFileManager() {
-    defaultBucket = Config.CLOUD_STORAGE_BUCKET;
+    this(new GcsFileStore(Config.CLOUD_STORAGE_BUCKET));
+  }
+
+  public CloudFileManager(FileStore fileStore) {
+    this.fileStore = fileStore;
+    defaultBucket = fileStore.getBucketName();
     productionManifestFile = new GcsFilename(defaultBucket, Config.MANIFEST_NAME);
     stagingManifestFile = new GcsFilename(defaultBucket, Config.MANIFEST_NAME_STAGING);
   }
 
   static public byte[] calulateHash(JsonElement contents) {
-    MessageDigest md;
+    MessageDigest digest = newHashDigest();
+    JsonWriter writer = newHashingJsonWriter(digest);
     try {
-      md = MessageDigest.getInstance("MD5");
+      new Gson().toJson(contents, writer);
+      // flush, otherwise the tail of the document still buffered in the writer is not hashed
+      writer.flush();
+    } catch (IOException e) {
+      throw new InternalError("Unexpected IOException while writing to a digest");
+    }
+    return digest.digest();
+  }
+
+  /**
+   * @return a new instance of the digest used to compare the contents of different runs
+   */
+  static public MessageDigest newHashDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
     } catch (NoSuchAlgorithmException e) {
       throw new InternalError("MD5 MessageDigest is not available");
     }
+  }
+
+  /**
+   * Creates a writer that produces the same bytes as {@code new Gson().toJson(element, writer)},
+   * and therefore the same hash as {@link #calulateHash(JsonElement)}. Wrap the output stream
+   * in a {@link DigestOutputStream} to hash the contents while they are written.
+   */
+  static public JsonWriter newJsonWriter(OutputStream out) {
+    JsonWriter writer = new JsonWriter(new OutputStreamWriter(out,
+        Charset.forName(DEFAULT_CHARSET_NAME)));
+    writer.setHtmlSafe(true);
+    writer.setSerializeNulls(false);
+    return writer;
+  }
+
+  /**
+   * Creates a writer like {@link #newJsonWriter(OutputStream)} that only feeds the written bytes
+   * to {@code digest}, without keeping them. Flush the writer before reading the digest.
+   */
+  static public JsonWriter newHashingJsonWriter(MessageDigest digest) {
     OutputStream byteSink = new OutputStream() {
       @Override
       public void write(int b) throws IOException {
         // ignore, since this is only used to calculate MD5
       }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        // ignore, since this is only used to calculate MD5
+      }
     };
-    DigestOutputStream dis = new DigestOutputStream(byteSink, md);
-    new Gson().toJson(contents, new OutputStreamWriter(dis, Charset.forName(DEFAULT_CHARSET_NAME)));
-    return dis.getMessageDigest().digest();
+    return newJsonWriter(new DigestOutputStream(byteSink, digest));
   }
 
   /**
    * Create or update a file in a GCC bucket, using the default ACL for the bucket.
    *
+   * <p>The file is stored gzip-encoded with a Content-Encoding header, so clients download the
+   * compressed bytes. Compression is deterministic, so the ETag CloudStorage derives from the
+   * stored bytes changes only when the contents do, and clients can revalidate with
+   * If-None-Match. The MD5 of the uncompressed contents is kept in the
+   * {@link #CONTENT_HASH_METADATA} metadata.
+   *
    * @param filename Name of file to create
    * @param contents File contents
    * @param shortCache If true, sets cache expiry to 0 sec. Otherwise, cache expiry is set to 6,000 sec.
@@ -93,22 +144,54 @@ public class CloudFileManager {
    */
   public void createOrUpdate(String filename, JsonElement contents, boolean shortCache)
       throws IOException {
-    GcsFilename file = new GcsFilename(defaultBucket, filename);
-    GcsFileOptions options = new GcsFileOptions.Builder()
-      .mimeType("application/json")
-      .cacheControl("public, max-age="+(shortCache?0:6000))
-      .build();
-    GcsOutputChannel writeChannel = null;
+    // The hash is needed before the file is opened, so the contents are serialized once into a
+    // compressed buffer, and the uncompressed bytes are hashed on the way.
+    MessageDigest digest = newHashDigest();
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+    Writer writer = new OutputStreamWriter(new DigestOutputStream(gzip, digest),
+        Charset.forName(DEFAULT_CHARSET_NAME));
+    new Gson().toJson(contents, writer);
+    writer.flush();
+    gzip.close();
+    fileStore.write(filename, getFileOptions(shortCache, digest.digest()),
+        compressed.toByteArray());
+  }
+
+  /**
+   * Like {@link #createOrUpdate(String, JsonElement, boolean)}, for callers that already know
+   * the hash of the contents, see {@link #calulateHash(JsonElement)}. The contents are
+   * serialized straight into the compressed file.
+   */
+  public void createOrUpdate(String filename, JsonElement contents, byte[] contentHash,
+      boolean shortCache) throws IOException {
+    OutputStream out = fileStore.openForWrite(filename, getFileOptions(shortCache, contentHash));
     try {
-      writeChannel = gcsService.createOrReplace(file, options);
-      Writer writer = Channels.newWriter(writeChannel, DEFAULT_CHARSET_NAME);
+      GZIPOutputStream gzip = new GZIPOutputStream(out);
+      Writer writer = new OutputStreamWriter(gzip, Charset.forName(DEFAULT_CHARSET_NAME));
       new Gson().toJson(contents, writer);
       writer.flush();
+      gzip.finish();
     } finally {
-      if (writeChannel != null) {
-        writeChannel.close();
-      }
+      out.close();
+    }
+  }
+
+  private GcsFileOptions getFileOptions(boolean shortCache, byte[] contentHash) {
+    return new GcsFileOptions.Builder()
+      .mimeType("application/json")
+      .contentEncoding(GZIP_ENCODING)
+      .cacheControl("public, max-age="+(shortCache?0:6000))
+      .addUserMetadata(CONTENT_HASH_METADATA, toHex(contentHash))
+      .build();
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b: bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
     }
+    return sb.toString();
   }
 
   public String getBucketName() {
@@ -124,11 +207,11 @@ public class CloudFileManager {
   }
 
   public JsonObject readProductionManifest() throws IOException {
-    return readFileAsJsonObject(productionManifestFile);
+    return readFileAsJsonObject(productionManifestFile.getObjectName());
   }
 
   public JsonObject readStagingManifest() throws IOException {
-    return readFileAsJsonObject(stagingManifestFile);
+    return readFileAsJsonObject(stagingManifestFile.getObjectName());
   }
 
   public void createOrUpdateProductionManifest(JsonObject contents) throws IOException {
@@ -140,29 +223,39 @@ public class CloudFileManager {
   }
 
   public JsonObject readFileAsJsonObject(String filename) throws IOException {
-    return readFileAsJsonObject(new GcsFilename(defaultBucket, filename));
-  }
-
-  public JsonObject readFileAsJsonObject(GcsFilename file) throws IOException {
-    GcsFileMetadata metadata = gcsService.getMetadata(file);
-    if (metadata == null) {
+    InputStream in = fileStore.openForRead(filename);
+    if (in == null) {
       if (SystemProperty.environment.value() == SystemProperty.Environment.Value.Development) {
         // In the development server, try to fetch files on cloud storage via HTTP
-        Logger.getAnonymousLogger().info("fetching "+file.getObjectName()+" at "+Config.CLOUD_STORAGE_BASE_URL+file.getObjectName());
-        return RemoteJsonHelper.fetchJsonFromPublicURL(Config.CLOUD_STORAGE_BASE_URL+file.getObjectName());
+        Logger.getAnonymousLogger().info("fetching "+filename+" at "+Config.CLOUD_STORAGE_BASE_URL+filename);
+        return RemoteJsonHelper.fetchJsonFromPublicURL(Config.CLOUD_STORAGE_BASE_URL+filename);
       }
       return null;
     }
-    GcsInputChannel readChannel = null;
     try {
-      readChannel = gcsService.openReadChannel(file, 0);
-      JsonElement element = new JsonParser().parse(Channels.newReader(readChannel,
-          DEFAULT_CHARSET_NAME));
+      // files written before compression was introduced, or uploaded by hand, are plain JSON
+      in = decodeIfGzipped(in);
+      JsonElement element = new JsonParser().parse(new InputStreamReader(in,
+          Charset.forName(DEFAULT_CHARSET_NAME)));
       return element.getAsJsonObject();
     } finally {
-      if (readChannel != null) {
-        readChannel.close();
-      }
+      in.close();
+    }
+  }
+
+  /**
+   * CloudStorage returns the stored bytes as they are, so gzip-encoded files must be decoded
+   * here. They are recognized by the gzip magic number.
+   */
+  private static InputStream decodeIfGzipped(InputStream in) throws IOException {
+    InputStream buffered = in.markSupported() ? in : new BufferedInputStream(in);
+    buffered.mark(2);
+    int first = buffered.read();
+    int second = buffered.read();
+    buffered.reset();
+    if (first == 0x1f && second == 0x8b) {
+      return new GZIPInputStream(buffered);
     }
+    return buffered;
   }
 }
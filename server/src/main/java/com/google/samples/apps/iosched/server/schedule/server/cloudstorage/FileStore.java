@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
+
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Storage for the files read and written by {@link CloudFileManager}. Production uses
+ * {@link GcsFileStore}, tests and benchmarks can use {@link LocalFileStore} instead.
+ */
+public interface FileStore {
+
+  /**
+   * @return the name of the bucket holding the files, used to build their public URLs
+   */
+  String getBucketName();
+
+  /**
+   * Creates or replaces a file with the given contents.
+   */
+  void write(String filename, GcsFileOptions options, byte[] contents) throws IOException;
+
+  /**
+   * Creates or replaces a file. The file is complete when the returned stream is closed.
+   */
+  OutputStream openForWrite(String filename, GcsFileOptions options) throws IOException;
+
+  /**
+   * @return a stream on the file contents, or null if the file does not exist
+   */
+  InputStream openForRead(String filename) throws IOException;
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
+
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
+import com.google.appengine.tools.cloudstorage.RetryParams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+/**
+ * {@link FileStore} backed by a GoogleCloudStorage bucket.
+ */
+public class GcsFileStore implements FileStore {
+
+  private final GcsService gcsService = GcsServiceFactory.createGcsService(
+      RetryParams.getDefaultInstance());
+
+  private final String bucket;
+
+  public GcsFileStore(String bucket) {
+    this.bucket = bucket;
+  }
+
+  @Override
+  public String getBucketName() {
+    return bucket;
+  }
+
+  @Override
+  public void write(String filename, GcsFileOptions options, byte[] contents)
+      throws IOException {
+    gcsService.createOrReplace(new GcsFilename(bucket, filename), options,
+        ByteBuffer.wrap(contents));
+  }
+
+  @Override
+  public OutputStream openForWrite(String filename, GcsFileOptions options) throws IOException {
+    return Channels.newOutputStream(
+        gcsService.createOrReplace(new GcsFilename(bucket, filename), options));
+  }
+
+  @Override
+  public InputStream openForRead(String filename) throws IOException {
+    GcsFilename file = new GcsFilename(bucket, filename);
+    GcsFileMetadata metadata = gcsService.getMetadata(file);
+    if (metadata == null) {
+      return null;
+    }
+    return Channels.newInputStream(gcsService.openReadChannel(file, 0));
+  }
+}
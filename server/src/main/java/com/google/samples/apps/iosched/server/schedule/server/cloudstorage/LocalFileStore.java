@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
+
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link FileStore} backed by a local directory, used to run the updater outside of App Engine,
+ * e.g. in tests and benchmarks. File options are ignored.
+ */
+public class LocalFileStore implements FileStore {
+
+  private final File directory;
+
+  public LocalFileStore(File directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public String getBucketName() {
+    return directory.getName();
+  }
+
+  @Override
+  public void write(String filename, GcsFileOptions options, byte[] contents)
+      throws IOException {
+    OutputStream out = openForWrite(filename, options);
+    try {
+      out.write(contents);
+    } finally {
+      out.close();
+    }
+  }
+
+  @Override
+  public OutputStream openForWrite(String filename, GcsFileOptions options) throws IOException {
+    File file = new File(directory, filename);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory "+directory);
+    }
+    return new BufferedOutputStream(new FileOutputStream(file));
+  }
+
+  @Override
+  public InputStream openForRead(String filename) throws IOException {
+    File file = new File(directory, filename);
+    if (!file.isFile()) {
+      return null;
+    }
+    return new BufferedInputStream(new FileInputStream(file));
+  }
+}
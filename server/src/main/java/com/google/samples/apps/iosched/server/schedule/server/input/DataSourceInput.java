@@ -22,8 +22,19 @@ import com.google.samples.apps.iosched.server.schedule.input.fetcher.EntityFetch
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.VendorAPIEntityFetcher;
 import com.google.samples.apps.iosched.server.schedule.model.JsonDataSource;
 import com.google.samples.apps.iosched.server.schedule.model.JsonDataSources;
+import com.google.samples.apps.iosched.server.schedule.server.UpdateRunLogger;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,15 +65,116 @@ public abstract class DataSourceInput<EnumType extends Enum<EnumType>> {
   public JsonDataSources fetchAllDataSources() throws IOException {
     JsonDataSources sources = new JsonDataSources();
     for (EnumType type: getType().getEnumConstants()) {
-      JsonArray data = fetch(type);
-      if (LOG.isLoggable(Level.INFO)) {
-        LOG.info("result for "+type+": entities="+data.size());
-      }
-      sources.addSource(new JsonDataSource(type, data));
+      sources.addSource(fetchSource(type));
     }
     return sources;
   }
 
+  /**
+   * Same as {@link #fetchAllDataSources()}, but each entity type is fetched as a separate task
+   * on the given executor.
+   *
+   * @see #fetchAllDataSources(ExecutorService, long, UpdateRunLogger, DataSourceInput[])
+   */
+  public JsonDataSources fetchAllDataSources(ExecutorService executor, long timeoutMillis,
+      UpdateRunLogger logger) throws IOException {
+    return fetchAllDataSources(executor, timeoutMillis, logger, this);
+  }
+
+  /**
+   * Fetches all entity types of all the given inputs concurrently, so that the latency of the
+   * run is bounded by the slowest source instead of the sum of all of them. The executor
+   * bounds how many fetches are in flight at the same time.
+   *
+   * @param executor executor where fetches are run
+   * @param timeoutMillis how long to wait for all the sources before failing the whole fetch
+   * @param logger if not null, receives the latency of each source as a "fetch_[type]" timer
+   * @param inputs inputs to fetch. If two inputs share an entity type, the last one wins, as
+   *     with {@link JsonDataSources#putAll(JsonDataSources)}
+   */
+  public static JsonDataSources fetchAllDataSources(ExecutorService executor, long timeoutMillis,
+      UpdateRunLogger logger, DataSourceInput<?>... inputs) throws IOException {
+    List<Enum<?>> types = new ArrayList<Enum<?>>();
+    List<Future<JsonDataSource>> results = new ArrayList<Future<JsonDataSource>>();
+    try {
+      for (DataSourceInput<?> input: inputs) {
+        input.submitAll(executor, logger, types, results);
+      }
+      JsonDataSources sources = new JsonDataSources();
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      for (int i=0; i<results.size(); i++) {
+        sources.addSource(awaitResult(results.get(i), deadline, types.get(i)));
+      }
+      return sources;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while fetching data sources");
+    } finally {
+      // no-op for completed tasks, stops the remaining ones if any source failed
+      for (Future<JsonDataSource> result: results) {
+        result.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Waits for a fetch task, unwrapping its failure into the exception the sequential fetch
+   * would have thrown.
+   *
+   * @param deadline time in millis by which the task must be done, shared by all the tasks of a
+   *     fetch so that the total wait is bounded by a single timeout
+   * @param description what is being fetched, used in error messages
+   */
+  static <T> T awaitResult(Future<T> result, long deadline, Object description)
+      throws IOException, InterruptedException {
+    try {
+      long remaining = Math.max(0, deadline - System.currentTimeMillis());
+      return result.get(remaining, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new IOException("Timed out at deadline while fetching " + description, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("Error while fetching "+description, cause);
+    }
+  }
+
+  private void submitAll(ExecutorService executor, final UpdateRunLogger logger,
+      List<Enum<?>> types, List<Future<JsonDataSource>> results) {
+    for (final EnumType type: getType().getEnumConstants()) {
+      types.add(type);
+      results.add(executor.submit(new Callable<JsonDataSource>() {
+        @Override
+        public JsonDataSource call() throws IOException {
+          long start = System.currentTimeMillis();
+          JsonDataSource source = fetchSource(type);
+          if (logger != null) {
+            logger.logTimer("fetch_"+type.name(), System.currentTimeMillis() - start);
+          }
+          return source;
+        }
+      }));
+    }
+  }
+
+  private JsonDataSource fetchSource(EnumType type) throws IOException {
+    JsonArray data = fetch(type);
+    if (LOG.isLoggable(Level.INFO)) {
+      LOG.info("result for "+type+": entities="+data.size());
+    }
+    JsonDataSource source = new JsonDataSource(type, data);
+    if (data != null) {
+      source.setFingerprint(CloudFileManager.calulateHash(data));
+    }
+    return source;
+  }
+
   public JsonArray fetch(EnumType entityType) throws IOException {
     JsonElement element = getFetcher().fetch(entityType, null);
     if (element == null) {
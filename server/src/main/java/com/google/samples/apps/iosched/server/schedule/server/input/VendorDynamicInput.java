@@ -25,7 +25,13 @@ import com.google.samples.apps.iosched.server.schedule.input.fetcher.VendorAPIEn
 import com.google.samples.apps.iosched.server.schedule.model.InputJsonKeys;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Encapsulation of the VendorAPI fetcher.
@@ -33,6 +39,7 @@ import java.util.HashMap;
 public class VendorDynamicInput extends DataSourceInput<InputJsonKeys.VendorAPISource.MainTypes> {
 
   private boolean extractUnpublished = Config.SHOW_UNPUBLISHED_DATA;
+  private ExecutorService pageExecutor;
 
   public VendorDynamicInput() {
     super(new VendorAPIEntityFetcher());
@@ -46,6 +53,16 @@ public class VendorDynamicInput extends DataSourceInput<InputJsonKeys.VendorAPIS
     this.extractUnpublished = extractUnpublished;
   }
 
+  /**
+   * Sets the executor used to fetch the remaining pages of a paged entity type concurrently.
+   * Its pool size is the maximum number of page requests in flight. It must not be the same
+   * executor that runs {@link #fetch}, or page tasks could wait behind their own parent. If
+   * null (the default), pages are fetched one after the other.
+   */
+  public void setPageExecutor(ExecutorService pageExecutor) {
+    this.pageExecutor = pageExecutor;
+  }
+
   @Override
   public Class<InputJsonKeys.VendorAPISource.MainTypes> getType() {
     return InputJsonKeys.VendorAPISource.MainTypes.class;
@@ -56,34 +73,19 @@ public class VendorDynamicInput extends DataSourceInput<InputJsonKeys.VendorAPIS
     return fetchArray(entityType, 1);
   }
 
+  /**
+   * Fetches all entities of the given type, starting at the given page. The first response
+   * tells how many pages there are, so all remaining pages are requested at once (on the page
+   * executor, if there is one) and appended in page order.
+   */
   public JsonArray fetchArray(InputJsonKeys.VendorAPISource.MainTypes entityType,
       int page) throws IOException {
 
-    HashMap<String, String> params = null;
-
-    if (entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.topics) || entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.speakers)) {
-      params = new HashMap<String, String>();
-
-      // Topics and speakers require param "includeinfo=true" to bring extra data
-      params.put("includeinfo", "true");
-
-      if (entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.topics)) {
-        if (extractUnpublished) {
-          params.put("minpublishstatus", "0");
-        }
-      }
-    }
-
     if (page == 0) {
       page = 1;
-    } else if (page > 1) {
-      if (params == null) {
-        params = new HashMap<String, String>();
-      }
-      params.put("page", Integer.toString(page));
     }
 
-    JsonElement element = getFetcher().fetch(entityType, params);
+    JsonElement element = getFetcher().fetch(entityType, getParams(entityType, page));
 
     if (element.isJsonArray()) {
         return element.getAsJsonArray();
@@ -95,9 +97,11 @@ public class VendorDynamicInput extends DataSourceInput<InputJsonKeys.VendorAPIS
       int pageSize = obj.get("pagesize").getAsInt();
       int totalEntities = obj.get("total").getAsInt();
       JsonArray elements = getEntities(obj);
-      if (page*pageSize < totalEntities) {
-        // fetch the next page
-        elements.addAll(fetchArray(entityType, page+1));
+      if (pageSize > 0 && page*pageSize < totalEntities) {
+        int lastPage = (totalEntities + pageSize - 1) / pageSize;
+        for (JsonArray pageElements: fetchPages(entityType, page+1, lastPage)) {
+          elements.addAll(pageElements);
+        }
       }
       return elements;
     } else {
@@ -107,6 +111,88 @@ public class VendorDynamicInput extends DataSourceInput<InputJsonKeys.VendorAPIS
     }
   }
 
+  /**
+   * Fetches pages firstPage..lastPage (inclusive) and returns their entities in page order.
+   */
+  private List<JsonArray> fetchPages(final InputJsonKeys.VendorAPISource.MainTypes entityType,
+      int firstPage, int lastPage) throws IOException {
+    List<JsonArray> pages = new ArrayList<JsonArray>(lastPage - firstPage + 1);
+    if (pageExecutor == null) {
+      for (int page = firstPage; page <= lastPage; page++) {
+        pages.add(fetchPage(entityType, page));
+      }
+      return pages;
+    }
+
+    List<Future<JsonArray>> results = new ArrayList<Future<JsonArray>>(lastPage - firstPage + 1);
+    try {
+      for (int page = firstPage; page <= lastPage; page++) {
+        final int requestedPage = page;
+        results.add(pageExecutor.submit(new Callable<JsonArray>() {
+          @Override
+          public JsonArray call() throws IOException {
+            return fetchPage(entityType, requestedPage);
+          }
+        }));
+      }
+      long deadline = System.currentTimeMillis() + Config.FETCH_TIMEOUT_MILLIS;
+      for (int i = 0; i < results.size(); i++) {
+        pages.add(awaitResult(results.get(i), deadline,
+            entityType + " page " + (firstPage + i)));
+      }
+      return pages;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while fetching pages of " + entityType);
+    } finally {
+      for (Future<JsonArray> result: results) {
+        result.cancel(true);
+      }
+    }
+  }
+
+  private JsonArray fetchPage(InputJsonKeys.VendorAPISource.MainTypes entityType, int page)
+      throws IOException {
+    JsonElement element = getFetcher().fetch(entityType, getParams(entityType, page));
+    if (element.isJsonArray()) {
+      return element.getAsJsonArray();
+    } else if (element.isJsonObject()) {
+      JsonObject obj = element.getAsJsonObject();
+      checkPagingConsistency(entityType, page, obj);
+      return getEntities(obj);
+    } else {
+      throw new JsonParseException("Invalid response from Vendor API. Request should return "
+          + "either a JsonArray or a JsonObject, but returned "+element.getClass().getName()
+          +". Entity fetcher is "+getFetcher());
+    }
+  }
+
+  private HashMap<String, String> getParams(InputJsonKeys.VendorAPISource.MainTypes entityType,
+      int page) {
+    HashMap<String, String> params = null;
+
+    if (entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.topics) || entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.speakers)) {
+      params = new HashMap<String, String>();
+
+      // Topics and speakers require param "includeinfo=true" to bring extra data
+      params.put("includeinfo", "true");
+
+      if (entityType.equals(InputJsonKeys.VendorAPISource.MainTypes.topics)) {
+        if (extractUnpublished) {
+          params.put("minpublishstatus", "0");
+        }
+      }
+    }
+
+    if (page > 1) {
+      if (params == null) {
+        params = new HashMap<String, String>();
+      }
+      params.put("page", Integer.toString(page));
+    }
+    return params;
+  }
+
   private void checkPagingConsistency(InputJsonKeys.VendorAPISource.MainTypes entityType,
       int requestedPage, JsonObject obj) {
     if (!obj.has("page") || !obj.has("pagesize") || !obj.has("total") ||
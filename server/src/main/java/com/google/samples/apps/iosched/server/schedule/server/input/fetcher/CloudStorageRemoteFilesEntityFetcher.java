@@ -41,14 +41,19 @@ public class CloudStorageRemoteFilesEntityFetcher implements EntityFetcher {
   private JsonObject object;
 
   public CloudStorageRemoteFilesEntityFetcher(String... filenames) {
-    this.fileManager = new CloudFileManager();
+    this(new CloudFileManager(), filenames);
+  }
+
+  public CloudStorageRemoteFilesEntityFetcher(CloudFileManager fileManager, String... filenames) {
+    this.fileManager = fileManager;
     this.filenames = filenames;
   }
 
   @Override
-  public JsonElement fetch(Enum<?> entityType, Map<String, String> params)
+  public synchronized JsonElement fetch(Enum<?> entityType, Map<String, String> params)
       throws IOException {
-    // On the first call, read all the files
+    // On the first call, read all the files. Synchronized because entity types may be fetched
+    // concurrently, and all of them share the same set of files.
     if (object == null) {
       object = new JsonObject();
       for (String filename: filenames) {
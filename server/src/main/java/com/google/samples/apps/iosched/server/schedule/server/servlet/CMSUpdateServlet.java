@@ -15,6 +15,7 @@
  */
 package com.google.samples.apps.iosched.server.schedule.server.servlet;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.mail.MailService.Message;
 import com.google.appengine.api.mail.MailServiceFactory;
 import com.google.appengine.api.users.UserService;
@@ -33,6 +34,8 @@ import java.io.IOException;
 import java.io.Writer;
 import java.nio.channels.Channels;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -92,7 +95,16 @@ public class CMSUpdateServlet extends HttpServlet {
     // everything ok, let's update
     StringBuilder summary = new StringBuilder();
     JsonObject contents = new JsonObject();
-    JsonDataSources sources = new VendorDynamicInput().fetchAllDataSources();
+    ExecutorService pageExecutor = Executors.newFixedThreadPool(Config.FETCH_MAX_CONCURRENT_PAGES,
+        ThreadManager.currentRequestThreadFactory());
+    JsonDataSources sources;
+    try {
+      VendorDynamicInput input = new VendorDynamicInput();
+      input.setPageExecutor(pageExecutor);
+      sources = input.fetchAllDataSources();
+    } finally {
+      pageExecutor.shutdownNow();
+    }
     for (String entity: sources) {
       JsonArray array = new JsonArray();
       JsonDataSource source = sources.getSource(entity);
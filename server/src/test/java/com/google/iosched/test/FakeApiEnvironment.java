@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.iosched.test;
+
+import com.google.apphosting.api.ApiProxy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal App Engine environment, so that code creating Datastore entities can run outside of
+ * App Engine. No API calls are possible.
+ */
+public class FakeApiEnvironment implements ApiProxy.Environment {
+
+  private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+  /**
+   * Registers a fake environment for the current thread, if there is none yet.
+   */
+  static public void install() {
+    if (ApiProxy.getCurrentEnvironment() == null) {
+      ApiProxy.setEnvironmentForCurrentThread(new FakeApiEnvironment());
+    }
+  }
+
+  @Override
+  public String getAppId() {
+    return "test";
+  }
+
+  @Override
+  public String getModuleId() {
+    return "default";
+  }
+
+  @Override
+  public String getVersionId() {
+    return "1.0";
+  }
+
+  @Override
+  public String getEmail() {
+    return null;
+  }
+
+  @Override
+  public boolean isLoggedIn() {
+    return false;
+  }
+
+  @Override
+  public boolean isAdmin() {
+    return false;
+  }
+
+  @Override
+  public String getAuthDomain() {
+    return null;
+  }
+
+  @Override
+  @Deprecated
+  public String getRequestNamespace() {
+    return "";
+  }
+
+  @Override
+  public Map<String, Object> getAttributes() {
+    return attributes;
+  }
+
+  @Override
+  public long getRemainingMillis() {
+    return Long.MAX_VALUE;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.iosched.test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A request and a response to call servlet methods directly. The request only answers
+ * parameters and headers, the response records its status, headers and written text. Other
+ * methods return null, zero or false.
+ */
+public class FakeServletExchange {
+
+  public final Map<String, String> params = new HashMap<String, String>();
+  public final Map<String, String> requestHeaders = new HashMap<String, String>();
+
+  public int status = HttpServletResponse.SC_OK;
+  public final Map<String, String> responseHeaders = new HashMap<String, String>();
+  public final StringWriter body = new StringWriter();
+
+  private final PrintWriter writer = new PrintWriter(body);
+
+  public FakeServletExchange param(String name, String value) {
+    params.put(name, value);
+    return this;
+  }
+
+  public FakeServletExchange header(String name, String value) {
+    requestHeaders.put(name, value);
+    return this;
+  }
+
+  public HttpServletRequest request() {
+    return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+              case "getParameter":
+                return params.get(args[0]);
+              case "getHeader":
+                return requestHeaders.get(args[0]);
+              default:
+                return defaultValue(method);
+            }
+          }
+        });
+  }
+
+  public HttpServletResponse response() {
+    return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] {HttpServletResponse.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+              case "setStatus":
+              case "sendError":
+                status = (Integer) args[0];
+                return null;
+              case "setHeader":
+              case "addHeader":
+                responseHeaders.put((String) args[0], (String) args[1]);
+                return null;
+              case "setContentType":
+                responseHeaders.put("Content-Type", (String) args[0]);
+                return null;
+              case "getWriter":
+                return writer;
+              default:
+                return defaultValue(method);
+            }
+          }
+        });
+  }
+
+  /**
+   * @return everything written to the response so far
+   */
+  public String getBody() {
+    writer.flush();
+    return body.toString();
+  }
+
+  private static Object defaultValue(Method method) {
+    Class<?> type = method.getReturnType();
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+}
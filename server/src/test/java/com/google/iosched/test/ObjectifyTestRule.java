@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.iosched.test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.googlecode.objectify.ObjectifyService;
+
+import org.junit.rules.ExternalResource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sets up the local App Engine services and an Objectify session around each test, e.g.
+ * {@code @Rule public final ObjectifyTestRule mServices = new ObjectifyTestRule().withMemcache();}
+ *
+ * <p>The datastore applies every write at once, so queries see them, unless
+ * {@link #withEventualConsistency()} is used.
+ */
+public class ObjectifyTestRule extends ExternalResource {
+
+  private final List<LocalServiceTestConfig> configs = new ArrayList<LocalServiceTestConfig>();
+  private boolean eventuallyConsistent;
+
+  private LocalServiceTestHelper helper;
+  private Closeable session;
+
+  public ObjectifyTestRule withMemcache() {
+    configs.add(new LocalMemcacheServiceTestConfig());
+    return this;
+  }
+
+  /**
+   * Adds the queues of the app. Tasks are only queued, tests run them themselves.
+   */
+  public ObjectifyTestRule withTaskQueue() {
+    configs.add(new LocalTaskQueueTestConfig()
+        .setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml")
+        .setDisableAutoTaskExecution(true));
+    return this;
+  }
+
+  /**
+   * Makes queries miss every write until its entity group is read by key, which is what the
+   * production datastore may do for a while.
+   */
+  public ObjectifyTestRule withEventualConsistency() {
+    eventuallyConsistent = true;
+    return this;
+  }
+
+  @Override
+  protected void before() {
+    // Objectify transactions are cross-group, which needs the High Replication datastore
+    LocalDatastoreServiceTestConfig datastore = new LocalDatastoreServiceTestConfig();
+    if (eventuallyConsistent) {
+      datastore.setDefaultHighRepJobPolicyUnappliedJobPercentage(100);
+    } else {
+      datastore.setApplyAllHighRepJobPolicy();
+    }
+    List<LocalServiceTestConfig> all = new ArrayList<LocalServiceTestConfig>(configs);
+    all.add(0, datastore);
+    helper = new LocalServiceTestHelper(all.toArray(new LocalServiceTestConfig[all.size()]));
+    helper.setUp();
+    session = ObjectifyService.begin();
+  }
+
+  @Override
+  protected void after() {
+    try {
+      session.close();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      helper.tearDown();
+    }
+  }
+
+  /**
+   * Completes the pending asynchronous writes and starts with an empty session cache, like
+   * a new request.
+   */
+  public void nextRequest() throws IOException {
+    session.close();
+    session = ObjectifyService.begin();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.admin;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.iosched.test.FakeServletExchange;
+import com.google.samples.apps.iosched.server.gcm.metrics.RequestMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class MetricsServletTest {
+
+    private final LocalServiceTestHelper mHelper =
+            new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() {
+        mHelper.setUp();
+        // counts are static, drop those of earlier tests
+        RequestMetrics.flush();
+        MemcacheServiceFactory.getMemcacheService("RequestMetrics").clearAll();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.tearDown();
+    }
+
+    @Test
+    public void testExportsSharedCountersAsJson() throws IOException {
+        RequestMetrics.recordRequest("TestServlet", 30, 200);
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_NOT_REGISTERED, 2);
+        RequestMetrics.flush();
+        FakeServletExchange exchange = new FakeServletExchange();
+
+        new MetricsServlet().doGet(exchange.request(), exchange.response());
+
+        assertEquals(200, exchange.status);
+        assertEquals("application/json", exchange.responseHeaders.get("Content-Type"));
+        assertEquals("DENY", exchange.responseHeaders.get("X-FRAME-OPTIONS"));
+        JsonObject metrics = new JsonParser().parse(exchange.getBody()).getAsJsonObject();
+        assertEquals(2, metrics.getAsJsonObject("gcm").getAsJsonObject("results")
+                .get(RequestMetrics.GCM_NOT_REGISTERED).getAsLong());
+        assertEquals(1, metrics.getAsJsonObject("TestServlet").getAsJsonObject("status")
+                .get("2xx").getAsLong());
+    }
+
+    @Test
+    public void testExportsEmptyObjectWithoutCounters() throws IOException {
+        FakeServletExchange exchange = new FakeServletExchange();
+
+        new MetricsServlet().doGet(exchange.request(), exchange.response());
+
+        assertEquals("{}", exchange.getBody());
+    }
+}
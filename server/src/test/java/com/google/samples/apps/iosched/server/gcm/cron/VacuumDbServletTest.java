@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.cron;
+
+import static com.google.samples.apps.iosched.server.gcm.db.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo.TaskStateInfo;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.iosched.test.ObjectifyTestRule;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
+import com.google.samples.apps.iosched.server.gcm.db.MessageStore;
+import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.google.samples.apps.iosched.server.gcm.db.models.MulticastMessage;
+import com.google.samples.apps.iosched.server.gcm.db.models.PendingMessage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class VacuumDbServletTest {
+
+    @Rule
+    public final ObjectifyTestRule mServices =
+            new ObjectifyTestRule().withMemcache().withTaskQueue();
+
+    /** Cutoff at which everything stored by the test is stale. */
+    private long mLater;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            MessageStore.createMulticast(Arrays.asList("device" + i), "test", "", true);
+            DeviceStore.register("device" + i, "group");
+        }
+        mServices.nextRequest();
+        mLater = System.currentTimeMillis() + VacuumDbServlet.DEVICE_IDLE_MILLIS + 1000;
+    }
+
+    private static int multicasts() {
+        return ofy().load().type(MulticastMessage.class).count();
+    }
+
+    private static int devices() {
+        return ofy().load().type(Device.class).count();
+    }
+
+    private static List<TaskStateInfo> continuations() {
+        QueueStateInfo queue = LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+                .get("default");
+        return queue.getTaskInfo();
+    }
+
+    @Test
+    public void testAllPhasesArePagedThrough() throws IOException {
+        int deleted = VacuumDbServlet.vacuum(VacuumDbServlet.PHASE_MULTICASTS, null, mLater,
+                Long.MAX_VALUE, 2, true);
+        mServices.nextRequest();
+        assertEquals(10, deleted);
+        assertEquals(0, multicasts());
+        assertEquals(0, devices());
+        assertTrue(continuations().isEmpty());
+    }
+
+    @Test
+    public void testRecentEntitiesAreKept() throws IOException {
+        int deleted = VacuumDbServlet.vacuum(VacuumDbServlet.PHASE_MULTICASTS, null,
+                System.currentTimeMillis(), Long.MAX_VALUE, 2, true);
+        mServices.nextRequest();
+        assertEquals(0, deleted);
+        assertEquals(5, multicasts());
+        assertEquals(5, devices());
+    }
+
+    @Test
+    public void testDevicesAreKeptInTopicMode() throws IOException {
+        int deleted = VacuumDbServlet.vacuum(VacuumDbServlet.PHASE_MULTICASTS, null, mLater,
+                Long.MAX_VALUE, 2, false);
+        mServices.nextRequest();
+        assertEquals(5, deleted);
+        assertEquals(0, multicasts());
+        assertEquals(5, devices());
+    }
+
+    @Test
+    public void testExpiredBudgetQueuesContinuation() throws IOException {
+        String cursor = MessageStore.purgeMulticasts(
+                new Date(mLater - VacuumDbServlet.MULTICAST_TTL_MILLIS), null, 2)
+                .nextCursor;
+        mServices.nextRequest();
+        assertEquals(0, VacuumDbServlet.vacuum(VacuumDbServlet.PHASE_MULTICASTS, cursor, mLater,
+                0, 2, true));
+
+        List<TaskStateInfo> tasks = continuations();
+        assertEquals(1, tasks.size());
+        String url = tasks.get(0).getUrl();
+        assertTrue(url, url.startsWith(VacuumDbServlet.URL + "?"));
+        assertTrue(url, url.contains(VacuumDbServlet.PARAM_PHASE + "="
+                + VacuumDbServlet.PHASE_MULTICASTS));
+        assertTrue(url, url.contains(VacuumDbServlet.PARAM_CUTOFF + "=" + mLater));
+        assertTrue(url, url.contains(VacuumDbServlet.PARAM_CURSOR + "="));
+    }
+
+    @Test
+    public void testContinuationResumesAtCursor() throws IOException {
+        String cursor = MessageStore.purgeMulticasts(
+                new Date(mLater - VacuumDbServlet.MULTICAST_TTL_MILLIS), null, 2)
+                .nextCursor;
+        mServices.nextRequest();
+        assertEquals(3, multicasts());
+        int deleted = VacuumDbServlet.vacuum(VacuumDbServlet.PHASE_MULTICASTS, cursor, mLater,
+                Long.MAX_VALUE, 2, true);
+        mServices.nextRequest();
+        assertEquals(8, deleted);
+        assertEquals(0, multicasts());
+        assertEquals(0, devices());
+    }
+
+    /**
+     * Removes a property from all entities of a kind, like entities stored before it existed.
+     */
+    private static void removeProperty(String kind, String property) {
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        for (Entity entity : datastore.prepare(new Query(kind)).asIterable()) {
+            entity.removeProperty(property);
+            datastore.put(entity);
+        }
+    }
+
+    @Test
+    public void testStaleCoalescingStatesArePurged() throws IOException {
+        PendingMessage stale = new PendingMessage();
+        stale.setId(PendingMessage.createId("group", "sync_user"));
+        stale.setWindowEnd(new Date());
+        PendingMessage open = new PendingMessage();
+        open.setId(PendingMessage.createId("other", "sync_user"));
+        open.setWindowEnd(new Date(mLater));
+        ofy().save().entities(stale, open).now();
+
+        VacuumDbServlet.vacuum(VacuumDbServlet.PHASE_MULTICASTS, null, mLater, Long.MAX_VALUE, 2,
+                false);
+        mServices.nextRequest();
+        List<PendingMessage> left = ofy().load().type(PendingMessage.class).list();
+        assertEquals(1, left.size());
+        assertEquals(open.getId(), left.get(0).getId());
+    }
+
+    @Test
+    public void testEntitiesWithoutTimesArePurgedAfterBackfill() throws IOException {
+        removeProperty("MulticastMessage", "created");
+        removeProperty("Device", "lastActive");
+        mServices.nextRequest();
+        assertEquals(0, VacuumDbServlet.vacuum(VacuumDbServlet.PHASE_MULTICASTS, null, mLater,
+                Long.MAX_VALUE, 2, true));
+
+        long backfilled = System.currentTimeMillis();
+        assertEquals(10, VacuumDbServlet.vacuum(VacuumDbServlet.PHASE_BACKFILL_MULTICASTS, null,
+                backfilled, Long.MAX_VALUE, 2, true));
+        mServices.nextRequest();
+        assertEquals(0, VacuumDbServlet.vacuum(VacuumDbServlet.PHASE_MULTICASTS, null,
+                backfilled, Long.MAX_VALUE, 2, true));
+        assertEquals(10, VacuumDbServlet.vacuum(VacuumDbServlet.PHASE_MULTICASTS, null,
+                backfilled + VacuumDbServlet.DEVICE_IDLE_MILLIS + 1000, Long.MAX_VALUE, 2, true));
+        mServices.nextRequest();
+        assertEquals(0, multicasts());
+        assertEquals(0, devices());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.db;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.iosched.test.ObjectifyTestRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * Checks the cached groups of {@link DeviceStore} against a datastore whose queries lag behind
+ * writes, as in production: the group query misses every device until it is read by key.
+ */
+public class DeviceGroupCacheTest {
+
+    @Rule
+    public final ObjectifyTestRule mServices =
+            new ObjectifyTestRule().withMemcache().withEventualConsistency();
+
+    private static void assertGroup(String groupId, String... gcmIds) {
+        assertEquals(new HashSet<String>(Arrays.asList(gcmIds)),
+                new HashSet<String>(DeviceStore.findDeviceIdsByGcmGroupId(groupId)));
+    }
+
+    /**
+     * Registers devices and makes them visible to queries, then empties the cache.
+     */
+    private void registerIndexed(String groupId, String... gcmIds) throws IOException {
+        for (String gcmId : gcmIds) {
+            DeviceStore.register(gcmId, groupId);
+        }
+        mServices.nextRequest();
+        for (String gcmId : gcmIds) {
+            // reading an entity group applies its writes
+            DeviceStore.findDeviceByGcmId(gcmId);
+        }
+        MemcacheServiceFactory.getMemcacheService("DeviceStore.groups").clearAll();
+    }
+
+    @Test
+    public void testRegisteredDeviceIsFoundBeforeItIsIndexed() throws IOException {
+        DeviceStore.register("a", "group1");
+        mServices.nextRequest();
+        assertGroup("group1", "a");
+        // not cached without it either
+        assertGroup("group1", "a");
+    }
+
+    @Test
+    public void testRegisteredDeviceIsAddedToCachedGroup() throws IOException {
+        registerIndexed("group1", "a");
+        assertGroup("group1", "a");
+
+        DeviceStore.register("b", "group1");
+        mServices.nextRequest();
+        assertGroup("group1", "a", "b");
+    }
+
+    @Test
+    public void testUnregisteredDeviceIsNotReadBack() throws IOException {
+        registerIndexed("group1", "a", "b");
+        DeviceStore.unregister("a");
+        mServices.nextRequest();
+        assertGroup("group1", "b");
+
+        // also when the group was not cached
+        registerIndexed("group2", "c", "d");
+        DeviceStore.unregister("c");
+        mServices.nextRequest();
+        assertGroup("group2", "d");
+    }
+
+    @Test
+    public void testCanonicalIdReplacesOldIdInGroup() throws IOException {
+        registerIndexed("group1", "old", "other");
+        assertGroup("group1", "old", "other");
+
+        DeviceStore.applyRegistrationChanges(Collections.singletonMap("old", "new"),
+                Collections.<String>emptyList());
+        mServices.nextRequest();
+        assertGroup("group1", "new", "other");
+
+        DeviceStore.updateRegistration("new", "newer");
+        mServices.nextRequest();
+        assertGroup("group1", "newer", "other");
+    }
+
+    @Test
+    public void testDeviceMovedToAnotherGroup() throws IOException {
+        registerIndexed("group1", "a", "b");
+        assertGroup("group1", "a", "b");
+
+        DeviceStore.register("a", "group2");
+        mServices.nextRequest();
+        assertGroup("group1", "b");
+        assertGroup("group2", "a");
+    }
+}
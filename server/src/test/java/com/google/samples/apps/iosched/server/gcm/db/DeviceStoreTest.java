@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.db;
+
+import static com.google.samples.apps.iosched.server.gcm.db.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.google.iosched.test.ObjectifyTestRule;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore.RegistrationChanges;
+import com.google.samples.apps.iosched.server.gcm.db.models.Device;
+import com.google.samples.apps.iosched.server.gcm.db.models.DeviceCountShard;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class DeviceStoreTest {
+
+    @Rule
+    public final ObjectifyTestRule mServices = new ObjectifyTestRule().withMemcache();
+
+    private void register(String gcmId, String groupId) throws IOException {
+        DeviceStore.register(gcmId, groupId);
+        mServices.nextRequest();
+    }
+
+    private void unregister(String gcmId) throws IOException {
+        DeviceStore.unregister(gcmId);
+        mServices.nextRequest();
+    }
+
+    private static void assertGroup(String groupId, String... gcmIds) {
+        assertEquals(new HashSet<String>(Arrays.asList(gcmIds)),
+                new HashSet<String>(DeviceStore.findDeviceIdsByGcmGroupId(groupId)));
+    }
+
+    @Test
+    public void testCounterFollowsRegistrations() throws IOException {
+        register("a", "group1");
+        register("b", "group1");
+        assertEquals(2, DeviceStore.getDeviceCount());
+
+        // registering again, or in another group, is not a new device
+        register("a", "group1");
+        register("b", "group2");
+        register("c", "group2");
+        assertEquals(3, DeviceStore.getDeviceCount());
+
+        unregister("a");
+        unregister("a");
+        assertEquals(2, DeviceStore.getDeviceCount());
+    }
+
+    @Test
+    public void testCounterCountsDevicesRegisteredBeforeIt() throws IOException {
+        register("a", "group1");
+        // forget the increment, as if the device was stored before the counter existed
+        ofy().delete().keys(ofy().load().type(DeviceCountShard.class).keys().list()).now();
+        register("b", "group1");
+
+        assertEquals(2, DeviceStore.getDeviceCount());
+        unregister("b");
+        assertEquals(1, DeviceStore.getDeviceCount());
+    }
+
+    @Test
+    public void testCachedGroupIsUpdatedInPlace() throws IOException {
+        register("a", "group1");
+        assertGroup("group1", "a");
+
+        // the cached entry is updated, not dropped
+        register("b", "group1");
+        assertGroup("group1", "a", "b");
+
+        register("b", "group2");
+        assertGroup("group1", "a");
+        assertGroup("group2", "b");
+
+        unregister("a");
+        assertGroup("group1");
+    }
+
+    @Test
+    public void testCanonicalIdsReplaceDevices() throws IOException {
+        register("old", "group1");
+        assertGroup("group1", "old");
+
+        RegistrationChanges changes = DeviceStore.applyRegistrationChanges(
+                Collections.singletonMap("old", "new"), Collections.<String>emptyList());
+
+        assertEquals(1, changes.updated);
+        assertNull(DeviceStore.findDeviceByGcmId("old"));
+        assertEquals("group1", DeviceStore.findDeviceByGcmId("new").getGcmGroupId());
+        assertGroup("group1", "new");
+        assertEquals(1, DeviceStore.getDeviceCount());
+    }
+
+    @Test
+    public void testCanonicalIdAlreadyRegisteredIsMerged() throws IOException {
+        register("old", "group1");
+        register("new", "group1");
+        register("old2", "group1");
+
+        Map<String, String> canonicalIds = new HashMap<String, String>();
+        canonicalIds.put("old", "new");
+        // two old registration ids of the same device in one batch
+        canonicalIds.put("old2", "newer");
+        canonicalIds.put("gone", "newest");
+        register("old3", "group1");
+        canonicalIds.put("old3", "newer");
+        RegistrationChanges changes = DeviceStore.applyRegistrationChanges(canonicalIds,
+                Collections.<String>emptyList());
+
+        assertEquals(1, changes.updated);
+        assertEquals(2, changes.merged);
+        assertEquals(1, changes.missing);
+        assertNotNull(DeviceStore.findDeviceByGcmId("new"));
+        assertNotNull(DeviceStore.findDeviceByGcmId("newer"));
+        assertGroup("group1", "new", "newer");
+        assertEquals(2, DeviceStore.getDeviceCount());
+    }
+
+    @Test
+    public void testUnregisteredIdsAreDeleted() throws IOException {
+        register("a", "group1");
+        register("b", "group2");
+        assertGroup("group1", "a");
+
+        RegistrationChanges changes = DeviceStore.applyRegistrationChanges(
+                Collections.<String, String>emptyMap(), Arrays.asList("a", "missing"));
+
+        assertEquals(1, changes.unregistered);
+        assertEquals(1, changes.missing);
+        assertGroup("group1");
+        assertEquals(1, DeviceStore.getDeviceCount());
+    }
+
+    @Test
+    public void testUpdateRegistrationToRegisteredIdIsMerged() throws IOException {
+        register("old", "group1");
+        register("new", "group1");
+
+        DeviceStore.updateRegistration("old", "new");
+
+        assertNull(DeviceStore.findDeviceByGcmId("old"));
+        assertGroup("group1", "new");
+        assertEquals(1, DeviceStore.getDeviceCount());
+    }
+
+    @Test
+    public void testDeviceIdsArePaged() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            register("device" + i, "group");
+        }
+
+        DeviceStore.DeviceIdsPage first = DeviceStore.getDeviceIdsPage(null, 3);
+        assertEquals(3, first.gcmIds.size());
+        assertNotNull(first.nextCursor);
+        DeviceStore.DeviceIdsPage second = DeviceStore.getDeviceIdsPage(first.nextCursor, 3);
+        assertEquals(2, second.gcmIds.size());
+        assertNull(second.nextCursor);
+
+        List<String> all = new ArrayList<String>(first.gcmIds);
+        all.addAll(second.gcmIds);
+        assertEquals(5, new HashSet<String>(all).size());
+    }
+
+    private static void setLastActive(String gcmId, Date lastActive) {
+        Device device = ofy().load().type(Device.class).id(gcmId).now();
+        device.setLastActive(lastActive);
+        ofy().save().entity(device).now();
+    }
+
+    @Test
+    public void testDeliveriesKeepDevicesFromBeingPurged() throws IOException {
+        long now = System.currentTimeMillis();
+        register("active", "group1");
+        register("idle", "group1");
+        setLastActive("active", new Date(now - TimeUnit.DAYS.toMillis(200)));
+        setLastActive("idle", new Date(now - TimeUnit.DAYS.toMillis(200)));
+        DeviceStore.recordDeliveries(Arrays.asList("active"));
+        mServices.nextRequest();
+
+        PageResult result = DeviceStore.purgeIdleDevices(
+                new Date(now - TimeUnit.DAYS.toMillis(120)), null, 10);
+        assertEquals(1, result.count);
+        assertNull(result.nextCursor);
+        assertNotNull(ofy().load().type(Device.class).id("active").now());
+        assertNull(ofy().load().type(Device.class).id("idle").now());
+        assertGroup("group1", "active");
+    }
+
+    @Test
+    public void testRecentDeliveriesAreNotReadAgain() throws IOException {
+        register("a", "group1");
+        Date longAgo = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(200));
+        setLastActive("a", longAgo);
+        DeviceStore.recordDeliveries(Arrays.asList("a"));
+        mServices.nextRequest();
+        setLastActive("a", longAgo);
+        // remembered in memcache for a day, so the device is not loaded nor written
+        DeviceStore.recordDeliveries(Arrays.asList("a"));
+        mServices.nextRequest();
+        assertEquals(longAgo, ofy().load().type(Device.class).id("a").now().getLastActive());
+    }
+
+    @Test
+    public void testIdleDevicesArePurgedByPage() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            register("device" + i, "group");
+        }
+        Date cutoff = new Date(System.currentTimeMillis() + 1000);
+        PageResult first = DeviceStore.purgeIdleDevices(cutoff, null, 2);
+        assertEquals(2, first.count);
+        assertNotNull(first.nextCursor);
+        mServices.nextRequest();
+        PageResult second = DeviceStore.purgeIdleDevices(cutoff, first.nextCursor, 2);
+        PageResult third = DeviceStore.purgeIdleDevices(cutoff, second.nextCursor, 2);
+        assertEquals(2, second.count);
+        assertEquals(1, third.count);
+        assertNull(third.nextCursor);
+        assertEquals(0, DeviceStore.getDeviceCount());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.samples.apps.iosched.server.gcm.device.DispatchScheduler.Lane;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DispatchSchedulerTest {
+
+    private static final long NOW = 1000000;
+    private static final long BURST = 1000;
+
+    private final LocalServiceTestHelper mHelper =
+            new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() {
+        mHelper.setUp();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.tearDown();
+    }
+
+    @Test
+    public void testIdleBucketAllowsBurst() {
+        // idle since long ago: the first second's worth goes out at once
+        assertArrayEquals(new long[] {0, NOW + 500},
+                DispatchScheduler.reserve(NOW - 60000, NOW, 500, BURST));
+        assertArrayEquals(new long[] {0, NOW + 1000},
+                DispatchScheduler.reserve(NOW + 500, NOW, 500, BURST));
+    }
+
+    @Test
+    public void testBatchesBeyondBurstAreSpreadOut() {
+        long[] first = DispatchScheduler.reserve(NOW, NOW, 1000, BURST);
+        long[] second = DispatchScheduler.reserve(first[1], NOW, 1000, BURST);
+        long[] third = DispatchScheduler.reserve(second[1], NOW, 1000, BURST);
+        assertArrayEquals(new long[] {0, NOW + 1000}, first);
+        assertArrayEquals(new long[] {0, NOW + 2000}, second);
+        assertArrayEquals(new long[] {1000, NOW + 3000}, third);
+    }
+
+    @Test
+    public void testLaterSendUsesBudgetAtItsOwnTime() {
+        // a retry sent in 5s does not wait for budget used up until then
+        assertArrayEquals(new long[] {0, NOW + 6000},
+                DispatchScheduler.reserve(NOW + 2000, NOW + 5000, 1000, BURST));
+        assertArrayEquals(new long[] {2000, NOW + 9000},
+                DispatchScheduler.reserve(NOW + 8000, NOW + 5000, 1000, BURST));
+    }
+
+    @Test
+    public void testQuoteDoesNotReserve() {
+        DispatchScheduler scheduler = new DispatchScheduler(1000);
+        scheduler.reserve(Lane.BROADCAST, 2000, 0);
+        long quote = scheduler.quote(Lane.BROADCAST, 1000, 0);
+        assertEquals(quote, scheduler.quote(Lane.BROADCAST, 1000, 0), 100);
+        assertEquals(Long.valueOf(2000),
+                scheduler.getMetrics().get("scheduled." + Lane.BROADCAST));
+    }
+
+    @Test
+    public void testQuoteIsAtLeastNotBefore() {
+        DispatchScheduler scheduler = new DispatchScheduler(1000);
+        assertEquals(5000, scheduler.quote(Lane.BROADCAST, 1000, 5000));
+        assertEquals(5000, scheduler.quote(Lane.USER, 1000, 5000));
+        scheduler.reserve(Lane.BROADCAST, 1000, 5000);
+        // the bucket is kept as a single time, so budget before a later send is not handed out
+        assertEquals(5000, scheduler.quote(Lane.BROADCAST, 1000, 0), 100);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import static com.google.samples.apps.iosched.server.gcm.db.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.gson.JsonParser;
+import com.google.iosched.test.FakeServletExchange;
+import com.google.iosched.test.ObjectifyTestRule;
+import com.google.samples.apps.iosched.server.gcm.db.models.PendingMessage;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class MessageCoalescerTest {
+
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    @Rule
+    public final ObjectifyTestRule mServices = new ObjectifyTestRule().withTaskQueue();
+
+    private static int queuedFlushes() {
+        QueueStateInfo queue = LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+                .get(MessageSender.MULTICAST_QUEUE);
+        return queue.getCountTasks();
+    }
+
+    @Test
+    public void testSyncPingsAreCoalescedUntilFlushed() {
+        MessageCoalescer coalescer = new MessageCoalescer(WINDOW_MILLIS);
+
+        assertTrue(coalescer.offer("global", "sync_schedule", "{\"a\":1}"));
+        assertEquals(0, queuedFlushes());
+
+        assertFalse(coalescer.offer("global", "sync_schedule", "{\"a\":2}"));
+        assertFalse(coalescer.offer("global", "sync_schedule", "{\"b\":3}"));
+        // a single flush task for the window, whatever the number of merged messages
+        assertEquals(1, queuedFlushes());
+
+        PendingMessage flushed = coalescer.startFlush(
+                PendingMessage.createId("global", "sync_schedule"));
+        assertEquals("global", flushed.getTarget());
+        assertEquals("sync_schedule", flushed.getAction());
+        assertEquals(2, flushed.getCoalesced());
+        assertEquals(new JsonParser().parse("{\"a\":2,\"b\":3}"),
+                new JsonParser().parse(flushed.getExtraData()));
+        coalescer.finishFlush(flushed);
+        // the flush is done once, even if its task runs again
+        assertNull(coalescer.startFlush(PendingMessage.createId("global", "sync_schedule")));
+
+        // the flush opened a new window
+        ofy().clear();
+        assertFalse(coalescer.offer("global", "sync_schedule", null));
+        assertEquals(2, queuedFlushes());
+    }
+
+    @Test
+    public void testFailedSendIsSentByRetriedTask() {
+        MessageCoalescer coalescer = new MessageCoalescer(WINDOW_MILLIS);
+        coalescer.offer("global", "sync_schedule", null);
+        coalescer.offer("global", "sync_schedule", "{\"a\":1}");
+        RecordingSender failing = new RecordingSender(true);
+        RecordingSender working = new RecordingSender(false);
+
+        try {
+            flush(failing, coalescer);
+            fail("send did not fail");
+        } catch (IllegalStateException expected) {
+        }
+        flush(working, coalescer);
+        flush(working, coalescer);
+
+        assertEquals(1, failing.sent);
+        assertEquals(1, working.sent);
+        assertEquals("{\"a\":1}", working.lastExtraData);
+    }
+
+    @Test
+    public void testMessagesMergedDuringSendAreFlushedLater() {
+        MessageCoalescer coalescer = new MessageCoalescer(WINDOW_MILLIS);
+        String id = PendingMessage.createId("global", "sync_schedule");
+        coalescer.offer("global", "sync_schedule", null);
+        coalescer.offer("global", "sync_schedule", "{\"a\":1}");
+        assertEquals(1, queuedFlushes());
+
+        PendingMessage flushed = coalescer.startFlush(id);
+        // the send opened a new window, so this one is merged
+        assertFalse(coalescer.offer("global", "sync_schedule", "{\"b\":2}"));
+        coalescer.finishFlush(flushed);
+
+        ofy().clear();
+        PendingMessage msg = ofy().load().type(PendingMessage.class).id(id).now();
+        assertTrue(msg.isPending());
+        assertEquals(1, msg.getCoalesced());
+        assertEquals(2, queuedFlushes());
+    }
+
+    @Test
+    public void testTargetsAndActionsAreCoalescedSeparately() {
+        MessageCoalescer coalescer = new MessageCoalescer(WINDOW_MILLIS);
+
+        assertTrue(coalescer.offer("global", "sync_schedule", null));
+        assertTrue(coalescer.offer("user1", "sync_schedule", null));
+        assertTrue(coalescer.offer("user1", "sync_user", null));
+        assertFalse(coalescer.offer("user1", "sync_user", null));
+    }
+
+    @Test
+    public void testOtherActionsAreAlwaysSent() {
+        MessageCoalescer coalescer = new MessageCoalescer(WINDOW_MILLIS);
+
+        assertTrue(coalescer.offer("global", "announcement", "first"));
+        assertTrue(coalescer.offer("global", "announcement", "second"));
+        assertTrue(coalescer.offer("global", "notification", "third"));
+        assertEquals(0, queuedFlushes());
+        assertNull(ofy().load().type(PendingMessage.class)
+                .id(PendingMessage.createId("global", "announcement")).now());
+    }
+
+    @Test
+    public void testZeroWindowDisablesCoalescing() {
+        MessageCoalescer coalescer = new MessageCoalescer(0);
+
+        assertTrue(coalescer.offer("global", "sync_schedule", null));
+        assertTrue(coalescer.offer("global", "sync_schedule", null));
+    }
+
+    @Test
+    public void testEmptyDataNeverSupersedes() {
+        assertEquals("{\"a\":1}", MessageCoalescer.mergeExtraData("{\"a\":1}", ""));
+        assertEquals("{\"a\":1}", MessageCoalescer.mergeExtraData("{\"a\":1}", null));
+        assertEquals("{\"a\":1}", MessageCoalescer.mergeExtraData("", "{\"a\":1}"));
+    }
+
+    @Test
+    public void testJsonObjectsAreMergedWithNewerValuesWinning() {
+        String merged = MessageCoalescer.mergeExtraData("{\"a\":1,\"b\":2}", "{\"b\":3,\"c\":4}");
+        assertEquals(new JsonParser().parse("{\"a\":1,\"b\":3,\"c\":4}"),
+                new JsonParser().parse(merged));
+    }
+
+    @Test
+    public void testOtherDataIsSuperseded() {
+        assertEquals("two", MessageCoalescer.mergeExtraData("one", "two"));
+        assertEquals("[2]", MessageCoalescer.mergeExtraData("{\"a\":1}", "[2]"));
+    }
+
+    private static void flush(MessageSender sender, MessageCoalescer coalescer) {
+        FakeServletExchange exchange = new FakeServletExchange().param(MessageCoalescer.PARAM_ID,
+                PendingMessage.createId("global", "sync_schedule"));
+        new CoalescedMessageWorker(sender, coalescer).doPost(exchange.request(),
+                exchange.response());
+    }
+
+    /** Counts the messages sent to targets, or fails to send them. */
+    private static class RecordingSender extends MessageSender {
+        private final boolean mFail;
+        int sent;
+        String lastExtraData;
+
+        RecordingSender(boolean fail) {
+            super("key", new DispatchScheduler(1000), false);
+            mFail = fail;
+        }
+
+        @Override
+        void sendToTarget(String target, String action, String extraData) {
+            sent++;
+            lastExtraData = extraData;
+            if (mFail) {
+                throw new IllegalStateException("GCM is down");
+            }
+        }
+    }
+}
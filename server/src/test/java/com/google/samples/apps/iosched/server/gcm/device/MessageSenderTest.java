@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.gcm.server.Constants;
+import com.google.android.gcm.server.Message;
+import com.google.android.gcm.server.MulticastResult;
+import com.google.android.gcm.server.Result;
+
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.iosched.test.FakeServletExchange;
+import com.google.iosched.test.ObjectifyTestRule;
+import com.google.samples.apps.iosched.server.gcm.db.DeviceStore;
+import com.google.samples.apps.iosched.server.gcm.db.MessageStore;
+import com.google.samples.apps.iosched.server.gcm.db.models.MulticastMessage;
+import com.google.samples.apps.iosched.server.gcm.device.DispatchScheduler.Lane;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+public class MessageSenderTest {
+
+    @Rule
+    public final ObjectifyTestRule mServices =
+            new ObjectifyTestRule().withMemcache().withTaskQueue();
+
+    private static List<String> ids(int count, int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        List<String> ids = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(new String(chars));
+        }
+        return ids;
+    }
+
+    @Test
+    public void testBatchesAreCappedByDeviceCount() {
+        List<List<String>> batches = MessageSender.batchBySize(ids(2500, 152), "test", "");
+        assertEquals(3, batches.size());
+        assertEquals(MessageSender.MAX_DEVICES, batches.get(0).size());
+        assertEquals(MessageSender.MAX_DEVICES, batches.get(1).size());
+        assertEquals(500, batches.get(2).size());
+    }
+
+    @Test
+    public void testBatchesAreCappedByStoredSize() {
+        List<List<String>> batches = MessageSender.batchBySize(ids(1000, 4096), "test", "");
+        int total = 0;
+        for (List<String> batch : batches) {
+            assertTrue(batch.size() * 4096 < MessageSender.MAX_MULTICAST_BYTES);
+            total += batch.size();
+        }
+        assertEquals(1000, total);
+        assertEquals(5, batches.size());
+    }
+
+    @Test
+    public void testEmptyListHasNoBatches() {
+        assertEquals(0, MessageSender.batchBySize(new ArrayList<String>(), "test", "").size());
+    }
+
+    @Test
+    public void testDuplicatePageDoesNotReserveBudget() {
+        DispatchScheduler scheduler = new DispatchScheduler(1000);
+        MessageSender sender = new MessageSender("key", scheduler, false);
+        sender.enqueueMulticasts(ids(10, 152), "test", "", Lane.BROADCAST, "fanout-1-0");
+        // a retried fan-out task queues the same page again
+        sender.enqueueMulticasts(ids(10, 152), "test", "", Lane.BROADCAST, "fanout-1-0");
+        assertEquals(1, LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+                .get(MessageSender.BROADCAST_QUEUE).getCountTasks());
+        assertEquals(Long.valueOf(10),
+                scheduler.getMetrics().get("scheduled." + Lane.BROADCAST));
+    }
+
+    @Test
+    public void testUnavailableDevicesAreRetried() {
+        Long id = MessageStore.createMulticast(Arrays.asList("a", "b", "c"), "test", "", false);
+        FakeSender gcm = new FakeSender().respond(multicastResult(
+                delivered(), unavailable(), unavailable()));
+
+        assertFalse(newSender(gcm).sendMessage(id));
+
+        MulticastMessage msg = MessageStore.getMulticast(id);
+        assertEquals(1, msg.getAttempts());
+        assertEquals(Arrays.asList("b", "c"), msg.getDestinations());
+        assertFalse(msg.isDeadLetter());
+        assertEquals(1, countTasks(MessageSender.MULTICAST_QUEUE));
+    }
+
+    @Test
+    public void testEachRetryCountsAnAttempt() {
+        Long id = MessageStore.createMulticast(Arrays.asList("a"), "test", "", false);
+        FakeSender gcm = new FakeSender().respond(multicastResult(unavailable()))
+                .respond(multicastResult(unavailable()));
+        MessageSender sender = newSender(gcm);
+
+        assertFalse(sender.sendMessage(id));
+        assertFalse(sender.sendMessage(id));
+
+        assertEquals(2, MessageStore.getMulticast(id).getAttempts());
+        assertEquals(2, countTasks(MessageSender.MULTICAST_QUEUE));
+    }
+
+    @Test
+    public void testUnreachableGcmIsRetried() {
+        Long id = MessageStore.createMulticast(Arrays.asList("a", "b"), "test", "", false);
+        FakeSender gcm = new FakeSender().fail(new IOException("connection reset"));
+
+        assertFalse(newSender(gcm).sendMessage(id));
+
+        MulticastMessage msg = MessageStore.getMulticast(id);
+        assertEquals(1, msg.getAttempts());
+        assertEquals(Arrays.asList("a", "b"), msg.getDestinations());
+        assertEquals(1, countTasks(MessageSender.MULTICAST_QUEUE));
+    }
+
+    @Test
+    public void testLastAttemptIsDeadLettered() {
+        Long id = MessageStore.createMulticast(Arrays.asList("a", "b"), "test", "", false);
+        MessageStore.updateMulticast(MessageStore.getMulticast(id), Arrays.asList("a", "b"),
+                RetryPolicy.MAX_ATTEMPTS - 1);
+        FakeSender gcm = new FakeSender().respond(multicastResult(delivered(), unavailable()));
+
+        assertFalse(newSender(gcm).sendMessage(id));
+
+        MulticastMessage msg = MessageStore.getMulticast(id);
+        assertTrue(msg.isDeadLetter());
+        assertEquals(RetryPolicy.MAX_ATTEMPTS, msg.getAttempts());
+        assertEquals(Arrays.asList("b"), msg.getDestinations());
+        assertEquals(0, countTasks(MessageSender.MULTICAST_QUEUE));
+    }
+
+    @Test
+    public void testWorkerKeepsRecordOfScheduledRetry() {
+        Long id = MessageStore.createMulticast(Arrays.asList("a"), "test", "", false);
+        FakeSender gcm = new FakeSender().respond(multicastResult(unavailable()));
+        FakeServletExchange exchange = new FakeServletExchange()
+                .param("multicastKey", Long.toString(id));
+
+        new MulticastQueueWorker(newSender(gcm)).doPost(exchange.request(), exchange.response());
+
+        // a failure status would make the task queue retry on top of the scheduled retry
+        assertEquals(200, exchange.status);
+        assertEquals(1, MessageStore.getMulticast(id).getAttempts());
+    }
+
+    @Test
+    public void testWorkerDeletesDeliveredRecord() throws IOException {
+        Long id = MessageStore.createMulticast(Arrays.asList("a"), "test", "", false);
+        FakeSender gcm = new FakeSender().respond(multicastResult(delivered()));
+        FakeServletExchange exchange = new FakeServletExchange()
+                .param("multicastKey", Long.toString(id));
+
+        new MulticastQueueWorker(newSender(gcm)).doPost(exchange.request(), exchange.response());
+
+        assertEquals(200, exchange.status);
+        mServices.nextRequest();
+        assertNull(MessageStore.getMulticast(id));
+        assertEquals(0, countTasks(MessageSender.MULTICAST_QUEUE));
+    }
+
+    @Test
+    public void testInvalidRegistrationsAreRemoved() throws IOException {
+        for (String gcmId : Arrays.asList("a", "b", "c", "d")) {
+            DeviceStore.register(gcmId, "group");
+        }
+        mServices.nextRequest();
+        Long id = MessageStore.createMulticast(Arrays.asList("a", "b", "c", "d"), "test", "",
+                false);
+        FakeSender gcm = new FakeSender().respond(multicastResult(delivered(),
+                error(Constants.ERROR_NOT_REGISTERED), error(Constants.ERROR_INVALID_REGISTRATION),
+                error(Constants.ERROR_MISMATCH_SENDER_ID)));
+
+        assertTrue(newSender(gcm).sendMessage(id));
+
+        mServices.nextRequest();
+        assertNotNull(DeviceStore.findDeviceByGcmId("a"));
+        assertNull(DeviceStore.findDeviceByGcmId("b"));
+        assertNull(DeviceStore.findDeviceByGcmId("c"));
+        assertNull(DeviceStore.findDeviceByGcmId("d"));
+    }
+
+    private static MessageSender newSender(final FakeSender gcm) {
+        return new MessageSender("key", new DispatchScheduler(1000), false) {
+            @Override
+            RetryAfterSender newGcmSender() {
+                return gcm;
+            }
+        };
+    }
+
+    private static int countTasks(String queue) {
+        return LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo().get(queue)
+                .getCountTasks();
+    }
+
+    private static Result delivered() {
+        return new Result.Builder().messageId("1").build();
+    }
+
+    private static Result unavailable() {
+        return error(Constants.ERROR_UNAVAILABLE);
+    }
+
+    private static Result error(String errorCode) {
+        return new Result.Builder().errorCode(errorCode).build();
+    }
+
+    private static MulticastResult multicastResult(Result... results) {
+        int success = 0;
+        for (Result result : results) {
+            if (result.getMessageId() != null) {
+                success++;
+            }
+        }
+        MulticastResult.Builder builder =
+                new MulticastResult.Builder(success, results.length - success, 0, 1);
+        for (Result result : results) {
+            builder.addResult(result);
+        }
+        return builder.build();
+    }
+
+    /** Answers multicasts with the given results, in order, without calling GCM. */
+    private static class FakeSender extends RetryAfterSender {
+        private final LinkedList<Object> mResponses = new LinkedList<Object>();
+
+        FakeSender() {
+            super("key");
+        }
+
+        FakeSender respond(MulticastResult result) {
+            mResponses.add(result);
+            return this;
+        }
+
+        FakeSender fail(IOException e) {
+            mResponses.add(e);
+            return this;
+        }
+
+        @Override
+        public MulticastResult sendNoRetry(Message message, List<String> regIds)
+                throws IOException {
+            Object response = mResponses.remove();
+            if (response instanceof IOException) {
+                throw (IOException) response;
+            }
+            return (MulticastResult) response;
+        }
+    }
+}
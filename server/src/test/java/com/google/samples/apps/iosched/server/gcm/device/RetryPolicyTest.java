@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class RetryPolicyTest {
+
+    private static final long NOW = 1463500800000L; // Tue, 17 May 2016 16:00:00 GMT
+
+    @Test
+    public void testDelayGrowsWithinJitterBoundsAndIsCapped() {
+        RetryPolicy policy = new RetryPolicy(new Random(42));
+        for (int attempts = 1; attempts < 20; attempts++) {
+            long max = Math.min(RetryPolicy.INITIAL_DELAY_MILLIS << (attempts - 1),
+                    RetryPolicy.MAX_DELAY_MILLIS);
+            long delay = policy.nextDelayMillis(attempts, -1);
+            assertTrue("attempt " + attempts + ": " + delay, delay >= max / 2 && delay <= max);
+        }
+    }
+
+    @Test
+    public void testRetryAfterIsALowerBound() {
+        RetryPolicy policy = new RetryPolicy(new Random(42));
+        assertEquals(120000, policy.nextDelayMillis(1, 120000));
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy(new Random(42));
+        assertTrue(policy.shouldRetry(RetryPolicy.MAX_ATTEMPTS - 1));
+        assertFalse(policy.shouldRetry(RetryPolicy.MAX_ATTEMPTS));
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(-1, RetryPolicy.parseRetryAfter(null, NOW));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("soon", NOW));
+        assertEquals(30000, RetryPolicy.parseRetryAfter(" 30 ", NOW));
+        assertEquals(90000,
+                RetryPolicy.parseRetryAfter("Tue, 17 May 2016 16:01:30 GMT", NOW));
+        assertEquals(0, RetryPolicy.parseRetryAfter("Tue, 17 May 2016 15:00:00 GMT", NOW));
+    }
+}
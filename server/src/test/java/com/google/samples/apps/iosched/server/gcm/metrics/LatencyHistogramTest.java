@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        assertEquals("le_5ms", LatencyHistogram.bucketName(LatencyHistogram.bucketOf(0)));
+        assertEquals("le_5ms", LatencyHistogram.bucketName(LatencyHistogram.bucketOf(5)));
+        assertEquals("le_10ms", LatencyHistogram.bucketName(LatencyHistogram.bucketOf(6)));
+        assertEquals("le_inf", LatencyHistogram.bucketName(LatencyHistogram.bucketOf(60000)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        long[] counts = new long[LatencyHistogram.BUCKET_BOUNDS_MILLIS.length];
+        counts[LatencyHistogram.bucketOf(20)] = 90;
+        counts[LatencyHistogram.bucketOf(400)] = 9;
+        counts[LatencyHistogram.bucketOf(4000)] = 1;
+        assertEquals(25, LatencyHistogram.percentile(counts, 0.5));
+        assertEquals(25, LatencyHistogram.percentile(counts, 0.9));
+        assertEquals(500, LatencyHistogram.percentile(counts, 0.99));
+        assertEquals(5000, LatencyHistogram.percentile(counts, 1));
+    }
+
+    @Test
+    public void testNoRequestsHaveNoPercentiles() {
+        long[] counts = new long[LatencyHistogram.BUCKET_BOUNDS_MILLIS.length];
+        assertEquals(-1, LatencyHistogram.percentile(counts, 0.5));
+    }
+}
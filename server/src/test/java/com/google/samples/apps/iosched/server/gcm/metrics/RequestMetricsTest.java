@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.gcm.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RequestMetricsTest {
+
+    private final LocalServiceTestHelper mHelper =
+            new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() {
+        mHelper.setUp();
+        // counts are static, drop those of earlier tests
+        RequestMetrics.flush();
+        clearSharedCounters();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.tearDown();
+    }
+
+    private static void clearSharedCounters() {
+        MemcacheServiceFactory.getMemcacheService("RequestMetrics").clearAll();
+    }
+
+    private static long exported(String name) {
+        String[] path = name.split("\\.");
+        JsonObject parent = RequestMetrics.export();
+        for (int i = 0; i < path.length - 1; i++) {
+            parent = parent.getAsJsonObject(path[i]);
+        }
+        return parent.get(path[path.length - 1]).getAsLong();
+    }
+
+    @Test
+    public void testFlushedCountsAreExportedAsNestedObjects() {
+        RequestMetrics.recordRequest("TestServlet", 30, 200);
+        RequestMetrics.recordRequest("TestServlet", 40, 204);
+        RequestMetrics.recordRequest("TestServlet", 4000, 503);
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_SUCCESS, 3);
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_UNAVAILABLE, 0);
+        assertEquals(0, RequestMetrics.export().entrySet().size());
+
+        RequestMetrics.flush();
+
+        assertEquals(2, exported("TestServlet.status.2xx"));
+        assertEquals(1, exported("TestServlet.status.5xx"));
+        assertEquals(2, exported("TestServlet.latency.le_50ms"));
+        assertEquals(50, exported("TestServlet.latency.p50"));
+        assertEquals(3, exported("gcm.results.success"));
+        assertFalse(RequestMetrics.export().getAsJsonObject("gcm").getAsJsonObject("results")
+                .has(RequestMetrics.GCM_UNAVAILABLE));
+    }
+
+    @Test
+    public void testFlushesAddUp() {
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_SUCCESS, 3);
+        RequestMetrics.flush();
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_SUCCESS, 4);
+        RequestMetrics.flush();
+        RequestMetrics.flush();
+        assertEquals(7, exported("gcm.results.success"));
+    }
+
+    @Test
+    public void testCountersAreExportedAfterEviction() {
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_SUCCESS, 3);
+        RequestMetrics.flush();
+        // memcache evicts the counters and their names
+        clearSharedCounters();
+        RequestMetrics.countGcmResult(RequestMetrics.GCM_SUCCESS, 2);
+        RequestMetrics.flush();
+        assertEquals(2, exported("gcm.results.success"));
+    }
+
+    @Test
+    public void testCountsRecordedDuringFlushesAreKept() throws InterruptedException {
+        final int threads = 4;
+        final int countsPerThread = 20000;
+        List<Thread> counting = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < countsPerThread; j++) {
+                        RequestMetrics.count("test.concurrent", 1);
+                    }
+                }
+            });
+            thread.start();
+            counting.add(thread);
+        }
+        for (Thread thread : counting) {
+            while (thread.isAlive()) {
+                RequestMetrics.flush();
+            }
+            thread.join();
+        }
+        RequestMetrics.flush();
+        assertEquals(threads * countsPerThread, exported("test.concurrent"));
+    }
+}
@@ -37,6 +37,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ExtraInputTest {
 
@@ -84,4 +86,55 @@ public class ExtraInputTest {
     assertEquals(3, dataSources.getSource(MainTypes.tag_category_mapping.name()).size());
   }
 
+  @Test
+  public void testFetchConcurrently() throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      JsonDataSources dataSources = new ExtraInput().fetchAllDataSources(executor, 10000, null);
+      assertEquals(13, dataSources.getSource(MainTypes.tag_conf.name()).size());
+      assertEquals(3, dataSources.getSource(MainTypes.tag_category_mapping.name()).size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testTimeoutIsSharedBySources() throws IOException {
+    final EntityFetcher fileFetcher = fakeFetcher;
+    fakeFetcher = new EntityFetcher() {
+      @Override
+      public JsonElement fetch(Enum<?> entityType, Map<String, String> params) throws IOException {
+        try {
+          Thread.sleep(300);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return fileFetcher.fetch(entityType, params);
+      }
+    };
+    // one thread, so the two sources take 600ms in total: each fits in the timeout, both don't
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      new ExtraInput().fetchAllDataSources(executor, 450, null);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testFetchConcurrentlyPropagatesFailures() throws IOException {
+    fakeFetcher = new EntityFetcher() {
+      @Override
+      public JsonElement fetch(Enum<?> entityType, Map<String, String> params) throws IOException {
+        throw new IOException("source unavailable");
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      new ExtraInput().fetchAllDataSources(executor, 10000, null);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
 }
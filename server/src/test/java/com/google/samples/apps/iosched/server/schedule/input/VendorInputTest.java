@@ -20,6 +20,8 @@ import static org.junit.Assert.assertNotNull;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.EntityFetcher;
@@ -36,6 +38,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class VendorInputTest {
 
@@ -78,6 +82,76 @@ public class VendorInputTest {
   }
 
 
+  @Test
+  public void testFetchPagesSequentially() throws IOException {
+    VendorDynamicInput api = new VendorDynamicInput(new PagedFetcher(10, 35, false));
+    assertPagedResult(api.fetch(MainTypes.topics), 35);
+  }
+
+  @Test
+  public void testFetchPagesConcurrently() throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      VendorDynamicInput api = new VendorDynamicInput(new PagedFetcher(10, 95, false));
+      api.setPageExecutor(executor);
+      assertPagedResult(api.fetch(MainTypes.topics), 95);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = JsonParseException.class)
+  public void testFetchPagesChecksConsistency() throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      VendorDynamicInput api = new VendorDynamicInput(new PagedFetcher(10, 35, true));
+      api.setPageExecutor(executor);
+      api.fetch(MainTypes.topics);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void assertPagedResult(JsonArray result, int total) {
+    assertEquals(total, result.size());
+    for (int i = 0; i < total; i++) {
+      assertEquals("topic" + i, result.get(i).getAsJsonObject().get("Id").getAsString());
+    }
+  }
+
+  /**
+   * Serves {@code total} entities in pages of {@code pageSize}, optionally reporting the wrong
+   * page number for every page after the first one.
+   */
+  private static class PagedFetcher implements EntityFetcher {
+    private final int pageSize;
+    private final int total;
+    private final boolean wrongPageNumbers;
+
+    PagedFetcher(int pageSize, int total, boolean wrongPageNumbers) {
+      this.pageSize = pageSize;
+      this.total = total;
+      this.wrongPageNumbers = wrongPageNumbers;
+    }
+
+    @Override
+    public JsonElement fetch(Enum<?> entityType, Map<String, String> params) throws IOException {
+      int page = params.get("page") == null ? 1 : Integer.parseInt(params.get("page"));
+      JsonArray topics = new JsonArray();
+      for (int i = (page - 1) * pageSize; i < Math.min(page * pageSize, total); i++) {
+        JsonObject topic = new JsonObject();
+        topic.addProperty("Id", "topic" + i);
+        topics.add(topic);
+      }
+      JsonObject result = new JsonObject();
+      result.addProperty("page", page > 1 && wrongPageNumbers ? 1 : page);
+      result.addProperty("pagesize", pageSize);
+      result.addProperty("total", total);
+      result.add("topics", topics);
+      return result;
+    }
+  }
+
   /**
    *
    * This is the real remote fetch. Doesn't fit well as a unit test, though, but it's here to
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckFailure;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.CheckResult;
+import com.google.samples.apps.iosched.server.schedule.model.DataCheck.FreeBlockIndex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class DataCheckTest {
+
+  @Test
+  public void testFreeBlockIndexEmpty() {
+    FreeBlockIndex index = new FreeBlockIndex(0);
+    index.build();
+    assertFalse(index.contains(100));
+  }
+
+  @Test
+  public void testFreeBlockIndexBoundaries() {
+    FreeBlockIndex index = new FreeBlockIndex(2);
+    index.add(300, 400);
+    index.add(100, 200);
+    index.build();
+    assertFalse(index.contains(99));
+    assertTrue(index.contains(100));
+    assertTrue(index.contains(199));
+    assertFalse(index.contains(200));
+    assertFalse(index.contains(250));
+    assertTrue(index.contains(300));
+    assertFalse(index.contains(400));
+  }
+
+  @Test
+  public void testFreeBlockIndexOverlappingBlocks() {
+    FreeBlockIndex index = new FreeBlockIndex(1);
+    // a long block containing a shorter one that starts later
+    index.add(100, 1000);
+    index.add(200, 300);
+    index.add(200, 250);
+    index.build();
+    assertTrue(index.contains(200));
+    assertTrue(index.contains(500));
+    assertFalse(index.contains(1000));
+  }
+
+  private static final String OLD_DATA = "{"
+      + "rooms: [{id: 'room1'}, {id: 'room2'}],"
+      + "tags: [{tag: 'TOPIC_A', original_id: 'a'}, {tag: 'TOPIC_B', original_id: 'b'}],"
+      + "video_library: []"
+      + "}";
+
+  private static final String NEW_DATA = "{"
+      + "rooms: [{id: 'room1'}],"
+      + "tags: [{tag: 'TOPIC_A', original_id: 'a'}],"
+      + "blocks: [{type: 'free', start: '2016-05-18T17:00:00.000Z', end: '2016-05-18T18:00:00.000Z'}],"
+      + "sessions: [{id: 's1', startTimestamp: '2016-05-18T17:00:00Z', endTimestamp: '2016-05-18T17:30:00Z'},"
+      + "  {id: 's2', startTimestamp: '2016-05-18T19:00:00Z', endTimestamp: '2016-05-18T19:30:00Z'}],"
+      + "video_library: [{id: 'v1', vid: ''}]"
+      + "}";
+
+  private static List<String> describe(CheckResult result) {
+    List<String> failures = new ArrayList<String>();
+    for (CheckFailure failure: result.failures) {
+      failures.add(failure.entity + "/" + failure.entityId);
+    }
+    return failures;
+  }
+
+  @Test
+  public void testDefaultRules() {
+    JsonParser parser = new JsonParser();
+    CheckResult result = new DataCheck(null).runRules(
+        parser.parse(OLD_DATA).getAsJsonObject(), parser.parse(NEW_DATA).getAsJsonObject());
+
+    List<String> failures = describe(result);
+    assertEquals(6, failures.size());
+    // rules report in registration order: sizes, tags, rooms, blocks, sessions, videos
+    assertEquals("rooms/null", failures.get(0));
+    assertEquals("tags/null", failures.get(1));
+    assertEquals("tags/TOPIC_B", failures.get(2));
+    assertEquals("rooms/room2", failures.get(3));
+    assertEquals("sessions/s2", failures.get(4));
+    assertEquals("topics/\"v1\"", failures.get(5));
+    assertEquals(DataCheckRules.getDefaultRules().size(), result.ruleTimings.size());
+  }
+
+  @Test
+  public void testParallelRunMatchesSequentialRun() {
+    JsonParser parser = new JsonParser();
+    JsonObject oldData = parser.parse(OLD_DATA).getAsJsonObject();
+    JsonObject newData = parser.parse(NEW_DATA).getAsJsonObject();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      assertEquals(describe(new DataCheck(null).runRules(oldData, newData)),
+          describe(new DataCheck(null, executor).runRules(oldData, newData)));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testBlockTimesAreParsedOnceForAllRules() {
+    JsonParser parser = new JsonParser();
+    JsonObject newData = parser.parse("{"
+        + "blocks: [{type: 'free', start: '2016-05-18T17:00:00.000Z', end: '2016-05-18T18:00:00.000Z'},"
+        + "  {type: 'free', start: 'not a date', end: '2016-05-18T20:00:00.000Z'}]"
+        + "}").getAsJsonObject();
+    CheckContext context = new CheckContext(new JsonObject(), newData);
+
+    assertEquals(2, context.getBlockTimes().size());
+    assertSame(context.getBlockTimes(), context.getBlockTimes());
+    JsonObject unparseable = newData.getAsJsonArray("blocks").get(1).getAsJsonObject();
+    assertNotNull(context.getBlockTimes().get(unparseable).parseError);
+  }
+
+  @Test
+  public void testUnparseableBlockIsReportedAndNotFree() {
+    JsonParser parser = new JsonParser();
+    JsonObject newData = parser.parse("{"
+        + "blocks: [{type: 'free', start: 'not a date', end: '2016-05-18T18:00:00.000Z'}],"
+        + "sessions: [{id: 's1', startTimestamp: '2016-05-18T17:00:00Z', endTimestamp: '2016-05-18T17:30:00Z'}]"
+        + "}").getAsJsonObject();
+    CheckResult result = new DataCheck(null).runRules(new JsonObject(), newData);
+
+    List<String> failures = describe(result);
+    assertEquals(2, failures.size());
+    assertEquals("blocks/null", failures.get(0));
+    assertEquals("sessions/s1", failures.get(1));
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+public class DataDeltaTest {
+
+  private static JsonObject parse(String json) {
+    return new JsonParser().parse(json).getAsJsonObject();
+  }
+
+  @Test
+  public void testUnchangedDataHasNoChanges() {
+    JsonObject data = parse("{sessions: [{id: 's1', title: 'A'}], rooms: [{id: 'r1'}]}");
+    JsonObject delta = DataDelta.compute("session_data_v1.1.json", data, data);
+    assertEquals("session_data_v1.1.json", delta.get(DataDelta.BASE_KEY).getAsString());
+    assertFalse(delta.has(OutputJsonKeys.MainTypes.sessions.name()));
+    assertFalse(delta.has(OutputJsonKeys.MainTypes.rooms.name()));
+  }
+
+  @Test
+  public void testAddedChangedAndRemovedEntities() {
+    JsonObject base = parse("{sessions: [{id: 's1', title: 'A'}, {id: 's2', title: 'B'}, "
+        + "{id: 's3', title: 'C'}]}");
+    JsonObject target = parse("{sessions: [{id: 's1', title: 'A'}, {id: 's2', title: 'B2'}, "
+        + "{id: 's4', title: 'D'}]}");
+    JsonObject delta = DataDelta.compute("session_data_v1.1.json", base, target);
+
+    JsonObject sessions = delta.getAsJsonObject(OutputJsonKeys.MainTypes.sessions.name());
+    JsonArray updated = sessions.getAsJsonArray(DataDelta.UPDATED_KEY);
+    JsonArray removed = sessions.getAsJsonArray(DataDelta.REMOVED_KEY);
+    assertEquals(2, updated.size());
+    assertEquals("B2", updated.get(0).getAsJsonObject().get("title").getAsString());
+    assertEquals("s4", updated.get(1).getAsJsonObject().get("id").getAsString());
+    assertEquals(1, removed.size());
+    assertEquals("s3", removed.get(0).getAsString());
+  }
+
+  @Test
+  public void testTagsAreKeyedByTagName() {
+    JsonObject base = parse("{tags: [{tag: 'TOPIC_A', name: 'A'}]}");
+    JsonObject target = parse("{tags: [{tag: 'TOPIC_B', name: 'A'}]}");
+    JsonObject tags = DataDelta.compute("base", base, target)
+        .getAsJsonObject(OutputJsonKeys.MainTypes.tags.name());
+    assertEquals("TOPIC_B", tags.getAsJsonArray(DataDelta.UPDATED_KEY).get(0).getAsJsonObject()
+        .get("tag").getAsString());
+    assertEquals("TOPIC_A", tags.getAsJsonArray(DataDelta.REMOVED_KEY).get(0).getAsString());
+  }
+
+  @Test
+  public void testEntityWithoutIdPreventsDelta() {
+    JsonObject base = parse("{video_library: [{id: 'v1'}]}");
+    JsonObject target = parse("{video_library: [{title: 'no vid'}]}");
+    assertNull(DataDelta.compute("base", base, target));
+  }
+}
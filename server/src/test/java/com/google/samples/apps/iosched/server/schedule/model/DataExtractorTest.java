@@ -15,17 +15,23 @@
  */
 package com.google.samples.apps.iosched.server.schedule.model;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.EntityFetcher;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.RemoteFilesEntityFetcherFactory;
 import com.google.samples.apps.iosched.server.schedule.input.fetcher.RemoteFilesEntityFetcherFactory.FetcherBuilder;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
 import com.google.samples.apps.iosched.server.schedule.server.input.ExtraInput;
 import com.google.samples.apps.iosched.server.schedule.server.input.VendorDynamicInput;
 import com.google.iosched.test.TestHelper;
@@ -33,11 +39,16 @@ import com.google.iosched.test.TestHelper;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class DataExtractorTest {
 
@@ -108,4 +119,51 @@ public class DataExtractorTest {
     assertFalse(hashtag.getAsString().startsWith("TYPE"));
   }
 
+  @Test
+  public void testOnlyUsedTagsAndSpeakersAreKept() {
+    JsonObject newData = new DataExtractor(false).extractFromDataSources(sources);
+    Set<String> usedTags = new HashSet<String>();
+    Set<String> usedSpeakers = new HashSet<String>();
+    for (JsonElement session: newData.getAsJsonArray(OutputJsonKeys.MainTypes.sessions.name())) {
+      for (JsonElement tag: session.getAsJsonObject().getAsJsonArray(
+          OutputJsonKeys.Sessions.tags.name())) {
+        usedTags.add(tag.getAsString());
+      }
+      JsonElement speakers = session.getAsJsonObject().get(
+          OutputJsonKeys.Sessions.speakers.name());
+      if (speakers != null) {
+        for (JsonElement speaker: speakers.getAsJsonArray()) {
+          usedSpeakers.add(speaker.getAsString());
+        }
+      }
+    }
+
+    JsonArray tags = newData.getAsJsonArray(OutputJsonKeys.MainTypes.tags.name());
+    assertTrue(tags.size() > 0);
+    for (JsonElement tag: tags) {
+      assertTrue(usedTags.contains(
+          tag.getAsJsonObject().get(OutputJsonKeys.Tags.tag.name()).getAsString()));
+    }
+    // sample data has no video sessions, so all speakers must come from sessions
+    JsonArray speakers = newData.getAsJsonArray(OutputJsonKeys.MainTypes.speakers.name());
+    assertTrue(speakers.size() > 0);
+    for (JsonElement speaker: speakers) {
+      assertTrue(usedSpeakers.contains(
+          speaker.getAsJsonObject().get(OutputJsonKeys.Speakers.id.name()).getAsString()));
+    }
+  }
+
+  @Test
+  public void testStreamingExtractionMatchesTree() throws IOException {
+    JsonObject tree = new DataExtractor(false).extractFromDataSources(sources);
+
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    MessageDigest digest = CloudFileManager.newHashDigest();
+    JsonWriter writer = CloudFileManager.newJsonWriter(new DigestOutputStream(streamed, digest));
+    new DataExtractor(false).extractFromDataSources(sources, writer);
+
+    assertEquals(new Gson().toJson(tree), streamed.toString("UTF-8"));
+    assertArrayEquals(CloudFileManager.calulateHash(tree), digest.digest());
+  }
+
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.gson.JsonObject;
+import com.google.samples.apps.iosched.server.schedule.Config;
+import com.google.samples.apps.iosched.server.schedule.model.OutputJsonKeys;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.LocalFileStore;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class APIUpdaterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CloudFileManager fileManager;
+  private InMemoryUpdateRunStore runStore;
+
+  @Before
+  public void setUp() throws Exception {
+    fileManager = new CloudFileManager(new LocalFileStore(folder.getRoot()));
+    runStore = new InMemoryUpdateRunStore();
+    UpdatePipelineFixtures.writeInputs(fileManager, 1);
+  }
+
+  @Test
+  public void testRunWritesSessionDataAndManifest() throws Exception {
+    newUpdater().run(false, false, null);
+
+    JsonObject manifest = fileManager.readProductionManifest();
+    assertNotNull(manifest);
+    assertEquals(UpdatePipelineFixtures.BLOCKS_FILE,
+        manifest.getAsJsonArray("data_files").get(0).getAsString());
+    String sessionsFile = manifest.getAsJsonArray("data_files").get(1).getAsString();
+    assertTrue(Config.SESSIONS_PATTERN.matcher(sessionsFile).matches());
+    JsonObject data = fileManager.readFileAsJsonObject(sessionsFile);
+    assertTrue(data.getAsJsonArray(OutputJsonKeys.MainTypes.sessions.name()).size() > 0);
+    assertEquals(1, runStore.getMostRecentRuns("UpdateRun", 10).size());
+  }
+
+  @Test
+  public void testUnchangedInputIsNoop() throws Exception {
+    newUpdater().run(false, false, null);
+    Entity firstRun = runStore.getMostRecentRuns("UpdateRun", 1).get(0);
+    newUpdater().run(false, false, null);
+
+    assertEquals(1, runStore.getMostRecentRuns("UpdateRun", 10).size());
+    assertEquals(firstRun.getProperty("filename"),
+        runStore.getMostRecentRuns("UpdateRun", 1).get(0).getProperty("filename"));
+  }
+
+  @Test
+  public void testForcedRunCreatesNewVersionAndDelta() throws Exception {
+    newUpdater().run(false, false, null);
+    newUpdater().run(true, false, null);
+
+    assertEquals(2, runStore.getMostRecentRuns("UpdateRun", 10).size());
+    JsonObject manifest = fileManager.readProductionManifest();
+    assertEquals(1, manifest.getAsJsonArray("delta_files").size());
+  }
+
+  private APIUpdater newUpdater() {
+    return UpdatePipelineFixtures.newUpdater(fileManager, new UpdateRunLogger(runStore));
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.iosched.test.FakeApiEnvironment;
+import com.google.iosched.test.TestHelper;
+import com.google.samples.apps.iosched.server.schedule.Config;
+import com.google.samples.apps.iosched.server.schedule.model.InputJsonKeys.VendorAPISource;
+import com.google.samples.apps.iosched.server.schedule.server.cloudstorage.CloudFileManager;
+import com.google.samples.apps.iosched.server.schedule.server.input.ExtraInput;
+import com.google.samples.apps.iosched.server.schedule.server.input.VendorStaticInput;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds the input files of {@link APIUpdater} from the recorded test data, and updaters that
+ * run on local storage.
+ */
+public class UpdatePipelineFixtures {
+
+  public static final String BLOCKS_FILE = "blocks_v1.json";
+
+  /**
+   * Writes the files read by {@link ExtraInput} and {@link VendorStaticInput}, and a production
+   * manifest that only lists the blocks file.
+   *
+   * @param scale how many copies of each speaker and session to write. Copies get ids of their
+   *     own, so that they are distinct entities in the output.
+   */
+  static public void writeInputs(CloudFileManager fileManager, int scale) throws IOException {
+    fileManager.createOrUpdate(ExtraInput.TAGSCONF_FILE,
+        TestHelper.readJsonTestDataFile("sample_tagsconf.json"), false);
+
+    JsonArray speakers = TestHelper.readJsonTestDataFile("sample_speakers.json")
+        .getAsJsonObject().getAsJsonArray("results");
+    JsonArray topics = TestHelper.readJsonTestDataFile("sample_topics.json")
+        .getAsJsonObject().getAsJsonArray("results");
+    JsonArray scaledSpeakers = new JsonArray();
+    JsonArray scaledTopics = new JsonArray();
+    for (int copy = 0; copy < scale; copy++) {
+      for (JsonElement speaker: speakers) {
+        scaledSpeakers.add(copyWithSuffix(speaker.getAsJsonObject(), copy));
+      }
+      for (JsonElement topic: topics) {
+        scaledTopics.add(copyWithSuffix(topic.getAsJsonObject(), copy));
+      }
+    }
+
+    JsonObject rawData = new JsonObject();
+    rawData.add(VendorAPISource.MainTypes.rooms.name(),
+        TestHelper.readJsonTestDataFile("sample_rooms.json"));
+    rawData.add(VendorAPISource.MainTypes.categories.name(),
+        TestHelper.readJsonTestDataFile("sample_categories.json"));
+    rawData.add(VendorAPISource.MainTypes.speakers.name(), scaledSpeakers);
+    rawData.add(VendorAPISource.MainTypes.topics.name(), scaledTopics);
+    fileManager.createOrUpdate(VendorStaticInput.RAW_SESSION_DATA_FILE, rawData, false);
+
+    fileManager.createOrUpdate(BLOCKS_FILE,
+        TestHelper.readJsonTestDataFile("sample_blocks.json"), false);
+    JsonObject manifest = new JsonObject();
+    manifest.add("format", new JsonPrimitive(Config.MANIFEST_FORMAT_VERSION));
+    JsonArray dataFiles = new JsonArray();
+    dataFiles.add(new JsonPrimitive(BLOCKS_FILE));
+    manifest.add("data_files", dataFiles);
+    fileManager.createOrUpdateProductionManifest(manifest);
+  }
+
+  /**
+   * @return an updater that uses plain threads and does not notify clients
+   */
+  static public APIUpdater newUpdater(CloudFileManager fileManager, UpdateRunLogger logger) {
+    // UpdateRunLogger creates Datastore entities, which need an App Engine environment
+    FakeApiEnvironment.install();
+    return new APIUpdater(fileManager, logger, Executors.defaultThreadFactory(), null);
+  }
+
+  /**
+   * Copies a speaker or topic, appending the copy number to its ids and to the ids of the
+   * speakers and sessions it references. Copy 0 is returned unchanged.
+   */
+  private static JsonObject copyWithSuffix(JsonObject entity, int copy) {
+    if (copy == 0) {
+      return entity;
+    }
+    String suffix = "-" + copy;
+    JsonObject result = new JsonObject();
+    for (Map.Entry<String, JsonElement> property: entity.entrySet()) {
+      result.add(property.getKey(), property.getValue());
+    }
+    result.add(VendorAPISource.Topics.Id.name(),
+        new JsonPrimitive(entity.get(VendorAPISource.Topics.Id.name()).getAsString() + suffix));
+
+    JsonElement speakerIds = entity.get(VendorAPISource.Topics.SpeakerIds.name());
+    if (speakerIds != null && speakerIds.isJsonArray()) {
+      JsonArray newSpeakerIds = new JsonArray();
+      for (JsonElement speakerId: speakerIds.getAsJsonArray()) {
+        newSpeakerIds.add(new JsonPrimitive(speakerId.getAsString() + suffix));
+      }
+      result.add(VendorAPISource.Topics.SpeakerIds.name(), newSpeakerIds);
+    }
+
+    JsonElement sessions = entity.get(VendorAPISource.Topics.Sessions.name());
+    if (sessions != null && sessions.isJsonArray()) {
+      JsonArray newSessions = new JsonArray();
+      for (JsonElement session: sessions.getAsJsonArray()) {
+        JsonObject newSession = new JsonObject();
+        for (Map.Entry<String, JsonElement> property:
+            session.getAsJsonObject().entrySet()) {
+          newSession.add(property.getKey(), property.getValue());
+        }
+        if (newSession.has("Id")) {
+          newSession.add("Id", new JsonPrimitive(newSession.get("Id").getAsString() + suffix));
+        }
+        newSessions.add(newSession);
+      }
+      result.add(VendorAPISource.Topics.Sessions.name(), newSessions);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.samples.apps.iosched.server.schedule.server.cloudstorage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+public class CloudFileManagerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Map<String, GcsFileOptions> writtenOptions;
+  private CloudFileManager fileManager;
+
+  @Before
+  public void setUp() {
+    writtenOptions = new HashMap<String, GcsFileOptions>();
+    fileManager = new CloudFileManager(new LocalFileStore(folder.getRoot()) {
+      @Override
+      public OutputStream openForWrite(String filename, GcsFileOptions options)
+          throws IOException {
+        writtenOptions.put(filename, options);
+        return super.openForWrite(filename, options);
+      }
+    });
+  }
+
+  @Test
+  public void testFilesAreWrittenGzipped() throws IOException {
+    JsonObject contents = new JsonObject();
+    contents.add("a", new JsonPrimitive(1));
+    fileManager.createOrUpdate("test.json", contents, false);
+
+    InputStream in = new FileInputStream(new File(folder.getRoot(), "test.json"));
+    try {
+      assertEquals(0x1f, in.read());
+      assertEquals(0x8b, in.read());
+    } finally {
+      in.close();
+    }
+    GcsFileOptions options = writtenOptions.get("test.json");
+    assertEquals("gzip", options.getContentEncoding());
+    assertEquals("application/json", options.getMimeType());
+  }
+
+  @Test
+  public void testContentHashMetadata() throws IOException {
+    JsonObject contents = new JsonObject();
+    contents.add("a", new JsonPrimitive("b"));
+    fileManager.createOrUpdate("tree.json", contents, true);
+
+    MessageDigest digest = CloudFileManager.newHashDigest();
+    String expected = CloudFileManager.toHex(
+        digest.digest("{\"a\":\"b\"}".getBytes(Charset.forName("UTF-8"))));
+    assertEquals(expected, writtenOptions.get("tree.json").getUserMetadata()
+        .get(CloudFileManager.CONTENT_HASH_METADATA));
+  }
+
+  @Test
+  public void testReadsGzippedAndPlainFiles() throws IOException {
+    JsonObject contents = new JsonObject();
+    contents.add("a", new JsonPrimitive("b"));
+    fileManager.createOrUpdate("gzipped.json", contents, false);
+    new LocalFileStore(folder.getRoot()).write("plain.json", null,
+        "{\"a\":\"b\"}".getBytes(Charset.forName("UTF-8")));
+
+    assertEquals(contents, fileManager.readFileAsJsonObject("gzipped.json"));
+    assertEquals(contents, fileManager.readFileAsJsonObject("plain.json"));
+  }
+
+  @Test
+  public void testTreeIsStoredLikeItsSerializedBytes() throws IOException {
+    JsonObject contents = new JsonObject();
+    contents.add("a", new JsonPrimitive("<b>"));
+    fileManager.createOrUpdate("tree.json", contents, false);
+    fileManager.createOrUpdate("hashed.json", contents, CloudFileManager.calulateHash(contents),
+        false);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(expected);
+    gzip.write(new Gson().toJson(contents).getBytes(Charset.forName("UTF-8")));
+    gzip.close();
+    assertArrayEquals(expected.toByteArray(), readFile("tree.json"));
+    assertArrayEquals(expected.toByteArray(), readFile("hashed.json"));
+    assertEquals(writtenOptions.get("hashed.json").getUserMetadata(),
+        writtenOptions.get("tree.json").getUserMetadata());
+  }
+
+  private byte[] readFile(String filename) throws IOException {
+    return Files.readAllBytes(new File(folder.getRoot(), filename).toPath());
+  }
+}